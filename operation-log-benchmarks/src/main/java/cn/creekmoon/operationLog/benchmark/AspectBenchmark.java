@@ -0,0 +1,80 @@
+package cn.creekmoon.operationLog.benchmark;
+
+import cn.creekmoon.operationLog.benchmark.BenchmarkFixtures.BenchmarkService;
+import cn.creekmoon.operationLog.benchmark.BenchmarkFixtures.Size;
+import cn.creekmoon.operationLog.benchmark.BenchmarkFixtures.StudentDto;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 切面在请求线程上的开销
+ * plain为同一个代理对象上没有注解的方法, 与其他方法的差值即为切面的开销
+ *
+ * @author creekmoon
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AspectBenchmark {
+
+    @Param({"SMALL", "LARGE"})
+    public Size size;
+
+    private AnnotationConfigApplicationContext context;
+    private BenchmarkService service;
+    private StudentDto student;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        context = BenchmarkFixtures.startContext();
+        service = context.getBean(BenchmarkService.class);
+        student = BenchmarkFixtures.student(size);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Long plain() {
+        return service.plain(student);
+    }
+
+    @Benchmark
+    public Long annotated() {
+        return service.annotated(student);
+    }
+
+    @Benchmark
+    public Long annotatedDeferred() {
+        return service.annotatedDeferred(student);
+    }
+
+    @Benchmark
+    public Long annotatedSampledOut() {
+        return service.annotatedSampledOut(student);
+    }
+
+    @Benchmark
+    public Long annotatedFollow() {
+        return service.annotatedFollow(student);
+    }
+}
@@ -0,0 +1,177 @@
+package cn.creekmoon.operationLog.benchmark;
+
+import cn.creekmoon.operationLog.config.EnableOperationLog;
+import cn.creekmoon.operationLog.core.BatchOperationLogHandler;
+import cn.creekmoon.operationLog.core.LogRecord;
+import cn.creekmoon.operationLog.core.OperationLog;
+import cn.creekmoon.operationLog.core.OperationLogContext;
+import cn.creekmoon.operationLog.core.SampleMode;
+import com.alibaba.fastjson2.JSON;
+import lombok.Data;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.EnableAspectJAutoProxy;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 基准测试共用的数据和Spring容器
+ *
+ * @author creekmoon
+ */
+public final class BenchmarkFixtures {
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * 参数对象的规模
+     */
+    public enum Size {
+        /*几个字段*/
+        SMALL(0),
+        /*带有10个元素的集合*/
+        MEDIUM(10),
+        /*带有100个元素的集合*/
+        LARGE(100),
+        /*带有10000个元素的集合 远超参数序列化的集合大小限制*/
+        HUGE(10000);
+
+        final int items;
+
+        Size(int items) {
+            this.items = items;
+        }
+    }
+
+    public static StudentDto student(Size size) {
+        StudentDto student = new StudentDto();
+        student.setId(10086L);
+        student.setName("张三");
+        student.setScore(new BigDecimal("95.50"));
+        student.setCreateTime(LocalDateTime.of(2024, 1, 1, 8, 0));
+        List<CourseDto> courses = new ArrayList<>(size.items);
+        for (int i = 0; i < size.items; i++) {
+            CourseDto course = new CourseDto();
+            course.setCode("C" + i);
+            course.setTitle("课程" + i);
+            course.setCredit(i % 5);
+            courses.add(course);
+        }
+        student.setCourses(courses);
+        Map<String, String> attributes = new LinkedHashMap<>();
+        for (int i = 0; i < size.items; i++) {
+            attributes.put("k" + i, "v" + i);
+        }
+        student.setAttributes(attributes);
+        return student;
+    }
+
+    /**
+     * 一条典型的日志记录 参数、跟踪值、标签都有内容
+     */
+    public static LogRecord logRecord(Size size) {
+        LogRecord logRecord = new LogRecord();
+        logRecord.setUserId(10086L);
+        logRecord.setUserName("张三");
+        logRecord.setProjectName("benchmark");
+        logRecord.setOperationType("UPDATE");
+        logRecord.setOperationName("更新学生信息");
+        logRecord.setMethodName("update");
+        logRecord.setClassFullName("cn.creekmoon.operationLog.benchmark.BenchmarkFixtures$BenchmarkService.update");
+        logRecord.setRequestParamsJson(JSON.toJSONString(List.of(student(size))));
+        logRecord.setPreValue(JSON.toJSON(student(size)));
+        logRecord.getTags().add("student");
+        return logRecord;
+    }
+
+    /**
+     * 启动带有切面和空处理器的容器
+     * 空处理器先于配置类注册, 因此不会注册默认的日志输出处理器
+     */
+    public static AnnotationConfigApplicationContext startContext() {
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        context.registerBean("noopHandler", NoopHandler.class);
+        context.register(BenchmarkConfiguration.class);
+        context.refresh();
+        return context;
+    }
+
+    @Configuration
+    @EnableOperationLog
+    @EnableAspectJAutoProxy
+    public static class BenchmarkConfiguration {
+        @Bean
+        public BenchmarkService benchmarkService() {
+            return new BenchmarkService();
+        }
+    }
+
+    /**
+     * 被测方法 方法体尽量简单, 测出的差异即为切面的开销
+     */
+    public static class BenchmarkService {
+
+        public Long plain(StudentDto student) {
+            return student.getId();
+        }
+
+        @OperationLog(value = "查询学生", type = "QUERY")
+        public Long annotated(StudentDto student) {
+            return student.getId();
+        }
+
+        @OperationLog(value = "查询学生", type = "QUERY", deferredCapture = true)
+        public Long annotatedDeferred(StudentDto student) {
+            return student.getId();
+        }
+
+        @OperationLog(value = "查询学生", type = "QUERY", sampleRate = 0, sampleMode = SampleMode.RATIO)
+        public Long annotatedSampledOut(StudentDto student) {
+            return student.getId();
+        }
+
+        @OperationLog(value = "更新学生", type = "UPDATE")
+        public Long annotatedFollow(StudentDto student) {
+            OperationLogContext.follow(() -> student);
+            return student.getId();
+        }
+    }
+
+    /**
+     * 什么都不做的处理器 只计数
+     */
+    public static class NoopHandler implements BatchOperationLogHandler {
+
+        public final LongAdder handled = new LongAdder();
+
+        @Override
+        public void handleBatch(List<LogRecord> logRecords) {
+            handled.add(logRecords.size());
+        }
+    }
+
+    @Data
+    public static class StudentDto {
+        private Long id;
+        private String name;
+        private BigDecimal score;
+        private LocalDateTime createTime;
+        private List<CourseDto> courses;
+        private Map<String, String> attributes;
+    }
+
+    @Data
+    public static class CourseDto {
+        private String code;
+        private String title;
+        private int credit;
+    }
+}
@@ -0,0 +1,94 @@
+package cn.creekmoon.operationLog.benchmark;
+
+import cn.creekmoon.operationLog.benchmark.BenchmarkFixtures.NoopHandler;
+import cn.creekmoon.operationLog.config.OperationLogConfig;
+import cn.creekmoon.operationLog.core.LogDispatcher;
+import cn.creekmoon.operationLog.core.LogRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 分发器的端到端吞吐量 多个请求线程同时提交, 交给1~N个处理器
+ * 线程数可以通过 -t 参数调整
+ *
+ * @author creekmoon
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class DispatchBenchmark {
+
+    @Param({"1", "4"})
+    public int handlers;
+
+    @Param({"false", "true"})
+    public boolean spool;
+
+    private AnnotationConfigApplicationContext context;
+    private LogDispatcher dispatcher;
+    /*预写日志所在的临时目录 结束后删除*/
+    private Path spoolDirectory;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        OperationLogConfig config = new OperationLogConfig();
+        if (spool) {
+            config.getSpool().setEnabled(true);
+            spoolDirectory = Files.createTempDirectory("operation-log-benchmark");
+            config.getSpool().setDirectory(spoolDirectory.toString());
+        }
+        context = new AnnotationConfigApplicationContext();
+        context.registerBean(OperationLogConfig.class, () -> config);
+        for (int i = 0; i < handlers; i++) {
+            context.registerBean("noopHandler" + i, NoopHandler.class);
+        }
+        context.registerBean(LogDispatcher.class);
+        context.refresh();
+        dispatcher = context.getBean(LogDispatcher.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+        System.out.printf("%n[handlers=%d spool=%s] dropped=%d%n", handlers, spool, dispatcher.getDroppedCount());
+        if (spoolDirectory != null) {
+            try (Stream<Path> paths = Files.walk(spoolDirectory)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+            spoolDirectory = null;
+        }
+    }
+
+    @Benchmark
+    public void dispatch() {
+        LogRecord logRecord = new LogRecord();
+        logRecord.setOperationType("QUERY");
+        logRecord.setClassFullName("cn.creekmoon.operationLog.benchmark.DispatchBenchmark.dispatch");
+        logRecord.setRequestParamsJson("[\"1\"]");
+        dispatcher.dispatch(logRecord);
+    }
+}
@@ -0,0 +1,76 @@
+package cn.creekmoon.operationLog.benchmark;
+
+import cn.creekmoon.operationLog.benchmark.BenchmarkFixtures.Size;
+import cn.creekmoon.operationLog.core.LogRecord;
+import cn.creekmoon.operationLog.core.LogRecordCodec;
+import cn.creekmoon.operationLog.core.LogStringDictionary;
+import com.alibaba.fastjson2.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 日志记录的输出格式 打平的JSON与二进制编码的比较
+ * 各格式的字节数在启动时输出
+ *
+ * @author creekmoon
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FlatJsonBenchmark {
+
+    @Param({"SMALL", "LARGE"})
+    public Size size;
+
+    private LogRecord logRecord;
+    private LogRecordCodec codec;
+    private byte[] encoded;
+
+    @Setup
+    public void setup() {
+        logRecord = BenchmarkFixtures.logRecord(size);
+        codec = new LogRecordCodec(new LogStringDictionary());
+        encoded = codec.encode(logRecord);
+        System.out.printf("%n[%s] toFlatJson=%d bytes, codec=%d bytes%n",
+                size, logRecord.toFlatJsonBytes().length, encoded.length);
+    }
+
+    @Benchmark
+    public JSONObject toFlatJson() {
+        return logRecord.toFlatJson();
+    }
+
+    @Benchmark
+    public String toFlatJsonString() {
+        return logRecord.toFlatJson().toJSONString();
+    }
+
+    @Benchmark
+    public byte[] toFlatJsonBytes() {
+        return logRecord.toFlatJsonBytes();
+    }
+
+    @Benchmark
+    public byte[] codecEncode() {
+        return codec.encode(logRecord);
+    }
+
+    @Benchmark
+    public LogRecord codecDecode() {
+        return codec.decode(encoded);
+    }
+}
@@ -0,0 +1,68 @@
+package cn.creekmoon.operationLog.benchmark;
+
+import cn.creekmoon.operationLog.benchmark.BenchmarkFixtures.Size;
+import cn.creekmoon.operationLog.benchmark.BenchmarkFixtures.StudentDto;
+import cn.creekmoon.operationLog.core.FieldChange;
+import cn.creekmoon.operationLog.core.ObjectDiffer;
+import com.alibaba.fastjson2.JSONB;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 跟踪值(follow)的开销
+ * snapshot为操作之前生成快照, diff为操作之后与快照比较, jsonbSnapshot为开启延迟捕获时请求线程上的开销
+ *
+ * @author creekmoon
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FollowBenchmark {
+
+    @Param({"SMALL", "MEDIUM", "LARGE"})
+    public Size size;
+
+    private StudentDto before;
+    private StudentDto after;
+    private Object beforeSnapshot;
+
+    @Setup
+    public void setup() {
+        before = BenchmarkFixtures.student(size);
+        after = BenchmarkFixtures.student(size);
+        after.setName("李四");
+        after.setScore(new BigDecimal("88.00"));
+        beforeSnapshot = ObjectDiffer.snapshot(before);
+    }
+
+    @Benchmark
+    public Object snapshot() {
+        return ObjectDiffer.snapshot(before);
+    }
+
+    @Benchmark
+    public List<FieldChange> diff() {
+        return ObjectDiffer.diff(beforeSnapshot, after, 200);
+    }
+
+    @Benchmark
+    public byte[] jsonbSnapshot() {
+        return JSONB.toBytes(before);
+    }
+}
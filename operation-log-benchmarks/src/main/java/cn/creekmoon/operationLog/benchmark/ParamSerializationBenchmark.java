@@ -0,0 +1,69 @@
+package cn.creekmoon.operationLog.benchmark;
+
+import cn.creekmoon.operationLog.benchmark.BenchmarkFixtures.BenchmarkService;
+import cn.creekmoon.operationLog.benchmark.BenchmarkFixtures.Size;
+import cn.creekmoon.operationLog.benchmark.BenchmarkFixtures.StudentDto;
+import cn.creekmoon.operationLog.core.DeferredCapture;
+import cn.creekmoon.operationLog.core.LogRecord;
+import cn.creekmoon.operationLog.core.OperationLogMetadata;
+import cn.creekmoon.operationLog.core.ParamJsonSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 方法参数序列化的开销
+ * serialize为请求线程上直接序列化, deferredSnapshot为开启延迟捕获时请求线程上的开销, deferredComplete为分发线程上的开销
+ * HUGE的集合超过maxCollectionSize, 快照同样受限制, deferredSnapshot的开销应与LARGE相近而不是随集合大小增长
+ *
+ * @author creekmoon
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParamSerializationBenchmark {
+
+    @Param({"SMALL", "MEDIUM", "LARGE", "HUGE"})
+    public Size size;
+
+    private ParamJsonSerializer serializer;
+    private OperationLogMetadata metadata;
+    private Object[] args;
+
+    @Setup
+    public void setup() throws NoSuchMethodException {
+        serializer = new ParamJsonSerializer(5, 100, 2048);
+        metadata = OperationLogMetadata.of(BenchmarkService.class.getMethod("annotated", StudentDto.class));
+        args = new Object[]{BenchmarkFixtures.student(size)};
+    }
+
+    @Benchmark
+    public String serialize() {
+        return serializer.serialize(metadata, args);
+    }
+
+    @Benchmark
+    public DeferredCapture deferredSnapshot() {
+        return serializer.snapshot(metadata, args);
+    }
+
+    @Benchmark
+    public String deferredComplete() {
+        LogRecord logRecord = new LogRecord();
+        logRecord.addDeferredCapture(serializer.snapshot(metadata, args));
+        return logRecord.getRequestParamsJson();
+    }
+}
@@ -6,8 +6,14 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.stereotype.Component;
 
+/**
+ * 默认的日志处理器 没有其他日志处理器时把日志输出到控制台
+ * 最近日志存储只是内存中的查询缓存, 不算作日志的输出目标, 启用后仍然保留默认处理器
+ *
+ * @author creekmoon
+ */
 @Component
-@ConditionalOnMissingBean({OperationLogHandler.class})
+@ConditionalOnMissingBean(value = OperationLogHandler.class, ignored = RecentOperationLogStore.class)
 @Slf4j
 public class DefaultOperationLogHandler implements OperationLogHandler {
 
@@ -0,0 +1,345 @@
+package cn.creekmoon.operationLog.config;
+
+import cn.creekmoon.operationLog.core.BatchOperationLogHandler;
+import cn.creekmoon.operationLog.core.LogRecord;
+import cn.hutool.core.util.StrUtil;
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONArray;
+import com.alibaba.fastjson2.JSONObject;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Elasticsearch日志处理器 operation-log.elasticsearch.enabled=true 时启用
+ * 把打平后的日志直接拼接为_bulk请求体(NDJSON), 文档id为recordId, 使用JDK自带的HttpClient复用连接
+ * 每次bulk请求的文档数量按响应耗时自动调整; 部分文档被拒绝时只重试被限流或服务端错误拒绝的文档
+ *
+ * @author creekmoon
+ */
+@Component
+@ConditionalOnProperty(prefix = "operation-log.elasticsearch", name = "enabled", havingValue = "true")
+@Slf4j
+public class ElasticsearchOperationLogHandler implements BatchOperationLogHandler {
+
+    /*只返回判断结果需要的字段 减小响应体*/
+    private static final String BULK_PATH = "/_bulk?filter_path=errors,items.*.status,items.*.error.type,items.*.error.reason";
+    private static final byte[] ACTION_SUFFIX = "\"}}\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final OperationLogConfig.Elasticsearch config;
+    private final HttpClient httpClient;
+    private final List<URI> bulkUris;
+    private final String authorization;
+    /*索引名称中日期之前和之后的部分 以及日期格式, 没有日期时dateFormatter为null*/
+    private final String indexPrefix;
+    private final String indexSuffix;
+    private final DateTimeFormatter dateFormatter;
+    private final AtomicInteger nextNode = new AtomicInteger();
+    /*当前单次bulk请求的文档数量*/
+    private final AtomicInteger bulkSize;
+    private final int minBulkSize;
+    private final int maxBulkSize;
+    private final long maxBulkBytes;
+    private final long targetLatencyNanos;
+
+    public ElasticsearchOperationLogHandler(OperationLogConfig operationLogConfig) {
+        this.config = operationLogConfig.getElasticsearch();
+        if (config.getUrls() == null || config.getUrls().isEmpty()) {
+            throw new IllegalArgumentException("[operation-log]operation-log.elasticsearch.urls 至少需要一个节点地址");
+        }
+        this.bulkUris = new ArrayList<>(config.getUrls().size());
+        for (String url : config.getUrls()) {
+            bulkUris.add(URI.create(StrUtil.removeSuffix(url.trim(), "/") + BULK_PATH));
+        }
+        if (StrUtil.isNotBlank(config.getApiKey())) {
+            this.authorization = "ApiKey " + config.getApiKey();
+        } else if (StrUtil.isNotBlank(config.getUsername())) {
+            String credentials = config.getUsername() + ":" + StrUtil.nullToEmpty(config.getPassword());
+            this.authorization = "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8));
+        } else {
+            this.authorization = null;
+        }
+        String index = config.getIndex();
+        int start = index.indexOf('{');
+        int end = index.indexOf('}', start + 1);
+        if (start >= 0 && end > start) {
+            this.indexPrefix = index.substring(0, start);
+            this.indexSuffix = index.substring(end + 1);
+            this.dateFormatter = DateTimeFormatter.ofPattern(index.substring(start + 1, end)).withZone(ZoneOffset.UTC);
+        } else {
+            this.indexPrefix = index;
+            this.indexSuffix = "";
+            this.dateFormatter = null;
+        }
+        this.minBulkSize = Math.max(1, config.getMinBulkSize());
+        this.maxBulkSize = Math.max(minBulkSize, config.getMaxBulkSize());
+        this.bulkSize = new AtomicInteger(Math.min(maxBulkSize, Math.max(minBulkSize, config.getBulkSize())));
+        this.maxBulkBytes = Math.max(1, config.getMaxBulkBytes().toBytes());
+        this.targetLatencyNanos = config.getTargetLatency().toNanos();
+        /*HTTP/1.1长连接由HttpClient内部的连接池复用*/
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(config.getConnectTimeout())
+                .build();
+    }
+
+    @Override
+    public void handleBatch(List<LogRecord> logRecords) {
+        if (logRecords.isEmpty()) {
+            return;
+        }
+        /*每条日志只转换一次 重试时只重新拼接请求体*/
+        List<byte[]> documents = new ArrayList<>(logRecords.size());
+        long lastSecond = Long.MIN_VALUE;
+        byte[] action = null;
+        for (LogRecord logRecord : logRecords) {
+            long epochNanos = logRecord.operationEpochNanos();
+            long second = epochNanos == 0 ? Instant.now().getEpochSecond() : Math.floorDiv(epochNanos, 1_000_000_000L);
+            /*同一批次的日志大多在同一秒内 索引名称按秒缓存*/
+            if (action == null || second != lastSecond) {
+                action = actionPrefix(indexOf(second));
+                lastSecond = second;
+            }
+            documents.add(document(action, logRecord));
+        }
+        int offset = 0;
+        while (offset < documents.size()) {
+            int size = bulkSize.get();
+            int end = offset;
+            long bytes = 0;
+            while (end < documents.size() && end - offset < size
+                    && (end == offset || bytes + documents.get(end).length <= maxBulkBytes)) {
+                bytes += documents.get(end).length;
+                end++;
+            }
+            bulk(documents.subList(offset, end));
+            offset = end;
+        }
+    }
+
+    /**
+     * 发送一次bulk请求 被限流或服务端错误拒绝的文档按退避时间重试
+     *
+     * @param documents 文档 每项为一行action和一行source
+     */
+    private void bulk(List<byte[]> documents) {
+        List<byte[]> pending = documents;
+        long backoff = config.getRetryBackoff().toMillis();
+        for (int attempt = 0; ; attempt++) {
+            String reason;
+            try {
+                pending = send(pending);
+                if (pending.isEmpty()) {
+                    return;
+                }
+                reason = pending.size() + "条日志被限流或服务端错误拒绝";
+            } catch (IOException e) {
+                reason = e.toString();
+            } catch (InterruptedException e) {
+                /*处理超时被中断 放弃本批次*/
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("[operation-log]日志写入Elasticsearch被中断! documents=" + pending.size(), e);
+            }
+            if (attempt >= config.getMaxRetries()) {
+                throw new IllegalStateException("[operation-log]日志写入Elasticsearch失败! documents=" + pending.size() + " " + reason);
+            }
+            log.warn("[operation-log]日志写入Elasticsearch失败, {}ms后第{}次重试! {}", backoff, attempt + 1, reason);
+            try {
+                TimeUnit.MILLISECONDS.sleep(backoff);
+            } catch (InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("[operation-log]日志写入Elasticsearch被中断! documents=" + pending.size(), interrupted);
+            }
+            backoff = Math.min(backoff * 2, config.getMaxRetryBackoff().toMillis());
+        }
+    }
+
+    /**
+     * 发送bulk请求并检查每个文档的结果
+     *
+     * @param documents 文档
+     * @return 需要重试的文档 全部成功时为空
+     * @throws IOException          连接失败、超时或整个请求被限流、服务端错误拒绝
+     * @throws InterruptedException 处理超时被中断
+     */
+    private List<byte[]> send(List<byte[]> documents) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(nextUri())
+                .timeout(config.getRequestTimeout())
+                .header("Content-Type", "application/x-ndjson")
+                .header("Accept-Encoding", "gzip")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body(documents)));
+        if (config.isGzip()) {
+            request.header("Content-Encoding", "gzip");
+        }
+        if (authorization != null) {
+            request.header("Authorization", authorization);
+        }
+        long start = System.nanoTime();
+        HttpResponse<byte[]> response = httpClient.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+        long elapsed = System.nanoTime() - start;
+        int status = response.statusCode();
+        if (status == 429 || status >= 500) {
+            adjustBulkSize(documents.size(), elapsed, true);
+            throw new IOException("Elasticsearch返回状态码" + status);
+        }
+        byte[] responseBody = decode(response);
+        if (status >= 300) {
+            throw new IllegalStateException("[operation-log]Elasticsearch拒绝了bulk请求! status=" + status
+                    + " body=" + StrUtil.maxLength(new String(responseBody, StandardCharsets.UTF_8), 500));
+        }
+        JSONObject result = JSON.parseObject(responseBody);
+        if (result == null || !result.getBooleanValue("errors")) {
+            adjustBulkSize(documents.size(), elapsed, false);
+            return List.of();
+        }
+        JSONArray items = result.getJSONArray("items");
+        List<byte[]> retry = new ArrayList<>();
+        int rejected = 0;
+        String rejectReason = null;
+        for (int i = 0; items != null && i < items.size() && i < documents.size(); i++) {
+            JSONObject item = items.getJSONObject(i);
+            JSONObject operation = item == null || item.isEmpty() ? null : item.getJSONObject(item.keySet().iterator().next());
+            int itemStatus = operation == null ? 0 : operation.getIntValue("status");
+            if (itemStatus >= 200 && itemStatus < 300) {
+                continue;
+            }
+            if (itemStatus == 429 || itemStatus >= 500) {
+                retry.add(documents.get(i));
+            } else {
+                rejected++;
+                if (rejectReason == null && operation != null) {
+                    rejectReason = String.valueOf(operation.get("error"));
+                }
+            }
+        }
+        /*映射错误等无法通过重试恢复 只记录不重试*/
+        if (rejected > 0) {
+            log.error("[operation-log]{}条日志被Elasticsearch拒绝, 已丢弃! {}", rejected, rejectReason);
+        }
+        adjustBulkSize(documents.size(), elapsed, !retry.isEmpty());
+        return retry;
+    }
+
+    /**
+     * 按响应耗时调整单次bulk请求的文档数量
+     * 超过期望耗时或被限流时减半, 低于期望耗时的一半且本次请求已满时增加四分之一
+     */
+    private void adjustBulkSize(int sent, long elapsedNanos, boolean overloaded) {
+        int current = bulkSize.get();
+        int next;
+        if (overloaded || elapsedNanos > targetLatencyNanos) {
+            next = Math.max(minBulkSize, current / 2);
+        } else if (elapsedNanos < targetLatencyNanos / 2 && sent >= current) {
+            next = Math.min(maxBulkSize, current + Math.max(1, current / 4));
+        } else {
+            return;
+        }
+        if (next != current && bulkSize.compareAndSet(current, next)) {
+            log.debug("[operation-log]Elasticsearch单次bulk文档数量调整为{} 耗时{}ms", next, TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+        }
+    }
+
+    /**
+     * 当前单次bulk请求的文档数量
+     *
+     * @return 文档数量
+     */
+    public int getBulkSize() {
+        return bulkSize.get();
+    }
+
+    private URI nextUri() {
+        return bulkUris.get(Math.floorMod(nextNode.getAndIncrement(), bulkUris.size()));
+    }
+
+    private String indexOf(long epochSecond) {
+        if (dateFormatter == null) {
+            return indexPrefix;
+        }
+        return indexPrefix + dateFormatter.format(Instant.ofEpochSecond(epochSecond)) + indexSuffix;
+    }
+
+    private static byte[] actionPrefix(String index) {
+        return ("{\"index\":{\"_index\":" + JSON.toJSONString(index) + ",\"_id\":\"").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 一个文档在bulk请求体中的两行 {"index":{...}}\n{打平的日志}\n
+     */
+    private static byte[] document(byte[] actionPrefix, LogRecord logRecord) {
+        byte[] source = logRecord.toFlatJsonBytes();
+        byte[] id = String.valueOf(logRecord.getRecordId()).getBytes(StandardCharsets.US_ASCII);
+        byte[] document = new byte[actionPrefix.length + id.length + ACTION_SUFFIX.length + source.length + 1];
+        int position = 0;
+        System.arraycopy(actionPrefix, 0, document, position, actionPrefix.length);
+        position += actionPrefix.length;
+        System.arraycopy(id, 0, document, position, id.length);
+        position += id.length;
+        System.arraycopy(ACTION_SUFFIX, 0, document, position, ACTION_SUFFIX.length);
+        position += ACTION_SUFFIX.length;
+        System.arraycopy(source, 0, document, position, source.length);
+        document[document.length - 1] = '\n';
+        return document;
+    }
+
+    private byte[] body(List<byte[]> documents) throws IOException {
+        int length = 0;
+        for (byte[] document : documents) {
+            length += document.length;
+        }
+        if (!config.isGzip()) {
+            byte[] body = new byte[length];
+            int position = 0;
+            for (byte[] document : documents) {
+                System.arraycopy(document, 0, body, position, document.length);
+                position += document.length;
+            }
+            return body;
+        }
+        /*日志字段重复度高 压缩后通常只有原来的十分之一左右*/
+        ByteArrayOutputStream output = new ByteArrayOutputStream(Math.max(512, length / 8));
+        try (GZIPOutputStream gzip = new GZIPOutputStream(output, 8192)) {
+            for (byte[] document : documents) {
+                gzip.write(document);
+            }
+        }
+        return output.toByteArray();
+    }
+
+    private static byte[] decode(HttpResponse<byte[]> response) throws IOException {
+        byte[] body = response.body();
+        boolean gzip = response.headers().firstValue("Content-Encoding").map(x -> x.contains("gzip")).orElse(false);
+        if (!gzip || body == null || body.length == 0) {
+            return body == null ? new byte[0] : body;
+        }
+        try (InputStream input = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            return input.readAllBytes();
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        httpClient.close();
+    }
+}
@@ -0,0 +1,261 @@
+package cn.creekmoon.operationLog.config;
+
+import cn.creekmoon.operationLog.core.BatchOperationLogHandler;
+import cn.creekmoon.operationLog.core.FileSyncPolicy;
+import cn.creekmoon.operationLog.core.LogRecord;
+import cn.creekmoon.operationLog.core.LogRecordFlatWriter;
+import com.alibaba.fastjson2.JSON;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 文件日志处理器 operation-log.file.enabled=true 时启用
+ * 每行一条JSON, 先写入直接内存缓冲区, 每个批次结束时一次性写入文件; 按大小和时间滚动, 滚动后的文件可以在后台压缩
+ * 处理器自己的处理线程就是唯一的写入线程, 请求线程不会接触文件
+ *
+ * @author creekmoon
+ */
+@Component
+@ConditionalOnProperty(prefix = "operation-log.file", name = "enabled", havingValue = "true")
+@Slf4j
+public class FileOperationLogHandler implements BatchOperationLogHandler {
+
+    private static final String SUFFIX = ".ndjson";
+    private static final String GZIP_SUFFIX = ".gz";
+    private static final DateTimeFormatter ROLL_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    private final OperationLogConfig.LogFile config;
+    private final Path directory;
+    private final Path activeFile;
+    private final ByteBuffer buffer;
+    private final long maxFileSize;
+    private final long rollIntervalMillis;
+    /*滚动后的文件在这个线程上压缩 不启用压缩时为null*/
+    private final ExecutorService gzipExecutor;
+
+    private FileChannel channel;
+    /*当前文件已写入的字节数 不含缓冲区中的部分*/
+    private long fileSize;
+    private long openedAtMillis;
+    private long lastSyncNanos = System.nanoTime();
+
+    public FileOperationLogHandler(OperationLogConfig operationLogConfig) {
+        this.config = operationLogConfig.getFile();
+        this.directory = Paths.get(config.getDirectory());
+        this.activeFile = directory.resolve(config.getName() + SUFFIX);
+        this.buffer = ByteBuffer.allocateDirect((int) Math.max(4096, config.getBufferSize().toBytes()));
+        this.maxFileSize = config.getMaxFileSize().toBytes();
+        Duration rollInterval = config.getRollInterval();
+        this.rollIntervalMillis = rollInterval == null ? 0 : rollInterval.toMillis();
+        if (config.isGzip()) {
+            this.gzipExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "operation-logs-file-gzip");
+                thread.setDaemon(true);
+                return thread;
+            });
+            compressLeftovers();
+        } else {
+            this.gzipExecutor = null;
+        }
+    }
+
+    @Override
+    public synchronized void handleBatch(List<LogRecord> logRecords) {
+        try {
+            if (channel == null) {
+                open();
+            }
+            if (rollIntervalMillis > 0 && fileSize > 0 && System.currentTimeMillis() - openedAtMillis >= rollIntervalMillis) {
+                roll();
+            }
+            for (LogRecord logRecord : logRecords) {
+                byte[] line = config.isFlat() ? LogRecordFlatWriter.toBytes(logRecord) : JSON.toJSONBytes(logRecord);
+                long size = fileSize + buffer.position();
+                if (size > 0 && size + line.length + 1 > maxFileSize) {
+                    roll();
+                }
+                append(line);
+            }
+            /*每个批次结束时写入文件 采集程序可以立即读到*/
+            flushBuffer();
+            sync();
+        } catch (IOException e) {
+            /*丢弃当前文件句柄 下一个批次重新打开*/
+            buffer.clear();
+            closeChannel();
+            throw new UncheckedIOException("[operation-log]日志写入文件失败! file=" + activeFile, e);
+        }
+    }
+
+    private void append(byte[] line) throws IOException {
+        if (line.length + 1 > buffer.remaining()) {
+            flushBuffer();
+        }
+        if (line.length + 1 > buffer.capacity()) {
+            /*超过缓冲区大小的记录直接写入*/
+            ByteBuffer wrapped = ByteBuffer.wrap(line);
+            while (wrapped.hasRemaining()) {
+                fileSize += channel.write(wrapped);
+            }
+            buffer.put((byte) '\n');
+            return;
+        }
+        buffer.put(line).put((byte) '\n');
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            fileSize += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void sync() throws IOException {
+        FileSyncPolicy syncPolicy = config.getSyncPolicy();
+        long now = System.nanoTime();
+        if (syncPolicy == FileSyncPolicy.EVERY_BATCH
+                || (syncPolicy == FileSyncPolicy.INTERVAL && now - lastSyncNanos >= config.getSyncInterval().toNanos())) {
+            channel.force(false);
+            lastSyncNanos = now;
+        }
+    }
+
+    private void open() throws IOException {
+        Files.createDirectories(directory);
+        boolean exists = Files.exists(activeFile);
+        channel = FileChannel.open(activeFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        fileSize = channel.size();
+        /*继续写入上次留下的文件时 按文件的创建时间计算滚动*/
+        openedAtMillis = exists
+                ? Files.readAttributes(activeFile, BasicFileAttributes.class).creationTime().toMillis()
+                : System.currentTimeMillis();
+    }
+
+    /**
+     * 关闭当前文件并改名, 然后打开新文件
+     */
+    private void roll() throws IOException {
+        flushBuffer();
+        if (config.getSyncPolicy() != FileSyncPolicy.NONE) {
+            channel.force(false);
+        }
+        closeChannel();
+        String prefix = config.getName() + "-" + ROLL_FORMATTER.format(LocalDateTime.now());
+        /*同一秒内多次滚动时按序号区分*/
+        Path rolled = directory.resolve(prefix + "-0" + SUFFIX);
+        for (int i = 1; Files.exists(rolled) || Files.exists(Paths.get(rolled + GZIP_SUFFIX)); i++) {
+            rolled = directory.resolve(prefix + "-" + i + SUFFIX);
+        }
+        Files.move(activeFile, rolled, StandardCopyOption.ATOMIC_MOVE);
+        open();
+        if (gzipExecutor != null) {
+            Path source = rolled;
+            try {
+                gzipExecutor.execute(() -> compress(source));
+            } catch (RejectedExecutionException e) {
+                /*已经关闭 下次启动时再压缩*/
+                log.debug("[operation-log]压缩线程已关闭, 滚动后的文件下次启动时压缩 file={}", source);
+            }
+        }
+    }
+
+    /**
+     * 压缩滚动后的文件 完成后删除原文件
+     *
+     * @param source 滚动后的文件
+     */
+    private static void compress(Path source) {
+        Path target = Paths.get(source + GZIP_SUFFIX);
+        Path temp = Paths.get(target + ".tmp");
+        try {
+            try (OutputStream outputStream = new GZIPOutputStream(Files.newOutputStream(temp), 64 * 1024)) {
+                Files.copy(source, outputStream);
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            Files.delete(source);
+        } catch (IOException e) {
+            log.error("[operation-log]压缩日志文件失败, 保留原文件! file={}", source, e);
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * 压缩上次进程滚动后未来得及压缩的文件
+     */
+    private void compressLeftovers() {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, config.getName() + "-*" + SUFFIX)) {
+            for (Path file : files) {
+                gzipExecutor.execute(() -> compress(file));
+            }
+        } catch (IOException e) {
+            log.error("[operation-log]扫描日志目录失败! directory={}", directory, e);
+        }
+    }
+
+    private void closeChannel() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.debug("[operation-log]关闭日志文件失败!", e);
+        }
+        channel = null;
+    }
+
+    /**
+     * 关闭时刷盘 之后仍有批次到达时会重新打开文件
+     */
+    @PreDestroy
+    public synchronized void close() {
+        if (channel != null) {
+            try {
+                flushBuffer();
+                channel.force(false);
+            } catch (IOException e) {
+                log.error("[operation-log]日志文件刷盘失败! file={}", activeFile, e);
+            }
+            closeChannel();
+        }
+        if (gzipExecutor != null) {
+            gzipExecutor.shutdown();
+            try {
+                gzipExecutor.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
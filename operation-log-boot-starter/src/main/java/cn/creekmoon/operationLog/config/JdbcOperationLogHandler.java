@@ -0,0 +1,313 @@
+package cn.creekmoon.operationLog.config;
+
+import cn.creekmoon.operationLog.core.BatchOperationLogHandler;
+import cn.creekmoon.operationLog.core.LogRecord;
+import cn.hutool.core.util.StrUtil;
+import com.alibaba.fastjson2.JSON;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.BeanNameAware;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * 数据库日志处理器 operation-log.jdbc.enabled=true 时启用
+ * 每个批次借用一个连接, 使用多行INSERT在一个事务中写入, 失败时整体回滚并按退避时间重试
+ * 处理器的timeout同时作为每条语句的查询超时, 数据库无响应时不会一直占用处理线程
+ *
+ * @author creekmoon
+ */
+@Component
+@ConditionalOnProperty(prefix = "operation-log.jdbc", name = "enabled", havingValue = "true")
+@Slf4j
+public class JdbcOperationLogHandler implements BatchOperationLogHandler, BeanNameAware {
+
+    /*表名和列名只允许普通标识符 防止配置拼接出其他语句*/
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*(\\.[A-Za-z_][A-Za-z0-9_]*)?");
+
+    /*可写入的字段 顺序即建表时列的顺序*/
+    private static final List<Column> ALL_COLUMNS = List.of(
+            new Column("recordId", Types.BIGINT, "BIGINT", LogRecord::getRecordId),
+            new Column("userId", Types.BIGINT, "BIGINT", LogRecord::getUserId),
+            new Column("userName", Types.VARCHAR, "VARCHAR(128)", LogRecord::getUserName),
+            new Column("userAccountId", Types.BIGINT, "BIGINT", LogRecord::getUserAccountId),
+            new Column("userAccountName", Types.VARCHAR, "VARCHAR(128)", LogRecord::getUserAccountName),
+            new Column("projectName", Types.VARCHAR, "VARCHAR(128)", LogRecord::getProjectName),
+            new Column("operationType", Types.VARCHAR, "VARCHAR(64)", LogRecord::getOperationType),
+            new Column("operationName", Types.VARCHAR, "VARCHAR(255)", LogRecord::getOperationName),
+            new Column("methodName", Types.VARCHAR, "VARCHAR(255)", LogRecord::getMethodName),
+            new Column("classFullName", Types.VARCHAR, "VARCHAR(512)", LogRecord::getClassFullName),
+            new Column("requestResult", Types.BOOLEAN, "BOOLEAN", LogRecord::getRequestResult),
+            new Column("operationTime", Types.TIMESTAMP, "TIMESTAMP", LogRecord::getOperationTime),
+            new Column("repeatCount", Types.INTEGER, "INTEGER", LogRecord::getRepeatCount),
+            new Column("lastOperationTime", Types.TIMESTAMP, "TIMESTAMP", LogRecord::getLastOperationTime),
+            new Column("requestParams", Types.VARCHAR, null, LogRecord::getRequestParamsJson),
+            new Column("preValue", Types.VARCHAR, null, x -> toJson(x.getPreValue())),
+            new Column("afterValue", Types.VARCHAR, null, x -> toJson(x.getAfterValue())),
+            new Column("changes", Types.VARCHAR, null, x -> toJson(x.getChanges())),
+            new Column("tags", Types.VARCHAR, "VARCHAR(1024)", x -> x.hasTags() ? JSON.toJSONString(x.getTags()) : null),
+            new Column("remarks", Types.VARCHAR, null, x -> x.hasRemarks() ? JSON.toJSONString(x.getRemarks()) : null)
+    );
+
+    private final DataSource dataSource;
+    private final OperationLogConfig operationLogConfig;
+    private final OperationLogConfig.Jdbc config;
+    /*每条语句的查询超时 0表示不限制*/
+    private volatile int queryTimeoutSeconds;
+    private final String table;
+    /*实际写入的字段及对应的列名*/
+    private final List<Column> columns = new ArrayList<>();
+    private final List<String> columnNames = new ArrayList<>();
+    /*整批行数的INSERT语句 只有最后不满的一批需要重新拼接*/
+    private final String fullInsertSql;
+    private volatile boolean tableReady;
+
+    public JdbcOperationLogHandler(DataSource dataSource, OperationLogConfig operationLogConfig) {
+        this.dataSource = dataSource;
+        this.operationLogConfig = operationLogConfig;
+        this.config = operationLogConfig.getJdbc();
+        this.queryTimeoutSeconds = queryTimeoutSeconds(operationLogConfig.handlerConfig(null).getTimeout());
+        this.table = checkIdentifier(config.getTable());
+        for (Column column : ALL_COLUMNS) {
+            String columnName = config.getColumns().getOrDefault(column.field(), StrUtil.toUnderlineCase(column.field()));
+            if (StrUtil.isBlank(columnName)) {
+                continue;
+            }
+            columns.add(column);
+            columnNames.add(checkIdentifier(columnName));
+        }
+        if (columns.isEmpty()) {
+            throw new IllegalArgumentException("[operation-log]operation-log.jdbc.columns 至少需要写入一个字段");
+        }
+        this.fullInsertSql = insertSql(Math.max(1, config.getRowsPerStatement()));
+        this.tableReady = !config.isAutoDdl();
+    }
+
+    @Override
+    public void setBeanName(String name) {
+        /*按Bean名称单独配置的处理器超时*/
+        this.queryTimeoutSeconds = queryTimeoutSeconds(operationLogConfig.handlerConfig(name).getTimeout());
+    }
+
+    /**
+     * 处理器超时对应的查询超时 JDBC的查询超时以秒为单位, 不足一秒按一秒计算
+     */
+    private static int queryTimeoutSeconds(Duration timeout) {
+        if (timeout == null || timeout.isZero() || timeout.isNegative()) {
+            return 0;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, (timeout.toMillis() + 999) / 1000);
+    }
+
+    @Override
+    public void handleBatch(List<LogRecord> logRecords) {
+        if (logRecords.isEmpty()) {
+            return;
+        }
+        /*参数在重试前只转换一次*/
+        List<Object[]> rows = new ArrayList<>(logRecords.size());
+        for (LogRecord logRecord : logRecords) {
+            Object[] row = new Object[columns.size()];
+            for (int i = 0; i < row.length; i++) {
+                row[i] = columns.get(i).getter().apply(logRecord);
+            }
+            rows.add(row);
+        }
+        long backoff = config.getRetryBackoff().toMillis();
+        for (int attempt = 0; ; attempt++) {
+            try {
+                write(rows);
+                return;
+            } catch (SQLException e) {
+                /*语法、约束、数据类型等错误重试也无法恢复*/
+                if (e instanceof SQLNonTransientException || attempt >= config.getMaxRetries()) {
+                    throw new IllegalStateException("[operation-log]日志写入数据库失败! rows=" + rows.size(), e);
+                }
+                log.warn("[operation-log]日志写入数据库失败, {}ms后第{}次重试! {}", backoff, attempt + 1, e.getMessage());
+                try {
+                    TimeUnit.MILLISECONDS.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    /*处理超时被中断 放弃本批次*/
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("[operation-log]日志写入数据库被中断! rows=" + rows.size(), e);
+                }
+                backoff = Math.min(backoff * 2, config.getMaxRetryBackoff().toMillis());
+            }
+        }
+    }
+
+    /**
+     * 在一个事务中写入所有行
+     *
+     * @param rows 行数据
+     * @throws SQLException 写入失败 事务已回滚
+     */
+    private void write(List<Object[]> rows) throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            if (!tableReady) {
+                createTableIfAbsent(connection);
+            }
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                int rowsPerStatement = Math.max(1, config.getRowsPerStatement());
+                for (int offset = 0; offset < rows.size(); offset += rowsPerStatement) {
+                    int count = Math.min(rowsPerStatement, rows.size() - offset);
+                    String sql = count == rowsPerStatement ? fullInsertSql : insertSql(count);
+                    try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                        statement.setQueryTimeout(queryTimeoutSeconds);
+                        bind(statement, rows, offset, count);
+                        statement.executeUpdate();
+                    }
+                }
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                try {
+                    connection.rollback();
+                } catch (SQLException rollbackException) {
+                    e.addSuppressed(rollbackException);
+                }
+                throw e;
+            } finally {
+                /*连接来自连接池 归还前恢复原状态*/
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
+    private void bind(PreparedStatement statement, List<Object[]> rows, int offset, int count) throws SQLException {
+        int index = 1;
+        for (int r = offset; r < offset + count; r++) {
+            Object[] row = rows.get(r);
+            for (int c = 0; c < row.length; c++) {
+                Object value = row[c];
+                if (value == null) {
+                    statement.setNull(index++, columns.get(c).sqlType());
+                } else if (value instanceof String text) {
+                    statement.setString(index++, text);
+                } else {
+                    statement.setObject(index++, value);
+                }
+            }
+        }
+    }
+
+    private String insertSql(int rowCount) {
+        String placeholders = "(" + String.join(", ", Collections.nCopies(columns.size(), "?")) + ")";
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table)
+                .append(" (").append(String.join(", ", columnNames)).append(") VALUES ");
+        for (int i = 0; i < rowCount; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(placeholders);
+        }
+        return sql.toString();
+    }
+
+    /**
+     * 表不存在时建表 只在第一次写入时检查
+     *
+     * @param connection 连接
+     * @throws SQLException 建表失败
+     */
+    private synchronized void createTableIfAbsent(Connection connection) throws SQLException {
+        if (tableReady) {
+            return;
+        }
+        DatabaseMetaData metaData = connection.getMetaData();
+        if (!tableExists(metaData)) {
+            String textType = textType(metaData.getDatabaseProductName());
+            StringBuilder ddl = new StringBuilder("CREATE TABLE ").append(table).append(" (");
+            for (int i = 0; i < columns.size(); i++) {
+                if (i > 0) {
+                    ddl.append(", ");
+                }
+                String type = columns.get(i).ddlType();
+                ddl.append(columnNames.get(i)).append(' ').append(type != null ? type : textType);
+            }
+            ddl.append(')');
+            try (Statement statement = connection.createStatement()) {
+                statement.setQueryTimeout(queryTimeoutSeconds);
+                statement.execute(ddl.toString());
+            }
+            if (!connection.getAutoCommit()) {
+                connection.commit();
+            }
+            log.info("[operation-log]已创建日志表 {}", table);
+        }
+        tableReady = true;
+    }
+
+    private boolean tableExists(DatabaseMetaData metaData) throws SQLException {
+        String schema = null;
+        String name = table;
+        int dot = table.indexOf('.');
+        if (dot > 0) {
+            schema = table.substring(0, dot);
+            name = table.substring(dot + 1);
+        }
+        /*不同数据库对未加引号的标识符大小写处理不同*/
+        for (String candidate : new String[]{name, name.toUpperCase(Locale.ROOT), name.toLowerCase(Locale.ROOT)}) {
+            try (ResultSet tables = metaData.getTables(null, schema, candidate, new String[]{"TABLE"})) {
+                if (tables.next()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static String textType(String databaseProductName) {
+        String product = databaseProductName == null ? "" : databaseProductName.toLowerCase(Locale.ROOT);
+        if (product.contains("mysql") || product.contains("mariadb")) {
+            return "LONGTEXT";
+        }
+        if (product.contains("postgresql")) {
+            return "TEXT";
+        }
+        if (product.contains("microsoft")) {
+            return "NVARCHAR(MAX)";
+        }
+        return "CLOB";
+    }
+
+    private static String toJson(Object value) {
+        return value == null ? null : JSON.toJSONString(value);
+    }
+
+    private static String checkIdentifier(String identifier) {
+        if (identifier == null || !IDENTIFIER.matcher(identifier).matches()) {
+            throw new IllegalArgumentException("[operation-log]operation-log.jdbc 中的表名或列名不合法: " + identifier);
+        }
+        return identifier;
+    }
+
+    /**
+     * 可写入的字段
+     *
+     * @param field   LogRecord的字段名
+     * @param sqlType 写入null时使用的类型
+     * @param ddlType 建表时的类型 为null时使用数据库的长文本类型
+     * @param getter  取值方法
+     */
+    private record Column(String field, int sqlType, String ddlType, Function<LogRecord, Object> getter) {
+    }
+}
@@ -0,0 +1,181 @@
+package cn.creekmoon.operationLog.config;
+
+import cn.creekmoon.operationLog.core.HandlerLane;
+import cn.creekmoon.operationLog.core.LogAspect;
+import cn.creekmoon.operationLog.core.LogDispatcher;
+import cn.creekmoon.operationLog.core.LogMetrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * 基于Micrometer的日志链路指标 引入Micrometer且容器中存在MeterRegistry时自动生效
+ * operation.log.aspect              切面各阶段耗时 phase=init/params/follow/dispatch
+ * operation.log.records             交给分发器的日志数量 type=操作类型
+ * operation.log.buffer.pending      缓冲区中等待分发的日志数量
+ * operation.log.dropped/spilled     缓冲区已满时丢弃/写入磁盘的日志数量
+ * operation.log.merged              因重复被合并的日志数量
+ * operation.log.sampled.out         未被采样的调用数量
+ * operation.log.rate.limited        被限流的调用数量
+ * operation.log.handler             处理器处理一个批次的耗时 handler=Bean名称 outcome=success/failure
+ * operation.log.handler.queue       处理器队列中等待的批次数量
+ * operation.log.handler.dropped/timeouts/failures/circuit.open  处理器的丢弃、超时、失败和熔断状态
+ *
+ * @author creekmoon
+ */
+@Component
+@ConditionalOnClass(name = "io.micrometer.core.instrument.MeterRegistry")
+@Slf4j
+public class MicrometerLogMetrics extends LogMetrics implements ApplicationListener<ContextRefreshedEvent> {
+
+    private static final String PREFIX = "operation.log.";
+
+    private final ObjectProvider<MeterRegistry> registryProvider;
+    private final LogDispatcher logDispatcher;
+    private final LogAspect logAspect;
+
+    private volatile MeterRegistry registry;
+    private final Timer[] phaseTimers = new Timer[LogMetrics.Phase.values().length];
+    /*按处理器名称和结果缓存 避免每次都查找注册表*/
+    private final Map<String, Timer> handlerTimers = new ConcurrentHashMap<>();
+    private final Map<String, Counter> recordCounters = new ConcurrentHashMap<>();
+
+    public MicrometerLogMetrics(ObjectProvider<MeterRegistry> registryProvider, LogDispatcher logDispatcher, LogAspect logAspect) {
+        this.registryProvider = registryProvider;
+        this.logDispatcher = logDispatcher;
+        this.logAspect = logAspect;
+    }
+
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+        MeterRegistry current = this.registry;
+        if (current == null) {
+            current = registryProvider.getIfAvailable();
+            if (current == null) {
+                return;
+            }
+            bindPipeline(current);
+            this.registry = current;
+            LogMetrics.use(this);
+            log.debug("[operation-log]已启用Micrometer指标");
+        }
+        /*处理器可能在刷新后发生变化 重复注册同名指标不会产生新的指标*/
+        for (HandlerLane lane : logDispatcher.getLanes()) {
+            bindLane(current, lane.getName());
+        }
+    }
+
+    private void bindPipeline(MeterRegistry registry) {
+        for (LogMetrics.Phase phase : LogMetrics.Phase.values()) {
+            phaseTimers[phase.ordinal()] = Timer.builder(PREFIX + "aspect")
+                    .description("切面各阶段在请求线程上的耗时")
+                    .tag("phase", phase.name().toLowerCase(Locale.ROOT))
+                    .register(registry);
+        }
+        Gauge.builder(PREFIX + "buffer.pending", logDispatcher, LogDispatcher::getPendingCount)
+                .description("缓冲区中等待分发的日志数量")
+                .register(registry);
+        Gauge.builder(PREFIX + "aggregation.pending", logDispatcher, LogDispatcher::getAggregatingCount)
+                .description("正在聚合中的日志数量")
+                .register(registry);
+        functionCounter(registry, "dropped", "缓冲区已满被丢弃的日志数量", logDispatcher, LogDispatcher::getDroppedCount, Tags.empty());
+        functionCounter(registry, "spilled", "缓冲区已满被写入磁盘的日志数量", logDispatcher, LogDispatcher::getSpilledCount, Tags.empty());
+        functionCounter(registry, "merged", "因重复被合并的日志数量", logDispatcher, LogDispatcher::getMergedCount, Tags.empty());
+        functionCounter(registry, "sampled.out", "未被采样的调用数量", logAspect, LogAspect::getSampledOutCount, Tags.empty());
+        functionCounter(registry, "rate.limited", "被限流的调用数量", logAspect, LogAspect::getRateLimitedCount, Tags.empty());
+    }
+
+    private void bindLane(MeterRegistry registry, String name) {
+        Tags tags = Tags.of("handler", name);
+        /*按名称查找当前的处理通道 处理器被替换后指标仍然有效*/
+        Gauge.builder(PREFIX + "handler.queue", this, x -> laneValue(name, HandlerLane::getQueuedBatchCount))
+                .description("处理器队列中等待的批次数量")
+                .tags(tags)
+                .register(registry);
+        Gauge.builder(PREFIX + "handler.circuit.open", this, x -> laneValue(name, lane -> lane.isCircuitOpen() ? 1 : 0))
+                .description("处理器是否已熔断")
+                .tags(tags)
+                .register(registry);
+        functionCounter(registry, "handler.dropped", "处理器丢弃的批次数量", this, x -> laneValue(name, HandlerLane::getDroppedCount), tags);
+        functionCounter(registry, "handler.timeouts", "处理器超时的批次数量", this, x -> laneValue(name, HandlerLane::getTimeoutCount), tags);
+        functionCounter(registry, "handler.failures", "处理器失败的批次数量", this, x -> laneValue(name, HandlerLane::getFailedCount), tags);
+    }
+
+    private double laneValue(String name, ToDoubleFunction<HandlerLane> value) {
+        for (HandlerLane lane : logDispatcher.getLanes()) {
+            if (lane.getName().equals(name)) {
+                return value.applyAsDouble(lane);
+            }
+        }
+        return 0;
+    }
+
+    private static <T> void functionCounter(MeterRegistry registry, String name, String description, T target, ToDoubleFunction<T> count, Tags tags) {
+        FunctionCounter.builder(PREFIX + name, target, count)
+                .description(description)
+                .tags(tags)
+                .register(registry);
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return registry != null;
+    }
+
+    @Override
+    public void recordPhase(Phase phase, long nanos) {
+        Timer timer = phaseTimers[phase.ordinal()];
+        if (timer != null) {
+            timer.record(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public void recordHandler(String handlerName, int batchSize, long nanos, boolean success) {
+        MeterRegistry current = registry;
+        if (current == null) {
+            return;
+        }
+        String outcome = success ? "success" : "failure";
+        handlerTimers.computeIfAbsent(handlerName + '\0' + outcome, x -> Timer.builder(PREFIX + "handler")
+                        .description("处理器处理一个批次的耗时")
+                        .tags("handler", handlerName, "outcome", outcome)
+                        .register(current))
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void recordDispatched(String operationType) {
+        MeterRegistry current = registry;
+        if (current == null) {
+            return;
+        }
+        String type = operationType == null ? "none" : operationType;
+        recordCounters.computeIfAbsent(type, x -> Counter.builder(PREFIX + "records")
+                        .description("交给分发器的日志数量")
+                        .tag("type", type)
+                        .register(current))
+                .increment();
+    }
+
+    @PreDestroy
+    public void close() {
+        LogMetrics.use(null);
+    }
+}
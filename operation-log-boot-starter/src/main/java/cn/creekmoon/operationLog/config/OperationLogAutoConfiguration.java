@@ -1,19 +1,47 @@
 package cn.creekmoon.operationLog.config;
 
 import cn.creekmoon.operationLog.core.LogAspect;
+import cn.creekmoon.operationLog.core.LogDispatcher;
+import cn.creekmoon.operationLog.core.LogRecordFlatWriter;
 import cn.creekmoon.operationLog.core.OperationLogContext;
 import jakarta.annotation.PostConstruct;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
 
 
 @Configuration
-@Import({LogAspect.class,
+@Import({LogDispatcher.class,
+        JdbcOperationLogHandler.class,
+        FileOperationLogHandler.class,
+        ElasticsearchOperationLogHandler.class,
+        RecentOperationLogStore.class,
         DefaultOperationLogHandler.class,
-        DefaultOperationLogRecordInitializer.class})
+        DefaultOperationLogRecordInitializer.class,
+        MicrometerLogMetrics.class,
+        OperationLogEndpoint.class})
 public class OperationLogAutoConfiguration {
+
+    private final OperationLogConfig operationLogConfig;
+
+    public OperationLogAutoConfiguration(OperationLogConfig operationLogConfig) {
+        this.operationLogConfig = operationLogConfig;
+    }
+
+    /**
+     * 日志切面 编译时织入时使用AspectJ创建的实例, 依赖注入和初始化与代理模式相同
+     */
+    @Bean
+    public LogAspect logAspect() {
+        return LogAspect.instance();
+    }
+
     @PostConstruct
     public void init() {
+        /*选择日志上下文的存储方式*/
+        OperationLogContext.useBackend(operationLogConfig.getContextBackend());
+        /*操作时间所在的时区*/
+        LogRecordFlatWriter.useZone(operationLogConfig.getZoneId());
         /*当标记整个服务启用*/
         OperationLogContext.disable = false;
     }
@@ -1,16 +1,393 @@
 package cn.creekmoon.operationLog.config;
 
+import cn.creekmoon.operationLog.core.ContextBackend;
+import cn.creekmoon.operationLog.core.FileSyncPolicy;
+import cn.creekmoon.operationLog.core.HandlerQueueType;
+import cn.creekmoon.operationLog.core.OverflowPolicy;
+import cn.creekmoon.operationLog.core.RateLimitScope;
+import cn.creekmoon.operationLog.core.SampleMode;
+import cn.creekmoon.operationLog.core.ZoneIdEnum;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
- * ES连接常量
+ * 操作日志配置
  */
 @Component //定义配置类
 @Data //提供get set方法
 @ConfigurationProperties(prefix = "operation-log") //yml配置中的路径
 public class OperationLogConfig {
 
-    // 暂时没有任何需要配置的
+    /*日志上下文的存储方式 使用虚拟线程或StructuredTaskScope时可以切换为SCOPED_VALUE*/
+    private ContextBackend contextBackend = ContextBackend.THREAD_LOCAL;
+
+    /*操作时间所在的时区 用于转换为UTC时间输出, 为空时使用系统时区*/
+    private ZoneIdEnum zoneId;
+
+    /*日志分发器配置*/
+    private Dispatcher dispatcher = new Dispatcher();
+
+    /*本地预写日志配置*/
+    private Spool spool = new Spool();
+
+    /*重复操作聚合配置*/
+    private Aggregation aggregation = new Aggregation();
+
+    /*日志处理器的默认配置*/
+    private Handler handler = Handler.defaults();
+
+    /*按Bean名称单独指定的日志处理器配置 未指定的项使用默认配置*/
+    private Map<String, Handler> handlers = new LinkedHashMap<>();
+
+    /*方法参数序列化配置*/
+    private Params params = new Params();
+
+    /*采样和限流的默认配置*/
+    private Sampling sampling = Sampling.defaults();
+
+    /*按方法全称(类名.方法名)单独指定的采样和限流配置 优先于注解, 未指定的项使用注解或默认配置*/
+    private Map<String, Sampling> samplings = new LinkedHashMap<>();
+
+    /*跟踪值(OperationLogContext.follow)配置*/
+    private Follow follow = new Follow();
+
+    /*内置的数据库日志处理器配置*/
+    private Jdbc jdbc = new Jdbc();
+
+    /*内置的文件日志处理器配置*/
+    private LogFile file = new LogFile();
+
+    /*内置的最近日志存储配置*/
+    private Store store = new Store();
+
+    /*内置的Elasticsearch日志处理器配置*/
+    private Elasticsearch elasticsearch = new Elasticsearch();
+
+
+    /**
+     * 获取日志处理器的实际配置 单独配置中未指定的项使用默认配置
+     *
+     * @param beanName 处理器的Bean名称 为null时返回默认配置
+     * @return 补全后的配置
+     */
+    public Handler handlerConfig(String beanName) {
+        Handler handlerConfig = beanName == null ? null : handlers.get(beanName);
+        return handlerConfig == null ? handler.withDefaults(handler) : handlerConfig.withDefaults(handler);
+    }
+
+
+    /**
+     * 日志分发器配置 operation-log.dispatcher.*
+     */
+    @Data
+    public static class Dispatcher {
+        /*环形缓冲区容量 会向上取整为2的幂*/
+        private int bufferSize = 1024;
+        /*每批次最多交给处理器的日志数量*/
+        private int batchSize = 100;
+        /*未达到批次数量时, 最长等待多久进行一次处理*/
+        private Duration flushInterval = Duration.ofMillis(500);
+        /*缓冲区已满时的处理策略*/
+        private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+        /*BLOCK策略下请求线程的最长等待时间 超时后丢弃日志*/
+        private Duration blockTimeout = Duration.ofMillis(100);
+        /*SPILL_TO_DISK策略下的暂存目录*/
+        private String spillDirectory = System.getProperty("java.io.tmpdir") + "/operation-log-spill";
+        /*容器关闭时等待缓冲区和各处理器队列中的日志处理完毕的最长时间*/
+        private Duration shutdownTimeout = Duration.ofSeconds(10);
+    }
+
+
+    /**
+     * 本地预写日志配置 operation-log.spool.*
+     * 启用后日志先追加到本地的内存映射文件, 各处理器按自己的进度读取并确认, 进程崩溃后未确认的日志会在启动时重放
+     */
+    @Data
+    public static class Spool {
+        /*是否启用*/
+        private boolean enabled = false;
+        /*段文件所在目录*/
+        private String directory = System.getProperty("java.io.tmpdir") + "/operation-log-spool";
+        /*单个段文件的大小 写满后切换到新文件*/
+        private DataSize segmentSize = DataSize.ofMegabytes(64);
+        /*刷盘间隔 间隔内的所有写入合并为一次fsync*/
+        private Duration syncInterval = Duration.ofMillis(100);
+        /*处理失败的批次重新投递的最大次数 用尽后丢弃并确认进度, 小于0时一直重试*/
+        private int maxRedeliveries = 10;
+        /*第一次重新投递前的等待时间 之后每次翻倍*/
+        private Duration redeliveryBackoff = Duration.ofSeconds(1);
+        /*重新投递前的最长等待时间*/
+        private Duration maxRedeliveryBackoff = Duration.ofMinutes(1);
+    }
+
+
+    /**
+     * 重复操作聚合配置 operation-log.aggregation.*
+     * 时间窗口内同一用户以相同参数调用同一方法且结果相同的日志合并为一条, 记录重复次数以及第一次和最后一次的时间
+     */
+    @Data
+    public static class Aggregation {
+        /*是否启用*/
+        private boolean enabled = false;
+        /*时间窗口 第一条日志会在窗口结束后才交给处理器*/
+        private Duration window = Duration.ofSeconds(1);
+        /*最多同时聚合的日志数量 超过后最早的日志提前结束聚合*/
+        private int maxEntries = 10000;
+        /*分段数量 分段越多请求线程之间的锁竞争越少*/
+        private int stripes = 16;
+    }
+
+
+    /**
+     * 日志处理器配置 operation-log.handler.* 以及 operation-log.handlers.<beanName>.*
+     * 每个处理器拥有独立的队列和处理线程, 一个处理器变慢不会影响其他处理器
+     */
+    @Data
+    public static class Handler {
+        /*处理线程数量 大于1时同一处理器的批次可能乱序*/
+        private Integer concurrency;
+        /*等待处理的批次数量上限*/
+        private Integer queueCapacity;
+        /*批次队列类型*/
+        private HandlerQueueType queueType;
+        /*批次队列已满时的处理策略 支持BLOCK / DROP_OLDEST / DROP_NEWEST, BLOCK最长等待timeout*/
+        private OverflowPolicy overflowPolicy;
+        /*是否使用虚拟线程作为处理线程 处理器以阻塞IO为主时可以配合较大的concurrency使用*/
+        private Boolean virtualThreads;
+        /*处理一个批次的最长时间 超时后中断处理线程并记为失败
+         * 超时只能通过中断生效, 不响应中断的阻塞调用(例如没有设置查询超时的JDBC调用)会一直占用处理线程, 之后的批次在队列中积压直至被丢弃;
+         * 自定义处理器需要自行设置IO超时, 内置的数据库处理器以此作为查询超时, Elasticsearch处理器使用自己的requestTimeout*/
+        private Duration timeout;
+        /*连续失败多少次后熔断 小于等于0时不熔断*/
+        private Integer failureThreshold;
+        /*熔断持续时间 期间该处理器的批次直接丢弃*/
+        private Duration openDuration;
+
+        static Handler defaults() {
+            Handler handler = new Handler();
+            handler.setConcurrency(1);
+            handler.setQueueCapacity(64);
+            handler.setQueueType(HandlerQueueType.ARRAY);
+            handler.setOverflowPolicy(OverflowPolicy.DROP_NEWEST);
+            handler.setVirtualThreads(false);
+            handler.setTimeout(Duration.ofSeconds(10));
+            handler.setFailureThreshold(5);
+            handler.setOpenDuration(Duration.ofSeconds(30));
+            return handler;
+        }
+
+        /**
+         * 使用默认配置补全未指定的项
+         *
+         * @param defaults 默认配置
+         * @return 补全后的配置
+         */
+        public Handler withDefaults(Handler defaults) {
+            Handler handler = new Handler();
+            handler.setConcurrency(concurrency != null ? concurrency : defaults.getConcurrency());
+            handler.setQueueCapacity(queueCapacity != null ? queueCapacity : defaults.getQueueCapacity());
+            handler.setQueueType(queueType != null ? queueType : defaults.getQueueType());
+            handler.setOverflowPolicy(overflowPolicy != null ? overflowPolicy : defaults.getOverflowPolicy());
+            handler.setVirtualThreads(virtualThreads != null ? virtualThreads : defaults.getVirtualThreads());
+            handler.setTimeout(timeout != null ? timeout : defaults.getTimeout());
+            handler.setFailureThreshold(failureThreshold != null ? failureThreshold : defaults.getFailureThreshold());
+            handler.setOpenDuration(openDuration != null ? openDuration : defaults.getOpenDuration());
+            return handler;
+        }
+    }
+
+
+    /**
+     * 采样和限流配置 operation-log.sampling.* 以及 operation-log.samplings.<方法全称>.*
+     * 未被采样或被限流的调用不会序列化参数, 也不会生成跟踪值快照
+     */
+    @Data
+    public static class Sampling {
+        /*成功调用的采样比例 0~1*/
+        private Double rate;
+        /*采样方式*/
+        private SampleMode mode;
+        /*每秒最多记录的日志数量 0表示不限流*/
+        private Double rateLimit;
+        /*限流的范围*/
+        private RateLimitScope rateLimitScope;
+        /*按用户限流时最多保留的令牌桶数量 超过后淘汰最久未使用的用户*/
+        private Integer maxUserBuckets;
+
+        static Sampling defaults() {
+            Sampling sampling = new Sampling();
+            sampling.setRate(1.0);
+            sampling.setMode(SampleMode.ALWAYS_ON_FAILURE);
+            sampling.setRateLimit(0.0);
+            sampling.setRateLimitScope(RateLimitScope.METHOD);
+            sampling.setMaxUserBuckets(10000);
+            return sampling;
+        }
+
+        /**
+         * 使用默认配置补全未指定的项
+         *
+         * @param defaults 默认配置
+         * @return 补全后的配置
+         */
+        public Sampling withDefaults(Sampling defaults) {
+            Sampling sampling = new Sampling();
+            sampling.setRate(rate != null ? rate : defaults.getRate());
+            sampling.setMode(mode != null && mode != SampleMode.DEFAULT ? mode : defaults.getMode());
+            sampling.setRateLimit(rateLimit != null ? rateLimit : defaults.getRateLimit());
+            sampling.setRateLimitScope(rateLimitScope != null && rateLimitScope != RateLimitScope.DEFAULT ? rateLimitScope : defaults.getRateLimitScope());
+            sampling.setMaxUserBuckets(maxUserBuckets != null ? maxUserBuckets : defaults.getMaxUserBuckets());
+            return sampling;
+        }
+    }
+
+
+    /**
+     * 方法参数序列化配置 operation-log.params.*
+     */
+    @Data
+    public static class Params {
+        /*对象最大嵌套深度 超过的部分记录为...*/
+        private int maxDepth = 5;
+        /*集合、数组、Map最多记录的元素数量*/
+        private int maxCollectionSize = 100;
+        /*字符串最大长度 超过的部分被截断*/
+        private int maxStringLength = 2048;
+        /*List和数组类型的参数按旧版本的格式记录为字符串(例如"[1, 2]"), 而不是JSON数组 用于兼容解析旧格式的程序*/
+        private boolean legacyCollectionFormat = false;
+    }
+
+
+    /**
+     * 跟踪值配置 operation-log.follow.*
+     */
+    @Data
+    public static class Follow {
+        /*只保留字段级变化 不保存操作前后的完整值*/
+        private boolean diffOnly = false;
+        /*最多记录的变化数量 超过的部分不记录*/
+        private int maxChanges = 200;
+    }
+
+
+    /**
+     * 数据库日志处理器配置 operation-log.jdbc.*
+     * 批次的大小和间隔由分发器配置决定, 一个批次使用一个连接和一个事务写入
+     */
+    @Data
+    public static class Jdbc {
+        /*是否启用 需要容器中存在DataSource*/
+        private boolean enabled = false;
+        /*表名*/
+        private String table = "operation_log";
+        /*表不存在时是否自动建表 支持MySQL、PostgreSQL、H2等常见数据库*/
+        private boolean autoDdl = false;
+        /*一条INSERT语句最多写入的行数*/
+        private int rowsPerStatement = 50;
+        /*写入失败时的最大重试次数 语法、约束等无法通过重试恢复的错误不会重试*/
+        private int maxRetries = 3;
+        /*第一次重试前的等待时间 之后每次翻倍*/
+        private Duration retryBackoff = Duration.ofMillis(200);
+        /*重试等待时间的上限*/
+        private Duration maxRetryBackoff = Duration.ofSeconds(2);
+        /*字段与列名的映射 key为LogRecord的字段名, value为列名, value为空时不写入该字段; 未指定的字段使用下划线风格的列名*/
+        private Map<String, String> columns = new LinkedHashMap<>();
+    }
+
+
+    /**
+     * 文件日志处理器配置 operation-log.file.*
+     * 每行一条JSON(NDJSON), 按大小和时间滚动, 适合由日志采集程序读取
+     */
+    @Data
+    public static class LogFile {
+        /*是否启用*/
+        private boolean enabled = false;
+        /*文件所在目录*/
+        private String directory = System.getProperty("user.dir") + "/logs";
+        /*文件名 当前文件为<name>.ndjson, 滚动后为<name>-<时间>-<序号>.ndjson*/
+        private String name = "operation-log";
+        /*是否输出打平的JSON(toFlatJson) 否则输出完整的日志记录*/
+        private boolean flat = true;
+        /*单个文件的大小上限*/
+        private DataSize maxFileSize = DataSize.ofMegabytes(100);
+        /*单个文件的最长写入时间 为空时只按大小滚动*/
+        private Duration rollInterval = Duration.ofHours(1);
+        /*滚动后的文件是否压缩为gzip*/
+        private boolean gzip = false;
+        /*刷盘策略*/
+        private FileSyncPolicy syncPolicy = FileSyncPolicy.INTERVAL;
+        /*INTERVAL策略的刷盘间隔*/
+        private Duration syncInterval = Duration.ofSeconds(1);
+        /*写入缓冲区大小*/
+        private DataSize bufferSize = DataSize.ofKilobytes(256);
+    }
+
+
+    /**
+     * 最近日志存储配置 operation-log.store.*
+     * 在内存中保留最近的日志并按标签、用户、操作类型和方法建立索引, 不需要访问外部存储即可查询
+     */
+    @Data
+    public static class Store {
+        /*是否启用*/
+        private boolean enabled = false;
+        /*保留时长 超过后整段淘汰*/
+        private Duration retention = Duration.ofHours(1);
+        /*每段覆盖的时长 淘汰和按时间查询都以段为单位*/
+        private Duration segmentDuration = Duration.ofMinutes(1);
+        /*最多保留的日志数量 超过后淘汰最早的段*/
+        private int maxRecords = 100000;
+        /*单次查询最多返回的数量*/
+        private int maxQueryLimit = 1000;
+    }
+
+
+    /**
+     * Elasticsearch日志处理器配置 operation-log.elasticsearch.*
+     * 通过_bulk接口写入打平后的日志(toFlatJson), 文档id为recordId, 重试不会产生重复的文档
+     */
+    @Data
+    public static class Elasticsearch {
+        /*是否启用*/
+        private boolean enabled = false;
+        /*节点地址 多个节点轮流使用, 请求失败后换下一个节点重试*/
+        private List<String> urls = new ArrayList<>(List.of("http://localhost:9200"));
+        /*索引名称 {}中为按操作时间(UTC)格式化的日期, 例如operation-log-{yyyy.MM.dd}每天一个索引*/
+        private String index = "operation-log-{yyyy.MM.dd}";
+        /*Basic认证的用户名*/
+        private String username;
+        /*Basic认证的密码*/
+        private String password;
+        /*API Key认证 优先于用户名密码*/
+        private String apiKey;
+        /*请求体是否使用gzip压缩*/
+        private boolean gzip = true;
+        /*建立连接的超时时间*/
+        private Duration connectTimeout = Duration.ofSeconds(3);
+        /*单次bulk请求的超时时间*/
+        private Duration requestTimeout = Duration.ofSeconds(5);
+        /*单次bulk请求的初始文档数量 之后按响应耗时在minBulkSize和maxBulkSize之间调整*/
+        private int bulkSize = 500;
+        private int minBulkSize = 50;
+        private int maxBulkSize = 5000;
+        /*单次bulk请求未压缩时的大小上限*/
+        private DataSize maxBulkBytes = DataSize.ofMegabytes(5);
+        /*期望的bulk响应耗时 超过时文档数量减半, 低于一半时增加四分之一*/
+        private Duration targetLatency = Duration.ofMillis(500);
+        /*最大重试次数 只重试被限流(429)或服务端错误(5xx)拒绝的文档*/
+        private int maxRetries = 3;
+        /*第一次重试前的等待时间 之后每次翻倍*/
+        private Duration retryBackoff = Duration.ofMillis(200);
+        /*重试等待时间的上限*/
+        private Duration maxRetryBackoff = Duration.ofSeconds(2);
+    }
 }
@@ -0,0 +1,78 @@
+package cn.creekmoon.operationLog.config;
+
+import cn.creekmoon.operationLog.core.LogQuery;
+import cn.creekmoon.operationLog.core.LogRecord;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 最近日志查询端点 /actuator/operationlog
+ * 启用最近日志存储且引入Actuator时生效, 仍需通过management.endpoints.web.exposure.include暴露
+ * 例如 /actuator/operationlog?userId=1&tags=删除,批量&from=2023-11-01T10:00:00&limit=20
+ *
+ * @author creekmoon
+ */
+@Component
+@ConditionalOnClass(name = "org.springframework.boot.actuate.endpoint.annotation.Endpoint")
+@ConditionalOnProperty(prefix = "operation-log.store", name = "enabled", havingValue = "true")
+@Endpoint(id = "operationlog")
+public class OperationLogEndpoint {
+
+    private final RecentOperationLogStore store;
+
+    public OperationLogEndpoint(RecentOperationLogStore store) {
+        this.store = store;
+    }
+
+    /**
+     * 查询最近的日志 按写入顺序从新到旧返回打平后的日志
+     *
+     * @param userId        用户id
+     * @param tags          标签 多个标签以逗号分隔, 需要同时包含
+     * @param operationType 操作类型
+     * @param classFullName 操作的JAVA方法全称
+     * @param requestResult 操作结果
+     * @param from          操作时间的起点 ISO格式 例如2023-11-01T10:00:00
+     * @param to            操作时间的终点 ISO格式
+     * @param limit         最多返回的数量
+     * @return 日志
+     */
+    @ReadOperation
+    public List<Map<String, Object>> query(@Nullable Long userId, @Nullable String tags, @Nullable String operationType,
+                                           @Nullable String classFullName, @Nullable Boolean requestResult,
+                                           @Nullable String from, @Nullable String to, @Nullable Integer limit) {
+        LogQuery query = new LogQuery();
+        query.setUserId(userId);
+        if (StringUtils.hasText(tags)) {
+            for (String tag : tags.split(",")) {
+                if (StringUtils.hasText(tag)) {
+                    query.getTags().add(tag.trim());
+                }
+            }
+        }
+        query.setOperationType(operationType);
+        query.setClassFullName(classFullName);
+        query.setRequestResult(requestResult);
+        query.setFrom(StringUtils.hasText(from) ? LocalDateTime.parse(from) : null);
+        query.setTo(StringUtils.hasText(to) ? LocalDateTime.parse(to) : null);
+        if (limit != null) {
+            query.setLimit(limit);
+        }
+        List<LogRecord> logRecords = store.query(query);
+        List<Map<String, Object>> result = new ArrayList<>(logRecords.size());
+        for (LogRecord logRecord : logRecords) {
+            result.add(logRecord.toFlatJson());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,20 @@
+package cn.creekmoon.operationLog.config;
+
+import cn.creekmoon.operationLog.core.OperationLogContext;
+import org.springframework.core.task.TaskDecorator;
+
+/**
+ * 默认的任务装饰器 把提交任务时的日志上下文传递到执行任务的线程
+ * Spring Boot会把唯一的TaskDecorator应用到默认的线程池上(@Async使用的线程池)
+ * 由OperationLogTaskDecoratorAutoConfiguration在没有其他TaskDecorator时注册
+ * 如果已经定义了自己的TaskDecorator, 可以在其中调用OperationLogContext.wrap(runnable)
+ *
+ * @author creekmoon
+ */
+public class OperationLogTaskDecorator implements TaskDecorator {
+
+    @Override
+    public Runnable decorate(Runnable runnable) {
+        return OperationLogContext.wrap(runnable);
+    }
+}
@@ -0,0 +1,27 @@
+package cn.creekmoon.operationLog.config;
+
+import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.task.TaskDecorator;
+
+/**
+ * 注册默认的任务装饰器
+ * 自动配置在用户的配置之后处理, 此时才能可靠地判断用户是否定义了TaskDecorator;
+ * 如果在@EnableOperationLog导入的配置中注册, 用户也定义了TaskDecorator时Spring Boot会找到两个而都不应用
+ * 只在启用了@EnableOperationLog时生效
+ *
+ * @author creekmoon
+ */
+@AutoConfiguration(before = TaskExecutionAutoConfiguration.class)
+@ConditionalOnBean(OperationLogAutoConfiguration.class)
+public class OperationLogTaskDecoratorAutoConfiguration {
+
+    @Bean
+    @ConditionalOnMissingBean(TaskDecorator.class)
+    public OperationLogTaskDecorator operationLogTaskDecorator() {
+        return new OperationLogTaskDecorator();
+    }
+}
@@ -0,0 +1,242 @@
+package cn.creekmoon.operationLog.config;
+
+import cn.creekmoon.operationLog.core.BatchOperationLogHandler;
+import cn.creekmoon.operationLog.core.LogQuery;
+import cn.creekmoon.operationLog.core.LogRecord;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 最近日志存储 operation-log.store.enabled=true 时启用
+ * 作为日志处理器接收日志, 在内存中按写入时间分段保存, 每段对标签、用户id、操作类型和方法全称建立倒排索引
+ * 段超过保留时长或总数量超过上限时整段淘汰, 查询不需要访问外部存储
+ * 写入按批次持有写锁, 查询持有读锁
+ *
+ * @author creekmoon
+ */
+@Component
+@ConditionalOnProperty(prefix = "operation-log.store", name = "enabled", havingValue = "true")
+public class RecentOperationLogStore implements BatchOperationLogHandler {
+
+    private final long retentionNanos;
+    private final long segmentNanos;
+    private final int maxRecords;
+    /*单段的数量上限 突发流量时也能按较小的粒度淘汰*/
+    private final int segmentCapacity;
+    private final int maxQueryLimit;
+
+    /*按写入时间从旧到新排列*/
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private int size;
+
+    public RecentOperationLogStore(OperationLogConfig operationLogConfig) {
+        OperationLogConfig.Store config = operationLogConfig.getStore();
+        this.retentionNanos = config.getRetention().toNanos();
+        this.segmentNanos = Math.max(1, config.getSegmentDuration().toNanos());
+        this.maxRecords = Math.max(1, config.getMaxRecords());
+        this.segmentCapacity = Math.max(1, maxRecords / 8);
+        this.maxQueryLimit = Math.max(1, config.getMaxQueryLimit());
+    }
+
+    @Override
+    public void handleBatch(List<LogRecord> logRecords) {
+        long now = System.nanoTime();
+        lock.writeLock().lock();
+        try {
+            for (LogRecord logRecord : logRecords) {
+                Segment segment = segments.peekLast();
+                if (segment == null || now - segment.createdNanos >= segmentNanos || segment.records.size() >= segmentCapacity) {
+                    segment = new Segment(now);
+                    segments.addLast(segment);
+                }
+                segment.add(logRecord, now);
+                size++;
+            }
+            evict(now);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void evict(long now) {
+        Segment oldest;
+        while ((oldest = segments.peekFirst()) != null
+                && (size > maxRecords || now - oldest.lastWriteNanos > retentionNanos)) {
+            segments.pollFirst();
+            size -= oldest.records.size();
+        }
+    }
+
+    /**
+     * 查询最近的日志 按写入顺序从新到旧返回
+     *
+     * @param query 查询条件
+     * @return 满足条件的日志 数量不超过limit和maxQueryLimit
+     */
+    public List<LogRecord> query(LogQuery query) {
+        int limit = Math.min(Math.max(1, query.getLimit()), maxQueryLimit);
+        List<LogRecord> result = new ArrayList<>(Math.min(limit, 64));
+        long expiredBefore = System.nanoTime() - retentionNanos;
+        long fromNanos = query.fromEpochNanos();
+        long toNanos = query.toEpochNanos();
+        lock.readLock().lock();
+        try {
+            Iterator<Segment> iterator = segments.descendingIterator();
+            while (iterator.hasNext() && result.size() < limit) {
+                Segment segment = iterator.next();
+                /*已过保留时长但尚未被写入触发淘汰*/
+                if (segment.lastWriteNanos - expiredBefore < 0) {
+                    break;
+                }
+                if (segment.overlaps(fromNanos, toNanos)) {
+                    segment.collect(query, fromNanos, toNanos, limit, result);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /**
+     * 当前保留的日志数量
+     *
+     * @return 数量
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * 一段日志及其索引 索引中保存日志在段内的位置, 按写入顺序递增
+     */
+    private static final class Segment {
+        private final long createdNanos;
+        private long lastWriteNanos;
+        private final List<LogRecord> records = new ArrayList<>();
+        private final Map<String, Postings> tags = new HashMap<>();
+        private final Map<Long, Postings> userIds = new HashMap<>();
+        private final Map<String, Postings> operationTypes = new HashMap<>();
+        private final Map<String, Postings> classFullNames = new HashMap<>();
+        /*段内操作时间的范围(纪元纳秒) 用于按时间查询时跳过整段*/
+        private long minOperationTime = Long.MAX_VALUE;
+        private long maxOperationTime = Long.MIN_VALUE;
+
+        Segment(long createdNanos) {
+            this.createdNanos = createdNanos;
+            this.lastWriteNanos = createdNanos;
+        }
+
+        void add(LogRecord logRecord, long now) {
+            int position = records.size();
+            records.add(logRecord);
+            lastWriteNanos = now;
+            if (logRecord.hasTags()) {
+                for (String tag : logRecord.getTags()) {
+                    index(tags, tag, position);
+                }
+            }
+            index(userIds, logRecord.getUserId(), position);
+            index(operationTypes, logRecord.getOperationType(), position);
+            index(classFullNames, logRecord.getClassFullName(), position);
+            long operationTime = logRecord.operationEpochNanos();
+            if (operationTime != 0) {
+                minOperationTime = Math.min(minOperationTime, operationTime);
+                maxOperationTime = Math.max(maxOperationTime, operationTime);
+            }
+        }
+
+        private static <K> void index(Map<K, Postings> index, K key, int position) {
+            if (key != null) {
+                index.computeIfAbsent(key, x -> new Postings()).add(position);
+            }
+        }
+
+        boolean overlaps(long fromNanos, long toNanos) {
+            if (minOperationTime > maxOperationTime) {
+                return fromNanos == Long.MIN_VALUE && toNanos == Long.MAX_VALUE;
+            }
+            return maxOperationTime >= fromNanos && (toNanos == Long.MAX_VALUE || minOperationTime < toNanos);
+        }
+
+        /**
+         * 从最短的倒排列表开始倒序检查 其余条件逐条比较
+         */
+        void collect(LogQuery query, long fromNanos, long toNanos, int limit, List<LogRecord> result) {
+            Postings candidates = null;
+            if (query.getTags() != null) {
+                for (String tag : query.getTags()) {
+                    candidates = shorter(candidates, tags.get(tag));
+                    if (candidates == Postings.EMPTY) {
+                        return;
+                    }
+                }
+            }
+            if (query.getUserId() != null) {
+                candidates = shorter(candidates, userIds.get(query.getUserId()));
+            }
+            if (query.getOperationType() != null) {
+                candidates = shorter(candidates, operationTypes.get(query.getOperationType()));
+            }
+            if (query.getClassFullName() != null) {
+                candidates = shorter(candidates, classFullNames.get(query.getClassFullName()));
+            }
+            if (candidates == null) {
+                for (int i = records.size() - 1; i >= 0 && result.size() < limit; i--) {
+                    LogRecord logRecord = records.get(i);
+                    if (query.matches(logRecord, fromNanos, toNanos)) {
+                        result.add(logRecord);
+                    }
+                }
+                return;
+            }
+            for (int i = candidates.size - 1; i >= 0 && result.size() < limit; i--) {
+                LogRecord logRecord = records.get(candidates.positions[i]);
+                if (query.matches(logRecord, fromNanos, toNanos)) {
+                    result.add(logRecord);
+                }
+            }
+        }
+
+        private static Postings shorter(Postings current, Postings postings) {
+            if (postings == null) {
+                return Postings.EMPTY;
+            }
+            return current == null || postings.size < current.size ? postings : current;
+        }
+    }
+
+
+    /**
+     * 倒排列表 递增的段内位置
+     */
+    private static final class Postings {
+        private static final Postings EMPTY = new Postings();
+
+        private int[] positions = new int[4];
+        private int size;
+
+        void add(int position) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size << 1);
+            }
+            positions[size++] = position;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package cn.creekmoon.operationLog.core;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 批量日志处理器
+ * 分发器会按批次(数量或时间阈值)把日志交给实现类, 适合ES、数据库这类支持批量写入的存储
+ * 实现这个接口,需要保证线程安全!
+ *
+ * @author creekmoon
+ */
+public interface BatchOperationLogHandler extends OperationLogHandler {
+
+    /**
+     * 定义如何批量处理日志记录
+     *
+     * @param logRecords 本批次的日志记录 只读
+     */
+    void handleBatch(List<LogRecord> logRecords);
+
+
+    /**
+     * 单条处理时退化为只有一条记录的批次
+     *
+     * @param logRecord 日志记录
+     */
+    @Override
+    default void handle(LogRecord logRecord) {
+        handleBatch(Collections.singletonList(logRecord));
+    }
+}
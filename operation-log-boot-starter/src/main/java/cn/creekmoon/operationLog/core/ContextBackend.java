@@ -0,0 +1,20 @@
+package cn.creekmoon.operationLog.core;
+
+/**
+ * 日志上下文的存储方式
+ *
+ * @author creekmoon
+ */
+public enum ContextBackend {
+
+    /**
+     * 使用ThreadLocal存储 兼容所有JDK版本, 但上下文不会传递到子线程
+     */
+    THREAD_LOCAL,
+
+    /**
+     * 使用ScopedValue存储 上下文随作用域绑定, 会被StructuredTaskScope的子任务继承
+     * 需要JDK21+, 当前JDK不支持时自动退化为THREAD_LOCAL
+     */
+    SCOPED_VALUE,
+}
@@ -0,0 +1,18 @@
+package cn.creekmoon.operationLog.core;
+
+/**
+ * 延迟到分发线程上完成的捕获工作
+ * 请求线程上只保存快照, 昂贵的JSON转换在分发线程首次读取日志时执行
+ *
+ * @author creekmoon
+ */
+@FunctionalInterface
+public interface DeferredCapture {
+
+    /**
+     * 完成捕获 把结果写入日志对象
+     *
+     * @param logRecord 日志对象
+     */
+    void complete(LogRecord logRecord);
+}
@@ -0,0 +1,23 @@
+package cn.creekmoon.operationLog.core;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 跟踪值的一项字段变化
+ *
+ * @author creekmoon
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FieldChange {
+
+    /*字段路径 例如 user.address.city、items[0].name*/
+    String path;
+    /*操作之前的值*/
+    Object oldValue;
+    /*操作之后的值*/
+    Object newValue;
+}
@@ -0,0 +1,25 @@
+package cn.creekmoon.operationLog.core;
+
+/**
+ * 日志文件的刷盘策略
+ * 数据在每个批次结束时都会写入文件(操作系统缓存), 策略只决定何时调用fsync
+ *
+ * @author creekmoon
+ */
+public enum FileSyncPolicy {
+
+    /**
+     * 不主动刷盘 由操作系统决定, 吞吐量最高
+     */
+    NONE,
+
+    /**
+     * 每个批次写入后刷盘
+     */
+    EVERY_BATCH,
+
+    /**
+     * 距离上次刷盘超过间隔后, 在下一个批次写入后刷盘
+     */
+    INTERVAL,
+}
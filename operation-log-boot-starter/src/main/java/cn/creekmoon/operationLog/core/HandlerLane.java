@@ -0,0 +1,536 @@
+package cn.creekmoon.operationLog.core;
+
+import cn.creekmoon.operationLog.config.OperationLogConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 单个日志处理器的处理通道
+ * 每个处理器拥有独立的批次队列、处理线程、超时与熔断设置, 慢处理器只会积压自己的队列, 不会拖慢分发线程和其他处理器
+ * 启用预写日志时, 通道按自己的进度从预写日志中读取, 批次处理成功后确认进度; 失败的批次退避后重新投递, 熔断期间暂停读取而不是丢弃
+ *
+ * @author creekmoon
+ */
+@Slf4j
+public class HandlerLane {
+
+    /*预写日志中暂无新日志时的等待时间*/
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /*处理器的Bean名称*/
+    private final String name;
+    private final OperationLogHandler handler;
+    private final BlockingQueue<LaneBatch> queue;
+    /*批次队列已满时的处理策略*/
+    private final OverflowPolicy overflowPolicy;
+    private final Thread[] workers;
+    private final long timeoutNanos;
+    private final LogCircuitBreaker circuitBreaker;
+
+    /*每个处理线程当前批次的开始时间 0表示空闲*/
+    private final AtomicLongArray callStartNanos;
+    /*已被判定为超时的批次的开始时间 用于避免重复中断*/
+    private final AtomicLongArray timedOutCalls;
+    /*每个处理线程的锁 超时检查的判定与中断, 和批次结束时清除中断标识互斥, 中断不会落到下一个批次上*/
+    private final Object[] slotLocks;
+
+    private volatile boolean running = true;
+
+    /*预写日志及其读取进度 未启用预写日志时为null*/
+    private final LogSpool spool;
+    private final LogSpool.Cursor cursor;
+    private final Thread feeder;
+    /*失败批次的最大重新投递次数 小于0时一直重试*/
+    private final int maxRedeliveries;
+    private final long redeliveryBackoffNanos;
+    private final long maxRedeliveryBackoffNanos;
+    /*已交给处理线程但尚未处理完毕的批次的起始位置*/
+    private final TreeSet<Long> inflightOffsets = new TreeSet<>();
+    /*最后一个交给处理线程的批次的结束位置*/
+    private long lastFedOffset;
+
+    /*因队列已满或熔断被丢弃的日志数量*/
+    private final AtomicLong droppedCount = new AtomicLong();
+    /*处理失败(异常或超时)的批次数量*/
+    private final AtomicLong failedCount = new AtomicLong();
+    /*处理超时的批次数量*/
+    private final AtomicLong timeoutCount = new AtomicLong();
+
+    HandlerLane(String name, OperationLogHandler handler, OperationLogConfig.Handler config) {
+        this(name, handler, config, null, null, 0, 0);
+    }
+
+    /**
+     * @param name               处理器的Bean名称
+     * @param handler            处理器
+     * @param config             处理器配置
+     * @param spool              预写日志 为null时只接收分发线程提交的批次
+     * @param spoolConfig        预写日志配置 用于失败批次的重新投递
+     * @param batchSize          从预写日志读取时每批次的数量
+     * @param flushIntervalNanos 从预写日志读取时 未达到批次数量的最长等待时间
+     */
+    HandlerLane(String name, OperationLogHandler handler, OperationLogConfig.Handler config,
+                LogSpool spool, OperationLogConfig.Spool spoolConfig, int batchSize, long flushIntervalNanos) {
+        this.name = name;
+        this.handler = handler;
+        this.spool = spool;
+        this.cursor = spool == null ? null : spool.openCursor(name);
+        this.maxRedeliveries = spoolConfig == null ? 0 : spoolConfig.getMaxRedeliveries();
+        this.redeliveryBackoffNanos = spoolConfig == null ? 0 : spoolConfig.getRedeliveryBackoff().toNanos();
+        this.maxRedeliveryBackoffNanos = spoolConfig == null ? 0 : spoolConfig.getMaxRedeliveryBackoff().toNanos();
+        int concurrency = Math.max(1, config.getConcurrency());
+        int queueCapacity = Math.max(1, config.getQueueCapacity());
+        this.queue = config.getQueueType() == HandlerQueueType.LINKED
+                ? new LinkedBlockingQueue<>(queueCapacity)
+                : new ArrayBlockingQueue<>(queueCapacity);
+        this.overflowPolicy = resolveOverflowPolicy(config.getOverflowPolicy());
+        this.timeoutNanos = config.getTimeout() == null ? 0 : config.getTimeout().toNanos();
+        this.circuitBreaker = new LogCircuitBreaker(config.getFailureThreshold(), config.getOpenDuration().toNanos());
+        this.callStartNanos = new AtomicLongArray(concurrency);
+        this.timedOutCalls = new AtomicLongArray(concurrency);
+        this.slotLocks = new Object[concurrency];
+        this.workers = new Thread[concurrency];
+        ThreadFactory threadFactory = createThreadFactory("operation-logs-handler-" + name + "-", config.getVirtualThreads());
+        for (int i = 0; i < concurrency; i++) {
+            int slot = i;
+            slotLocks[i] = new Object();
+            workers[i] = threadFactory.newThread(() -> workLoop(slot));
+            workers[i].start();
+        }
+        if (cursor != null) {
+            this.lastFedOffset = cursor.position();
+            this.feeder = threadFactory.newThread(() -> feedLoop(Math.max(1, batchSize), flushIntervalNanos));
+            this.feeder.start();
+        } else {
+            this.feeder = null;
+        }
+    }
+
+    private OverflowPolicy resolveOverflowPolicy(OverflowPolicy configured) {
+        if (configured == OverflowPolicy.SPILL_TO_DISK) {
+            log.warn("[operation-log]日志处理器不支持SPILL_TO_DISK策略, 已按BLOCK处理, 如需落盘请启用预写日志! handler={}", name);
+            return OverflowPolicy.BLOCK;
+        }
+        /*队列中可能有从预写日志读取的批次, 被挤掉后无法确认进度*/
+        if (configured == OverflowPolicy.DROP_OLDEST && spool != null) {
+            return OverflowPolicy.DROP_NEWEST;
+        }
+        return configured;
+    }
+
+    private static ThreadFactory createThreadFactory(String prefix, boolean virtualThreads) {
+        if (virtualThreads) {
+            return Thread.ofVirtual().name(prefix, 1).factory();
+        }
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(prefix);
+        threadFactory.setDaemon(true);
+        return threadFactory;
+    }
+
+    /**
+     * 提交一个批次 由分发线程调用
+     *
+     * @param batch      批次 只读
+     * @param waitIfFull 队列已满时是否等待 最长等待一个超时时间, 不受处理策略影响
+     */
+    void submit(List<LogRecord> batch, boolean waitIfFull) {
+        LaneBatch laneBatch = new LaneBatch(batch, -1, -1);
+        boolean accepted;
+        try {
+            if (waitIfFull || overflowPolicy == OverflowPolicy.BLOCK) {
+                accepted = queue.offer(laneBatch, timeoutNanos > 0 ? timeoutNanos : TimeUnit.SECONDS.toNanos(1), TimeUnit.NANOSECONDS);
+            } else if (overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+                while (!queue.offer(laneBatch)) {
+                    LaneBatch evicted = queue.poll();
+                    if (evicted != null) {
+                        drop(evicted.logRecords(), "处理队列已满");
+                    }
+                }
+                accepted = true;
+            } else {
+                accepted = queue.offer(laneBatch);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            accepted = false;
+        }
+        if (!accepted) {
+            drop(batch, "处理队列已满");
+        }
+    }
+
+    /**
+     * 从预写日志读取批次 按数量或时间阈值攒批
+     *
+     * @param batchSize          每批次的数量
+     * @param flushIntervalNanos 未达到批次数量的最长等待时间
+     */
+    private void feedLoop(int batchSize, long flushIntervalNanos) {
+        List<byte[]> payloads = new ArrayList<>(batchSize);
+        long startOffset = cursor.position();
+        long firstReadNanos = 0;
+        while (running) {
+            if (cursor.read(batchSize - payloads.size(), payloads) > 0 && firstReadNanos == 0) {
+                firstReadNanos = System.nanoTime();
+            }
+            boolean due = !payloads.isEmpty() && System.nanoTime() - firstReadNanos >= flushIntervalNanos;
+            if (payloads.size() < batchSize && !due) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+            List<LogRecord> logRecords = new ArrayList<>(payloads.size());
+            for (byte[] payload : payloads) {
+                try {
+                    logRecords.add(spool.decode(payload));
+                } catch (Exception e) {
+                    log.error("[operation-log]预写日志中存在无法解析的日志, 已跳过! handler={}", name, e);
+                }
+            }
+            LaneBatch batch = new LaneBatch(Collections.unmodifiableList(logRecords), startOffset, cursor.position());
+            synchronized (inflightOffsets) {
+                inflightOffsets.add(batch.startOffset());
+                lastFedOffset = batch.endOffset();
+            }
+            try {
+                /*处理队列已满时等待 积压留在磁盘上*/
+                while (!queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+                    if (!running) {
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            payloads = new ArrayList<>(batchSize);
+            startOffset = cursor.position();
+            firstReadNanos = 0;
+        }
+    }
+
+    /**
+     * 确认批次已处理完毕 预写日志的进度推进到最早的未完成批次
+     *
+     * @param batch 批次
+     */
+    private void acknowledge(LaneBatch batch) {
+        if (batch.startOffset() < 0) {
+            return;
+        }
+        synchronized (inflightOffsets) {
+            inflightOffsets.remove(batch.startOffset());
+            cursor.commit(inflightOffsets.isEmpty() ? lastFedOffset : inflightOffsets.first());
+        }
+    }
+
+    /**
+     * 处理线程主循环
+     *
+     * @param slot 处理线程序号
+     */
+    private void workLoop(int slot) {
+        while (running || !queue.isEmpty()) {
+            LaneBatch batch;
+            try {
+                batch = queue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                /*可能是上一个批次超时的中断 由running标识控制生命周期*/
+                continue;
+            }
+            if (batch != null) {
+                execute(slot, batch);
+            }
+        }
+    }
+
+    /**
+     * 等待熔断器允许执行
+     *
+     * @param batch 批次
+     * @return 是否允许执行 为false时批次已被丢弃或留在预写日志中
+     */
+    private boolean acquire(LaneBatch batch) {
+        while (!circuitBreaker.tryAcquire()) {
+            if (cursor != null) {
+                /*日志仍在预写日志中 熔断期间等待而不是丢弃, 关闭时未确认的批次会在下次启动时重放*/
+                if (!running) {
+                    return false;
+                }
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+                continue;
+            }
+            /*试探批次执行期间等待试探结果, 只有熔断器打开时才丢弃*/
+            try {
+                if (circuitBreaker.awaitProbe(TimeUnit.MILLISECONDS.toNanos(100))) {
+                    continue;
+                }
+            } catch (InterruptedException e) {
+                /*运行期间的中断是上一个批次超时留下的*/
+                if (running) {
+                    continue;
+                }
+            }
+            drop(batch.logRecords(), "处理器已熔断");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 执行批次 启用预写日志时只有成功或被主动丢弃的批次才确认进度
+     * 失败的批次保持未确认, 退避后由同一处理线程重新投递, 关闭时未确认的批次会在下次启动时重放
+     *
+     * @param slot  处理线程序号
+     * @param batch 批次
+     */
+    private void execute(int slot, LaneBatch batch) {
+        for (int redeliveries = 0; ; redeliveries++) {
+            if (!acquire(batch)) {
+                return;
+            }
+            if (attempt(slot, batch)) {
+                acknowledge(batch);
+                return;
+            }
+            /*未启用预写日志时失败的批次不会重试*/
+            if (cursor == null) {
+                return;
+            }
+            if (maxRedeliveries >= 0 && redeliveries >= maxRedeliveries) {
+                drop(batch.logRecords(), "重新投递次数已用尽");
+                acknowledge(batch);
+                return;
+            }
+            if (!awaitRedelivery(redeliveries)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 重新投递前退避等待
+     *
+     * @param redeliveries 已重新投递的次数
+     * @return 是否继续重新投递 关闭时为false
+     */
+    private boolean awaitRedelivery(int redeliveries) {
+        long backoffNanos = Math.min(maxRedeliveryBackoffNanos, redeliveryBackoffNanos << Math.min(redeliveries, 20));
+        long deadline = System.nanoTime() + backoffNanos;
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            if (!running) {
+                return false;
+            }
+            LockSupport.parkNanos(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(100)));
+        }
+        return running;
+    }
+
+    /**
+     * 执行一次批次并记录结果
+     *
+     * @param slot  处理线程序号
+     * @param batch 批次
+     * @return 是否成功
+     */
+    private boolean attempt(int slot, LaneBatch batch) {
+        long start = System.nanoTime();
+        boolean success;
+        callStartNanos.set(slot, start);
+        try {
+            success = invoke(batch.logRecords());
+        } finally {
+            synchronized (slotLocks[slot]) {
+                callStartNanos.set(slot, 0);
+                /*清除超时检查留下的中断标识 之后的超时检查不会再中断这个处理线程*/
+                Thread.interrupted();
+            }
+        }
+        if (timedOutCalls.getAndSet(slot, 0) == start) {
+            timeoutCount.incrementAndGet();
+            log.error("[operation-log]日志处理器执行超时! handler={} batchSize={}", name, batch.logRecords().size());
+            success = false;
+        }
+        LogMetrics metrics = LogMetrics.current();
+        if (metrics.isEnabled()) {
+            metrics.recordHandler(name, batch.logRecords().size(), System.nanoTime() - start, success);
+        }
+        if (success) {
+            circuitBreaker.onSuccess();
+            return true;
+        }
+        failedCount.incrementAndGet();
+        if (circuitBreaker.onFailure()) {
+            log.error("[operation-log]日志处理器连续失败, 已熔断! handler={}", name);
+        }
+        return false;
+    }
+
+    private boolean invoke(List<LogRecord> batch) {
+        if (handler instanceof BatchOperationLogHandler batchOperationLogHandler) {
+            try {
+                batchOperationLogHandler.handleBatch(batch);
+                return true;
+            } catch (Exception e) {
+                log.error("[operation-log]日志处理器执行异常! handler={}", name, e);
+                return false;
+            }
+        }
+        boolean success = true;
+        for (LogRecord logRecord : batch) {
+            /*已超时 剩余的日志不再处理*/
+            if (Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+            try {
+                handler.handle(logRecord);
+            } catch (Exception e) {
+                log.error("[operation-log]日志处理器执行异常! handler={}", name, e);
+                success = false;
+            }
+        }
+        return success;
+    }
+
+    /**
+     * 检查正在执行的批次是否超时 超时则中断处理线程, 由分发器定时调用
+     *
+     * @param now 当前时间
+     */
+    void checkTimeout(long now) {
+        if (timeoutNanos <= 0) {
+            return;
+        }
+        for (int i = 0; i < workers.length; i++) {
+            if (callStartNanos.get(i) == 0) {
+                continue;
+            }
+            synchronized (slotLocks[i]) {
+                /*持有锁时批次不会结束 判定超时和中断针对的是同一个批次*/
+                long start = callStartNanos.get(i);
+                if (start != 0 && now - start > timeoutNanos && timedOutCalls.compareAndSet(i, 0, start)) {
+                    workers[i].interrupt();
+                }
+            }
+        }
+    }
+
+    private void drop(List<LogRecord> batch, String reason) {
+        long before = droppedCount.getAndAdd(batch.size());
+        /*避免在持续丢弃时刷屏*/
+        if (before == 0 || before / 1000 != (before + batch.size()) / 1000) {
+            log.warn("[operation-log]{}, 日志被丢弃! handler={} 累计丢弃数量={}", reason, name, before + batch.size());
+        }
+    }
+
+    /**
+     * 停止接收新的批次, 等待队列中的批次处理完毕
+     * 超过等待时间后中断仍在执行的处理器, 队列中剩余的批次不再处理
+     *
+     * @param deadlineNanos 最晚的等待时间点
+     * @return 未处理而被丢弃的日志数量 预写日志中的批次会在下次启动时重放, 不计入
+     */
+    int shutdown(long deadlineNanos) {
+        running = false;
+        if (feeder != null) {
+            feeder.interrupt();
+        }
+        for (Thread worker : workers) {
+            long remaining = deadlineNanos - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            try {
+                worker.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        int droppedRecords = 0;
+        int remainingBatches = 0;
+        LaneBatch batch;
+        while ((batch = queue.poll()) != null) {
+            remainingBatches++;
+            if (batch.startOffset() < 0) {
+                droppedRecords += batch.logRecords().size();
+            }
+        }
+        if (droppedRecords > 0) {
+            droppedCount.addAndGet(droppedRecords);
+        }
+        if (remainingBatches > 0) {
+            log.warn("[operation-log]日志处理器关闭时仍有{}个批次未处理, 丢弃日志数量={}! handler={}", remainingBatches, droppedRecords, name);
+        }
+        int interrupted = 0;
+        for (Thread worker : workers) {
+            if (worker.isAlive()) {
+                worker.interrupt();
+                interrupted++;
+            }
+        }
+        if (interrupted > 0) {
+            log.warn("[operation-log]日志处理器关闭超时, 已中断{}个正在执行的批次! handler={}", interrupted, name);
+        }
+        return droppedRecords;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public OperationLogHandler getHandler() {
+        return handler;
+    }
+
+    LogSpool.Cursor getCursor() {
+        return cursor;
+    }
+
+    /**
+     * 等待处理的批次数量
+     *
+     * @return 数量
+     */
+    public int getQueuedBatchCount() {
+        return queue.size();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    public boolean isCircuitOpen() {
+        return circuitBreaker.isOpen();
+    }
+
+    /**
+     * 处理通道中的批次
+     *
+     * @param logRecords  日志记录 只读
+     * @param startOffset 在预写日志中的起始位置 不是从预写日志读取时为-1
+     * @param endOffset   在预写日志中的结束位置
+     */
+    private record LaneBatch(List<LogRecord> logRecords, long startOffset, long endOffset) {
+    }
+}
@@ -0,0 +1,19 @@
+package cn.creekmoon.operationLog.core;
+
+/**
+ * 日志处理器的批次队列类型
+ *
+ * @author creekmoon
+ */
+public enum HandlerQueueType {
+
+    /**
+     * 基于数组 创建时按容量一次性分配, 入队出队不产生额外对象
+     */
+    ARRAY,
+
+    /**
+     * 基于链表 按需分配节点, 容量很大但平时积压很少时更节省内存
+     */
+    LINKED,
+}
@@ -0,0 +1,162 @@
+package cn.creekmoon.operationLog.core;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 重复操作聚合
+ * 时间窗口内指纹(用户、方法、参数、结果)相同的日志只保留第一条, 后续的日志只增加重复次数和更新最后一次的时间
+ * 窗口结束、表已满或关闭时, 保留的日志交给下游继续分发
+ * 表按指纹分段加锁, 每段按加入顺序排列, 过期检查和淘汰都从最早的日志开始
+ *
+ * @author creekmoon
+ */
+class LogAggregator {
+
+    private final long windowNanos;
+    private final int maxEntriesPerStripe;
+    private final Stripe[] stripes;
+    /*结束聚合的日志交给下游*/
+    private final Consumer<LogRecord> downstream;
+    /*被合并掉的日志数量*/
+    private final AtomicLong mergedCount = new AtomicLong();
+
+    LogAggregator(long windowNanos, int maxEntries, int stripeCount, Consumer<LogRecord> downstream) {
+        this.windowNanos = windowNanos;
+        int count = Math.max(1, stripeCount);
+        this.maxEntriesPerStripe = Math.max(1, maxEntries / count);
+        this.stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe();
+        }
+        this.downstream = downstream;
+    }
+
+    /**
+     * 尝试聚合一条日志 由请求线程调用
+     *
+     * @param logRecord 日志记录
+     * @return 是否已被聚合接管, 为false时调用方继续分发
+     */
+    boolean offer(LogRecord logRecord) {
+        /*跟踪值记录的是各自的数据变化, 不属于重复操作; 延迟捕获的参数不在请求线程上转换*/
+        if (logRecord.deferredCapture != null || logRecord.preValue != null || logRecord.changes != null) {
+            return false;
+        }
+        Fingerprint fingerprint = new Fingerprint(
+                logRecord.userId != LogRecord.NO_ID ? (Object) logRecord.userId : logRecord.userName,
+                logRecord.classFullName,
+                logRecord.requestResult,
+                logRecord.getRequestParamsJson());
+        Stripe stripe = stripes[Math.floorMod(fingerprint.hashCode(), stripes.length)];
+        long now = System.nanoTime();
+        LogRecord evicted = null;
+        synchronized (stripe) {
+            Entry entry = stripe.entries.get(fingerprint);
+            if (entry != null && now - entry.startNanos < windowNanos) {
+                LogRecord first = entry.logRecord;
+                first.repeatCount++;
+                first.lastOperationTime = logRecord.operationTime;
+                mergedCount.incrementAndGet();
+                return true;
+            }
+            if (entry != null) {
+                /*窗口已经结束但尚未被定时任务取走*/
+                stripe.entries.remove(fingerprint);
+                evicted = entry.logRecord;
+            } else if (stripe.entries.size() >= maxEntriesPerStripe) {
+                Iterator<Entry> oldest = stripe.entries.values().iterator();
+                evicted = oldest.next().logRecord;
+                oldest.remove();
+            }
+            stripe.entries.put(fingerprint, new Entry(logRecord, now));
+        }
+        if (evicted != null) {
+            downstream.accept(evicted);
+        }
+        return true;
+    }
+
+    /**
+     * 取出窗口已经结束的日志交给下游 由定时任务调用
+     *
+     * @param now 当前时间
+     */
+    void flushExpired(long now) {
+        for (Stripe stripe : stripes) {
+            List<LogRecord> expired = null;
+            synchronized (stripe) {
+                Iterator<Entry> iterator = stripe.entries.values().iterator();
+                while (iterator.hasNext()) {
+                    Entry entry = iterator.next();
+                    /*按加入顺序排列 遇到未过期的即可停止*/
+                    if (now - entry.startNanos < windowNanos) {
+                        break;
+                    }
+                    iterator.remove();
+                    if (expired == null) {
+                        expired = new ArrayList<>();
+                    }
+                    expired.add(entry.logRecord);
+                }
+            }
+            if (expired != null) {
+                expired.forEach(downstream);
+            }
+        }
+    }
+
+    /**
+     * 取出所有日志交给下游 关闭时调用
+     */
+    void flushAll() {
+        for (Stripe stripe : stripes) {
+            List<LogRecord> remaining;
+            synchronized (stripe) {
+                remaining = new ArrayList<>(stripe.entries.size());
+                for (Entry entry : stripe.entries.values()) {
+                    remaining.add(entry.logRecord);
+                }
+                stripe.entries.clear();
+            }
+            remaining.forEach(downstream);
+        }
+    }
+
+    /**
+     * 正在聚合的日志数量
+     *
+     * @return 数量
+     */
+    int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.entries.size();
+            }
+        }
+        return size;
+    }
+
+    long getMergedCount() {
+        return mergedCount.get();
+    }
+
+    private static final class Stripe {
+        private final Map<Fingerprint, Entry> entries = new LinkedHashMap<>();
+    }
+
+    private record Entry(LogRecord logRecord, long startNanos) {
+    }
+
+    /**
+     * 日志指纹 参数按完整的JSON比较, 不会因为哈希冲突误合并
+     */
+    private record Fingerprint(Object user, String classFullName, boolean requestResult, String requestParamsJson) {
+    }
+}
@@ -1,209 +1,445 @@
 package cn.creekmoon.operationLog.core;
 
-import cn.hutool.core.lang.UUID;
-import cn.hutool.core.util.ArrayUtil;
+import cn.creekmoon.operationLog.config.OperationLogConfig;
 import com.alibaba.fastjson2.JSONArray;
-import com.alibaba.fastjson2.JSONObject;
-import io.swagger.v3.oas.annotations.Operation;
-import jakarta.servlet.ServletRequest;
-import jakarta.servlet.ServletResponse;
+import com.alibaba.fastjson2.JSONB;
+import com.alibaba.fastjson2.JSONWriter;
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.extern.slf4j.Slf4j;
+import org.aspectj.lang.Aspects;
 import org.aspectj.lang.ProceedingJoinPoint;
-import org.aspectj.lang.Signature;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
 import org.aspectj.lang.annotation.Pointcut;
 import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.aop.support.AopUtils;
 import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.SmartInitializingSingleton;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
+import org.springframework.core.MethodIntrospector;
 import org.springframework.core.Ordered;
-import org.springframework.core.io.InputStreamSource;
-import org.springframework.stereotype.Component;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.util.ClassUtils;
 import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.context.request.ServletRequestAttributes;
-import org.springframework.web.multipart.MultipartFile;
 
-
-import java.math.BigDecimal;
-import java.util.Arrays;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 
 /**
  * 日志切片 如果存在@WtxLog注解 则进行处理
+ * 默认由Spring AOP通过代理调用; 使用ctw构建的版本(由ajc编译)时Spring AOP不会再代理, 改为在编译时织入到注解方法中,
+ * 此时切面实例由AspectJ创建, 容器中通过instance()注册同一个实例
  */
 @Aspect
-@Component
 @Slf4j
-public class LogAspect implements ApplicationContextAware, Ordered {
+public class LogAspect implements ApplicationContextAware, SmartInitializingSingleton, Ordered {
+
+    /*是否引入了Reactor 引入时才支持Mono/Flux返回值*/
+    private static final boolean REACTOR_PRESENT = ClassUtils.isPresent("reactor.core.publisher.Mono", LogAspect.class.getClassLoader());
+
+    /*condition不满足时绑定的上下文帧 没有日志对象, 嵌套的注解方法和跟踪值都会跳过*/
+    private static final OperationLogFrame SKIPPED_FRAME = new OperationLogFrame(null);
+
+    static {
+        SKIPPED_FRAME.sampledOut = true;
+    }
 
     private volatile OperationLogRecordInitializer logDetailProvider;
+    private volatile LogDispatcher logDispatcher;
+    private volatile ParamJsonSerializer paramJsonSerializer;
+    private volatile OperationLogConfig.Follow followConfig;
+    private volatile LogSampler logSampler;
     /**
      * 上下文对象实例
      */
     private ApplicationContext applicationContext;
 
+    /**
+     * 获取切面实例 编译时织入时返回AspectJ创建的单例, 否则创建新的实例交给Spring AOP使用
+     *
+     * @return 切面实例
+     */
+    public static LogAspect instance() {
+        return isWoven() ? Aspects.aspectOf(LogAspect.class) : new LogAspect();
+    }
+
+    /**
+     * 是否为编译时织入模式 即当前类由ajc编译
+     *
+     * @return 是否编译时织入
+     */
+    public static boolean isWoven() {
+        return Aspects.hasAspect(LogAspect.class);
+    }
+
     @Override
     public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
+        /*编译时织入时实例是全局单例 切换容器后重新获取依赖*/
+        this.logDetailProvider = null;
+        this.logDispatcher = null;
+        this.paramJsonSerializer = null;
+        this.followConfig = null;
+        this.logSampler = null;
         this.applicationContext = applicationContext;
     }
 
-    @Pointcut("@annotation(cn.creekmoon.operationLog.core.OperationLog)")
+    /*只拦截方法执行 编译时织入时不会再拦截方法调用处*/
+    @Pointcut("@annotation(cn.creekmoon.operationLog.core.OperationLog) && execution(* *(..))")
     private void pointcut() {
     }
 
 
     @Around("pointcut()")
     public Object around(ProceedingJoinPoint pjp) throws Throwable {
-        /*如果已经有了一个日志对象, 说明外层方法已经启用过一次注解了, 直接跳过*/
-        LogRecord currentLogRecord = OperationLogContext.getCurrentLogRecord();
-        if (currentLogRecord != null) {
+        /*如果已经有了一个上下文帧, 说明外层方法已经启用过一次注解了, 直接跳过*/
+        if (OperationLogContext.currentFrame() != null) {
+            return pjp.proceed();
+        }
+        /*编译时织入时 容器启动之前调用的注解方法不记录*/
+        if (applicationContext == null) {
             return pjp.proceed();
         }
 
+        LogMetrics metrics = LogMetrics.current();
+        boolean timed = metrics.isEnabled();
+        long phaseStart = timed ? System.nanoTime() : 0;
+
+        /*获取注解所在方法的元数据 每个方法只会解析一次*/
+        OperationLogMetadata metadata = getMetadata(pjp);
+        /*condition不满足时 不创建日志对象也不序列化参数*/
+        OperationLogExpressions expressions = metadata.getExpressions();
+        if (expressions != null && !expressions.condition(pjp.getArgs())) {
+            return OperationLogContext.callWithFrame(SKIPPED_FRAME, pjp::proceed);
+        }
+
         /*尝试开启新的日志对象*/
-        LogRecord logRecord = initOperationLog();
+        OperationLogFrame frame = initOperationLog();
+        LogRecord logRecord = frame.getLogRecord();
         /*尝试获取外部请求体信息*/
         ServletRequestAttributes servletAttributes = (ServletRequestAttributes) RequestContextHolder.getRequestAttributes();
         if (servletAttributes != null) {
             HttpServletRequest request = servletAttributes.getRequest();
-            OperationLogContext.currentServletRequest.set(request);
-        }
-        /*获取注解所在的方法*/
-        MethodSignature signature = (MethodSignature) pjp.getSignature();
-        Operation swaggerApi = signature.getMethod().getAnnotation(Operation.class);
-        OperationLog annotation = signature.getMethod().getAnnotation(OperationLog.class);
-        logRecord.setMethodName(Optional.ofNullable(pjp.getSignature()).map(Signature::getName).orElse("unknownMethod"));
-        logRecord.setClassFullName(pjp.getSignature().getDeclaringTypeName() + "." + pjp.getSignature().getName());
-
-        /**
-         * 赋值优先级 从上到下
-         * 1.使用OperationLog注解(如果已经填写)
-         * 2.使用Swagger注解(如果已经填写)
-         * 3.使用当前方法类名
-         *
-         * */
-        if (!OperationLog.OPERATION_SUMMARY_DEFAULT.equals(annotation.value())) {
-            logRecord.setOperationName(annotation.value());
-        } else if (swaggerApi != null && swaggerApi.summary() != null) {
-            logRecord.setOperationName(swaggerApi.summary());
-        } else {
-            logRecord.setOperationName(logRecord.classFullName);
-        }
-
-
-        /*处理注解所在的方法体参数*/
+            frame.servletRequest = request;
+        }
+        if (expressions != null && expressions.hasPostExpressions()) {
+            frame.args = pjp.getArgs();
+        }
+        logRecord.setMethodName(metadata.getMethodName());
+        logRecord.setClassFullName(metadata.getClassFullName());
+        logRecord.setOperationName(metadata.getOperationName());
+        if (logRecord.getOperationType() == null) {
+            logRecord.setOperationType(metadata.getOperationType());
+        }
+
+        /*采样和限流 未被采样的调用不序列化参数*/
+        LogSampler.Decision decision = getLogSampler().decide(metadata, logRecord);
+        if (timed) {
+            long now = System.nanoTime();
+            metrics.recordPhase(LogMetrics.Phase.INIT, now - phaseStart);
+            phaseStart = now;
+        }
+        if (decision == LogSampler.Decision.SKIP) {
+            frame.sampledOut = true;
+            return OperationLogContext.callWithFrame(frame, pjp::proceed);
+        }
+        if (decision == LogSampler.Decision.FAILURE_ONLY) {
+            frame.sampledOut = true;
+            frame.pendingArgs = pjp.getArgs();
+            return OperationLogContext.callWithFrame(frame, () -> proceed(pjp, frame, metadata));
+        }
+
+        /*处理注解所在的方法体参数 开启延迟捕获时只生成快照*/
+        frame.deferredCapture = metadata.isDeferredCapture();
         try {
-            List<Object> paramList = Arrays
-                    .stream(Optional.ofNullable(pjp.getArgs()).orElse(new Object[]{}))
-                    .map(currentParam -> {
-                        if (currentParam == null) {
-                            return "null";
-                        }
-                        /*对不能进行序列化的类进行额外处理*/
-                        if (currentParam instanceof ServletRequest) {
-                            return "ServletRequest";
-                        } else if (currentParam instanceof ServletResponse) {
-                            return "ServletResponse";
-                        } else if (currentParam instanceof MultipartFile) {
-                            return "MultipartFile";
-                        } else if (currentParam instanceof MultipartFile[]) {
-                            return "MultipartFile[]";
-                        } else if (currentParam instanceof InputStreamSource) {
-                            return "InputStreamSource";
-                        }
-                        /*如果是基本类型的参数，则将其转为JSON形式。 如果是对象类型参数，则不需要处理*/
-                        if (currentParam.getClass().isPrimitive()
-                                || currentParam instanceof Boolean
-                                || currentParam instanceof Character
-                                || currentParam instanceof Byte
-                                || currentParam instanceof Short
-                                || currentParam instanceof Integer
-                                || currentParam instanceof Long
-                                || currentParam instanceof Float
-                                || currentParam instanceof Double
-                                || currentParam instanceof BigDecimal
-                                || currentParam instanceof String
-                        ) {
-                            return String.valueOf(currentParam);
-                        }
-                        /*如果是数组类型的参数，则将其转为JSON形式。*/
-                        if (currentParam instanceof List || currentParam.getClass().isArray()
-                        ) {
-                            return ArrayUtil.toString(currentParam);
-                        }
-                        return currentParam;
-                    })
-                    .collect(Collectors.toList());
-            logRecord.setRequestParams(new JSONArray(paramList));
+            if (metadata.isDeferredCapture()) {
+                logRecord.addDeferredCapture(getParamJsonSerializer().snapshot(metadata, pjp.getArgs()));
+            } else {
+                logRecord.setRequestParamsJson(getParamJsonSerializer().serialize(metadata, pjp.getArgs()));
+            }
         } catch (Exception e) {
             log.error("[operation-log]获取方法参数出错！可能入参含有无法转换为JSON的值! 本次参数保存空值！", e);
             logRecord.setRequestParams(new JSONArray());
         }
+        if (timed) {
+            metrics.recordPhase(LogMetrics.Phase.PARAMS, System.nanoTime() - phaseStart);
+        }
+        /*绑定上下文帧后执行 方法返回后自动解除绑定*/
+        return OperationLogContext.callWithFrame(frame, () -> proceed(pjp, frame, metadata));
+    }
+
+    /**
+     * 执行真正的方法并记录日志结果
+     * 如果返回值是CompletionStage或者Reactor的Mono/Flux, 则等到异步任务结束后再记录
+     *
+     * @param pjp      切点
+     * @param frame    当前的上下文帧
+     * @param metadata 注解所在方法的元数据
+     * @return 方法返回值
+     * @throws Throwable 方法抛出的异常
+     */
+    private Object proceed(ProceedingJoinPoint pjp, OperationLogFrame frame, OperationLogMetadata metadata) throws Throwable {
+        Object returnValue;
         try {
             /*执行真正的方法*/
-            Object returnValue = pjp.proceed();
+            returnValue = pjp.proceed();
+        } catch (Throwable e) {
+            markFailed(frame, metadata, e);
+            finish(frame, metadata);
+            throw e;
+        }
+        /*异步返回值 等待异步任务结束*/
+        if (returnValue instanceof CompletionStage<?> completionStage) {
+            completionStage.whenComplete((result, error) -> completeAsync(frame, metadata, result, error));
+            return returnValue;
+        }
+        if (REACTOR_PRESENT && ReactorSupport.isReactive(returnValue)) {
+            return ReactorSupport.onTerminate(returnValue, frame, (result, error) -> completeAsync(frame, metadata, result, error));
+        }
+        /*同步返回值*/
+        frame.returnValue = returnValue;
+        try {
             /*执行工厂类afterReturn方法*/
-            getLogDetailFactory().functionPostProcess(logRecord, returnValue);
+            getLogDetailFactory().functionPostProcess(frame.getLogRecord(), returnValue);
             return returnValue;
-        } catch (Exception e) {
-            log.debug("[operation-log]原生方法执行异常!", e);
-            logRecord.setRequestResult(Boolean.FALSE);
-            /*如果配置了handleOnFail, 将异常消息添加到remarks中*/
-            if (annotation.handleOnFail()) {
-                String errorMsg = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
-                logRecord.getRemarks().add("异常: " + errorMsg);
-            }
+        } catch (Throwable e) {
+            markFailed(frame, metadata, e);
             throw e;
         } finally {
-            /*操作结果正确 或者 操作结果失败且配置了失败记录 才会进行日志记录*/
-            boolean isNeedRecord = logRecord.getRequestResult() || (!logRecord.getRequestResult() && annotation.handleOnFail());
-            /* 跟踪结果变化*/
-            if (isNeedRecord) {
-                if (OperationLogContext.metadataSupplier.get() != null) {
+            finish(frame, metadata);
+        }
+    }
+
+    /**
+     * 异步任务结束时的回调 在完成异步任务的线程上执行
+     *
+     * @param frame    当前的上下文帧
+     * @param metadata 注解所在方法的元数据
+     * @param result   异步结果
+     * @param error    异步异常
+     */
+    private void completeAsync(OperationLogFrame frame, OperationLogMetadata metadata, Object result, Throwable error) {
+        try {
+            OperationLogContext.callWithFrame(frame, () -> {
+                if (error != null) {
+                    markFailed(frame, metadata, error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+                } else {
+                    frame.returnValue = result;
                     try {
-                        //序列化成JSON格式
-                        JSONObject parse = JSONObject.parseObject(JSONObject.toJSONString(OperationLogContext.metadataSupplier.get().call()));
-                        logRecord.setAfterValue(parse);
+                        /*执行工厂类afterReturn方法*/
+                        getLogDetailFactory().functionPostProcess(frame.getLogRecord(), result);
                     } catch (Exception e) {
-                        log.debug("[operation-log]跟踪日志对象时报错! 发生位置setAfterValue!", e);
+                        markFailed(frame, metadata, e);
                     }
                 }
-                /*保存日志结果*/
-                LogThreadPool.runTask(() -> {
-                    for (OperationLogHandler operationLogHandler : applicationContext.getBeansOfType(OperationLogHandler.class).values()) {
-                        try {
-                            operationLogHandler.handle(logRecord);
-                        } catch (Exception e) {
-                            log.error("[operation-log]日志处理器执行异常!", e);
-                        }
-                    }
-                });
+                finish(frame, metadata);
+                return null;
+            });
+        } catch (Throwable e) {
+            log.error("[operation-log]异步方法结束后记录日志失败!", e);
+        }
+    }
+
+    /**
+     * 标记当前操作失败
+     *
+     * @param frame    当前的上下文帧
+     * @param metadata 注解所在方法的元数据
+     * @param e        异常
+     */
+    private void markFailed(OperationLogFrame frame, OperationLogMetadata metadata, Throwable e) {
+        /*Error不视为业务失败, 与之前只捕获Exception的行为保持一致*/
+        if (!(e instanceof Exception)) {
+            return;
+        }
+        log.debug("[operation-log]原生方法执行异常!", e);
+        frame.error = e;
+        LogRecord logRecord = frame.getLogRecord();
+        logRecord.setRequestResult(Boolean.FALSE);
+        /*如果配置了handleOnFail, 将异常消息添加到remarks中*/
+        if (metadata.isHandleOnFail()) {
+            String errorMsg = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            synchronized (logRecord) {
+                logRecord.getRemarks().add("异常: " + errorMsg);
+            }
+        }
+    }
+
+    /**
+     * 结束当前的日志记录 每个上下文帧只会执行一次
+     *
+     * @param frame    当前的上下文帧
+     * @param metadata 注解所在方法的元数据
+     */
+    private void finish(OperationLogFrame frame, OperationLogMetadata metadata) {
+        if (!frame.complete()) {
+            return;
+        }
+        LogRecord logRecord = frame.getLogRecord();
+        /*操作结果正确 或者 操作结果失败且配置了失败记录 才会进行日志记录*/
+        boolean isNeedRecord = logRecord.requestResult || metadata.isHandleOnFail();
+        /*不进行日志记录*/
+        if (!isNeedRecord) {
+            log.debug("[operation-log]用户操作没有成功,不会进行日志记录");
+            return;
+        }
+        /*未被采样的调用 只有失败时才记录, 此时才序列化参数*/
+        if (frame.sampledOut) {
+            if (logRecord.requestResult || frame.pendingArgs == null) {
+                return;
+            }
+            try {
+                logRecord.setRequestParamsJson(getParamJsonSerializer().serialize(metadata, frame.pendingArgs));
+            } catch (Exception e) {
+                log.error("[operation-log]获取方法参数出错！可能入参含有无法转换为JSON的值! 本次参数保存空值！", e);
+                logRecord.setRequestParams(new JSONArray());
             }
-            /*不进行日志记录*/
-            if (!isNeedRecord) {
-                log.debug("[operation-log]用户操作没有成功,不会进行日志记录");
+            frame.pendingArgs = null;
+        }
+        /*unless、动态操作名称和标签*/
+        OperationLogExpressions expressions = metadata.getExpressions();
+        if (expressions != null && expressions.hasPostExpressions()) {
+            Object[] args = frame.args;
+            frame.args = null;
+            if (expressions.evaluate(logRecord, args, frame.returnValue, frame.error)) {
+                log.debug("[operation-log]满足unless表达式,不会进行日志记录");
+                return;
+            }
+        }
+        LogMetrics metrics = LogMetrics.current();
+        /* 跟踪结果变化*/
+        Callable<Object> metadataSupplier = frame.metadataSupplier;
+        if (metadataSupplier != null) {
+            long followStart = metrics.isEnabled() ? System.nanoTime() : 0;
+            try {
+                Object value = metadataSupplier.call();
+                OperationLogConfig.Follow followConfig = getFollowConfig();
+                if (frame.deferredCapture) {
+                    /*只生成二进制快照 在分发线程上比较, 循环引用写为引用而不是无限展开*/
+                    byte[] snapshot = JSONB.toBytes(value, JSONWriter.Feature.ReferenceDetection);
+                    logRecord.addDeferredCapture(x -> recordChanges(x, JSONB.parse(snapshot), followConfig));
+                } else {
+                    recordChanges(logRecord, value, followConfig);
+                }
+            } catch (Exception e) {
+                log.debug("[operation-log]跟踪日志对象时报错! 发生位置setAfterValue!", e);
+            }
+            if (metrics.isEnabled()) {
+                metrics.recordPhase(LogMetrics.Phase.FOLLOW, System.nanoTime() - followStart);
             }
-            OperationLogContext.clean();
         }
+        /*保存日志结果 交给分发器异步处理*/
+        if (metrics.isEnabled()) {
+            long dispatchStart = System.nanoTime();
+            getLogDispatcher().dispatch(logRecord);
+            metrics.recordPhase(LogMetrics.Phase.DISPATCH, System.nanoTime() - dispatchStart);
+            metrics.recordDispatched(logRecord.getOperationType());
+            return;
+        }
+        getLogDispatcher().dispatch(logRecord);
+    }
+
+
+    /**
+     * 比较跟踪值在操作前后的变化
+     *
+     * @param logRecord    日志记录 preValue中已经保存操作之前的快照
+     * @param afterValue   操作之后的值
+     * @param followConfig 跟踪值配置
+     */
+    private static void recordChanges(LogRecord logRecord, Object afterValue, OperationLogConfig.Follow followConfig) {
+        if (followConfig.isDiffOnly()) {
+            /*直接与原始对象比较 不再生成之后的快照*/
+            logRecord.setChanges(ObjectDiffer.diff(logRecord.getPreValue(), afterValue, followConfig.getMaxChanges()));
+            logRecord.setPreValue(null);
+            return;
+        }
+        Object afterSnapshot = ObjectDiffer.snapshot(afterValue);
+        logRecord.setAfterValue(afterSnapshot);
+        logRecord.setChanges(ObjectDiffer.diff(logRecord.getPreValue(), afterSnapshot, followConfig.getMaxChanges()));
     }
 
+    /**
+     * 获取注解所在方法的元数据
+     *
+     * @param pjp 切点
+     * @return 元数据
+     */
+    private OperationLogMetadata getMetadata(ProceedingJoinPoint pjp) {
+        Method method = ((MethodSignature) pjp.getSignature()).getMethod();
+        OperationLogMetadata metadata = OperationLogMetadata.of(method);
+        if (metadata == null && pjp.getTarget() != null) {
+            /*注解可能在实现类上, 而签名中的方法来自接口*/
+            metadata = OperationLogMetadata.of(AopUtils.getMostSpecificMethod(method, pjp.getTarget().getClass()));
+        }
+        return metadata;
+    }
+
+    /**
+     * 启动完成后扫描所有Bean, 提前解析带有@OperationLog注解的方法
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        boolean woven = isWoven();
+        int count = 0;
+        List<String> deferredMethods = new ArrayList<>();
+        for (String beanName : applicationContext.getBeanDefinitionNames()) {
+            try {
+                Class<?> beanType = applicationContext.getType(beanName, false);
+                if (beanType == null) {
+                    continue;
+                }
+                Class<?> userClass = ClassUtils.getUserClass(beanType);
+                Map<Method, OperationLog> annotatedMethods = MethodIntrospector.selectMethods(userClass,
+                        (MethodIntrospector.MetadataLookup<OperationLog>) method -> AnnotatedElementUtils.findMergedAnnotation(method, OperationLog.class));
+                for (Method method : annotatedMethods.keySet()) {
+                    OperationLogMetadata metadata = OperationLogMetadata.of(method);
+                    if (metadata != null && metadata.isDeferredCapture()) {
+                        deferredMethods.add(userClass.getSimpleName() + "." + method.getName());
+                    }
+                    count++;
+                }
+                if (woven && !annotatedMethods.isEmpty() && !isWoven(userClass)) {
+                    log.warn("[operation-log]当前为编译时织入模式, 但{}没有被织入, 其中的@OperationLog不会生效! 请检查aspectj-maven-plugin的配置", userClass.getName());
+                }
+            } catch (Throwable e) {
+                log.debug("[operation-log]预解析注解方法失败! beanName={}", beanName, e);
+            }
+        }
+        log.debug("[operation-log]已预解析{}个注解方法", count);
+        if (!deferredMethods.isEmpty() && getLogDispatcher().isSpoolEnabled()) {
+            log.warn("[operation-log]已启用预写日志, 日志写入预写日志前必须在请求线程上完成序列化, 以下方法的deferredCapture不会生效: {}", deferredMethods);
+        }
+    }
+
+    /**
+     * 类是否被ajc织入过 织入后的类中会有ajc$开头的静态字段
+     */
+    private static boolean isWoven(Class<?> type) {
+        for (Field field : type.getDeclaredFields()) {
+            if (field.getName().startsWith("ajc$")) {
+                return true;
+            }
+        }
+        return false;
+    }
 
     /**
-     * 创建一个日志记录对象
+     * 创建一个日志记录对象 以及它所在的上下文帧
      *
-     * @return
+     * @return 上下文帧
      */
-    private LogRecord initOperationLog() {
+    private OperationLogFrame initOperationLog() {
         LogRecord logRecord = new LogRecord();
         logRecord = getLogDetailFactory().init(logRecord);
-        String recordId = UUID.fastUUID().toString();
-        OperationLogContext.currentRecordId.set(recordId);
-        OperationLogContext.recordId2Logs.put(recordId, logRecord);
-        return logRecord;
+        return new OperationLogFrame(logRecord);
     }
 
 
@@ -219,6 +455,73 @@ public class LogAspect implements ApplicationContextAware, Ordered {
 
     }
 
+    private LogDispatcher getLogDispatcher() {
+        if (this.logDispatcher == null) {
+            synchronized (this) {
+                if (this.logDispatcher == null) {
+                    this.logDispatcher = applicationContext.getBean(LogDispatcher.class);
+                }
+            }
+        }
+        return this.logDispatcher;
+    }
+
+    private ParamJsonSerializer getParamJsonSerializer() {
+        if (this.paramJsonSerializer == null) {
+            synchronized (this) {
+                if (this.paramJsonSerializer == null) {
+                    OperationLogConfig.Params params = applicationContext.getBean(OperationLogConfig.class).getParams();
+                    this.paramJsonSerializer = new ParamJsonSerializer(params.getMaxDepth(), params.getMaxCollectionSize(), params.getMaxStringLength(),
+                            params.isLegacyCollectionFormat());
+                }
+            }
+        }
+        return this.paramJsonSerializer;
+    }
+
+    private LogSampler getLogSampler() {
+        if (this.logSampler == null) {
+            synchronized (this) {
+                if (this.logSampler == null) {
+                    OperationLogConfig operationLogConfig = applicationContext.getBean(OperationLogConfig.class);
+                    this.logSampler = new LogSampler(operationLogConfig.getSampling(), operationLogConfig.getSamplings());
+                }
+            }
+        }
+        return this.logSampler;
+    }
+
+    private OperationLogConfig.Follow getFollowConfig() {
+        if (this.followConfig == null) {
+            synchronized (this) {
+                if (this.followConfig == null) {
+                    this.followConfig = applicationContext.getBean(OperationLogConfig.class).getFollow();
+                }
+            }
+        }
+        return this.followConfig;
+    }
+
+    /**
+     * 未被采样的调用数量
+     *
+     * @return 数量
+     */
+    public long getSampledOutCount() {
+        LogSampler sampler = this.logSampler;
+        return sampler == null ? 0 : sampler.getSampledOutCount();
+    }
+
+    /**
+     * 被限流的调用数量
+     *
+     * @return 数量
+     */
+    public long getRateLimitedCount() {
+        LogSampler sampler = this.logSampler;
+        return sampler == null ? 0 : sampler.getRateLimitedCount();
+    }
+
     @Override
     public int getOrder() {
         return Integer.MAX_VALUE;
@@ -0,0 +1,103 @@
+package cn.creekmoon.operationLog.core;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 日志处理器的熔断器
+ * 连续失败达到阈值后打开, 打开期间拒绝所有批次; 到期后放行一个批次试探, 成功则关闭, 失败则重新打开
+ * 试探期间其他批次可以通过awaitProbe等待试探结果
+ *
+ * @author creekmoon
+ */
+class LogCircuitBreaker {
+
+    private enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN,
+    }
+
+    /*连续失败多少次后打开 小于等于0时不熔断*/
+    private final int failureThreshold;
+    /*打开后持续的时间*/
+    private final long openNanos;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openUntilNanos;
+
+    LogCircuitBreaker(int failureThreshold, long openNanos) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openNanos;
+    }
+
+    /**
+     * 是否允许执行
+     *
+     * @return 是否允许
+     */
+    synchronized boolean tryAcquire() {
+        switch (state) {
+            case CLOSED -> {
+                return true;
+            }
+            case OPEN -> {
+                if (System.nanoTime() - openUntilNanos < 0) {
+                    return false;
+                }
+                /*到期后只放行一个批次试探*/
+                state = State.HALF_OPEN;
+                return true;
+            }
+            default -> {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 熔断器不允许执行时 等待试探结果
+     *
+     * @param nanos 最长等待时间
+     * @return 是否可以再次尝试tryAcquire 为false时熔断器处于打开状态且尚未到期
+     * @throws InterruptedException 等待期间被中断
+     */
+    synchronized boolean awaitProbe(long nanos) throws InterruptedException {
+        if (state == State.OPEN) {
+            return System.nanoTime() - openUntilNanos >= 0;
+        }
+        if (state == State.HALF_OPEN) {
+            TimeUnit.NANOSECONDS.timedWait(this, nanos);
+        }
+        return true;
+    }
+
+    synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        state = State.CLOSED;
+        notifyAll();
+    }
+
+    /**
+     * 记录一次失败
+     *
+     * @return 熔断器是否因此打开
+     */
+    synchronized boolean onFailure() {
+        consecutiveFailures++;
+        if (failureThreshold <= 0) {
+            return false;
+        }
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            state = State.OPEN;
+            openUntilNanos = System.nanoTime() + openNanos;
+            notifyAll();
+            return true;
+        }
+        return false;
+    }
+
+    synchronized boolean isOpen() {
+        return state != State.CLOSED;
+    }
+}
@@ -0,0 +1,455 @@
+package cn.creekmoon.operationLog.core;
+
+import cn.creekmoon.operationLog.config.OperationLogConfig;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 日志分发器 替代原先每条日志提交一个任务的线程池
+ * 请求线程只把日志写入预分配的环形缓冲区, 由专用的分发线程按数量或时间阈值攒批后交给日志处理器
+ * 缓冲区满时按照配置的OverflowPolicy处理, 请求线程永远不会执行日志处理器的代码
+ * 日志处理器只在容器刷新时获取一次, 每个处理器拥有独立的处理通道(队列、线程、超时、熔断), 互不影响
+ * 启用预写日志时, 请求线程把日志追加到预写日志后即返回, 各处理通道直接从预写日志中读取
+ * 启用重复操作聚合时, 日志先进入聚合表, 窗口结束后才进入缓冲区或预写日志
+ * 容器关闭时在Web服务器停止之后、处理器Bean销毁之前排空剩余日志, 超过等待时间后剩余的日志尽量写入磁盘
+ *
+ * @author creekmoon
+ */
+@Component
+@Slf4j
+public class LogDispatcher implements ApplicationListener<ContextRefreshedEvent>, SmartLifecycle {
+
+    /*晚于Web服务器的优雅停机和停止 此时不会再有新的请求产生日志*/
+    public static final int PHASE = SmartLifecycle.DEFAULT_PHASE - 2048;
+
+    private final OperationLogConfig operationLogConfig;
+    private final OperationLogConfig.Dispatcher config;
+    private final ApplicationContext applicationContext;
+
+    /*每个日志处理器的处理通道 首次分发或容器刷新时创建*/
+    private volatile List<HandlerLane> lanes;
+    private final Object lanesLock = new Object();
+    /*检查处理器是否超时*/
+    private ScheduledExecutorService watchdog;
+
+    private LogRingBuffer<LogRecord> buffer;
+    private LogSpillFile spillFile;
+    /*本地预写日志 未启用时为null*/
+    private LogSpool spool;
+    /*重复操作聚合 未启用时为null*/
+    private LogAggregator aggregator;
+    private Thread dispatchThread;
+    private volatile boolean running;
+    /*关闭等待超时 分发线程不再继续分发*/
+    private volatile boolean abandoned;
+    private final Object lifecycleLock = new Object();
+    private boolean stopped;
+
+    /*因缓冲区已满被丢弃的日志数量*/
+    private final AtomicLong droppedCount = new AtomicLong();
+    /*因缓冲区已满被写入磁盘的日志数量*/
+    private final AtomicLong spilledCount = new AtomicLong();
+
+    public LogDispatcher(OperationLogConfig operationLogConfig, ApplicationContext applicationContext) {
+        this.operationLogConfig = operationLogConfig;
+        this.config = operationLogConfig.getDispatcher();
+        this.applicationContext = applicationContext;
+    }
+
+    /**
+     * 创建时即启动分发线程 容器刷新前产生的日志同样可以被处理
+     */
+    @PostConstruct
+    public void init() {
+        this.buffer = new LogRingBuffer<>(config.getBufferSize());
+        OperationLogConfig.Spool spoolConfig = operationLogConfig.getSpool();
+        if (spoolConfig.isEnabled()) {
+            try {
+                this.spool = new LogSpool(Paths.get(spoolConfig.getDirectory()),
+                        (int) Math.min(Integer.MAX_VALUE, spoolConfig.getSegmentSize().toBytes()),
+                        spoolConfig.getSyncInterval().toNanos());
+            } catch (IOException e) {
+                log.error("[operation-log]预写日志启动失败, 日志只保存在内存中! directory={}", spoolConfig.getDirectory(), e);
+            }
+        }
+        if (config.getOverflowPolicy() == OverflowPolicy.SPILL_TO_DISK) {
+            this.spillFile = new LogSpillFile(Paths.get(config.getSpillDirectory()));
+        }
+        OperationLogConfig.Aggregation aggregationConfig = operationLogConfig.getAggregation();
+        if (aggregationConfig.isEnabled()) {
+            this.aggregator = new LogAggregator(aggregationConfig.getWindow().toNanos(),
+                    aggregationConfig.getMaxEntries(), aggregationConfig.getStripes(), this::enqueue);
+        }
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("operation-logs-dispatcher-");
+        threadFactory.setDaemon(true);
+        this.running = true;
+        this.dispatchThread = threadFactory.newThread(this::dispatchLoop);
+        this.dispatchThread.start();
+        CustomizableThreadFactory watchdogThreadFactory = new CustomizableThreadFactory("operation-logs-watchdog-");
+        watchdogThreadFactory.setDaemon(true);
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(watchdogThreadFactory);
+        this.watchdog.scheduleWithFixedDelay(this::checkTimeout, 100, 100, TimeUnit.MILLISECONDS);
+        if (aggregator != null) {
+            this.watchdog.scheduleWithFixedDelay(this::flushAggregated, 100, 100, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+        if (event.getApplicationContext() == applicationContext) {
+            refreshHandlers();
+        }
+    }
+
+    /**
+     * 重新获取所有日志处理器 仍然存在的处理器继续使用原来的处理通道
+     */
+    public void refreshHandlers() {
+        synchronized (lanesLock) {
+            List<HandlerLane> previous = lanes == null ? Collections.emptyList() : lanes;
+            List<HandlerLane> current = new ArrayList<>();
+            applicationContext.getBeansOfType(OperationLogHandler.class).forEach((beanName, handler) -> {
+                HandlerLane lane = previous.stream()
+                        .filter(x -> x.getName().equals(beanName) && x.getHandler() == handler)
+                        .findFirst()
+                        .orElseGet(() -> createLane(beanName, handler));
+                current.add(lane);
+            });
+            this.lanes = Collections.unmodifiableList(current);
+            /*已经不存在的处理器 处理完剩余批次后关闭*/
+            long deadline = System.nanoTime() + config.getShutdownTimeout().toNanos();
+            for (HandlerLane lane : previous) {
+                if (!current.contains(lane)) {
+                    lane.shutdown(deadline);
+                    if (spool != null) {
+                        spool.closeCursor(lane.getCursor());
+                    }
+                }
+            }
+        }
+    }
+
+    private HandlerLane createLane(String beanName, OperationLogHandler handler) {
+        if (spool == null) {
+            return new HandlerLane(beanName, handler, handlerConfig(beanName));
+        }
+        return new HandlerLane(beanName, handler, handlerConfig(beanName), spool, operationLogConfig.getSpool(),
+                config.getBatchSize(), config.getFlushInterval().toNanos());
+    }
+
+    private OperationLogConfig.Handler handlerConfig(String beanName) {
+        return operationLogConfig.handlerConfig(beanName);
+    }
+
+    /**
+     * 获取所有处理通道 容器刷新前就产生的日志会提前触发获取
+     *
+     * @return 处理通道
+     */
+    public List<HandlerLane> getLanes() {
+        List<HandlerLane> current = lanes;
+        if (current == null) {
+            refreshHandlers();
+            current = lanes;
+        }
+        return current;
+    }
+
+    private void checkTimeout() {
+        List<HandlerLane> current = lanes;
+        if (current == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        for (HandlerLane lane : current) {
+            lane.checkTimeout(now);
+        }
+    }
+
+    private void flushAggregated() {
+        try {
+            aggregator.flushExpired(System.nanoTime());
+        } catch (Exception e) {
+            log.error("[operation-log]提交聚合后的日志失败!", e);
+        }
+    }
+
+    /**
+     * 提交一条日志 由请求线程调用
+     *
+     * @param logRecord 日志记录
+     */
+    public void dispatch(LogRecord logRecord) {
+        if (!running) {
+            drop(logRecord);
+            return;
+        }
+        if (aggregator != null && aggregator.offer(logRecord)) {
+            return;
+        }
+        enqueue(logRecord);
+    }
+
+    /**
+     * 放入预写日志或缓冲区
+     *
+     * @param logRecord 日志记录
+     */
+    private void enqueue(LogRecord logRecord) {
+        if (spool != null && appendToSpool(logRecord)) {
+            return;
+        }
+        switch (config.getOverflowPolicy()) {
+            case BLOCK -> {
+                try {
+                    if (!buffer.offer(logRecord, config.getBlockTimeout().toNanos(), TimeUnit.NANOSECONDS)) {
+                        drop(logRecord);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    drop(logRecord);
+                }
+            }
+            case DROP_OLDEST -> {
+                LogRecord evicted = buffer.offerOverwrite(logRecord);
+                if (evicted != null) {
+                    drop(evicted);
+                }
+            }
+            case DROP_NEWEST -> {
+                if (!buffer.offer(logRecord)) {
+                    drop(logRecord);
+                }
+            }
+            case SPILL_TO_DISK -> {
+                if (!buffer.offer(logRecord)) {
+                    if (spillFile.append(logRecord)) {
+                        spilledCount.incrementAndGet();
+                    } else {
+                        drop(logRecord);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 追加到预写日志
+     *
+     * @param logRecord 日志记录
+     * @return 是否成功 失败时退回内存缓冲区
+     */
+    private boolean appendToSpool(LogRecord logRecord) {
+        try {
+            /*持久化之前必须完成延迟捕获 快照无法编码, 因此启用预写日志时延迟捕获仍在请求线程上完成, 启动时会提示*/
+            logRecord.completeDeferredCapture();
+            /*容器刷新前写入的日志 在处理通道创建后读取*/
+            if (spool.append(spool.encode(logRecord))) {
+                return true;
+            }
+        } catch (Exception e) {
+            log.error("[operation-log]日志写入预写日志失败, 退回内存缓冲区!", e);
+        }
+        return false;
+    }
+
+    /**
+     * 分发线程主循环
+     */
+    private void dispatchLoop() {
+        int batchSize = Math.max(1, config.getBatchSize());
+        long flushIntervalNanos = config.getFlushInterval().toNanos();
+        List<LogRecord> batch = new ArrayList<>(batchSize);
+        while ((running || buffer.size() > 0) && !abandoned) {
+            try {
+                buffer.awaitBatch(batchSize, flushIntervalNanos, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                /*被中断时不退出, 由running标识控制生命周期*/
+                Thread.interrupted();
+            }
+            while (buffer.drainTo(batch, batchSize) > 0) {
+                deliver(batch, false);
+                batch = new ArrayList<>(batchSize);
+            }
+            /*缓冲区比较空闲时 重放暂存在磁盘中的日志*/
+            if (spillFile != null && spillFile.hasPending() && buffer.size() < buffer.capacity() / 2) {
+                /*重放时处理队列已满则等待, 避免暂存的日志再次丢失*/
+                spillFile.replay(batchSize, x -> deliver(x, true));
+            }
+        }
+    }
+
+    /**
+     * 把一个批次交给所有日志处理器的处理通道
+     *
+     * @param batch      批次
+     * @param waitIfFull 处理队列已满时是否等待
+     */
+    private void deliver(List<LogRecord> batch, boolean waitIfFull) {
+        /*延迟捕获的内容在分发线程上完成转换*/
+        for (LogRecord logRecord : batch) {
+            logRecord.completeDeferredCapture();
+        }
+        List<LogRecord> readOnlyBatch = Collections.unmodifiableList(batch);
+        for (HandlerLane lane : getLanes()) {
+            lane.submit(readOnlyBatch, waitIfFull);
+        }
+    }
+
+    private void drop(LogRecord logRecord) {
+        long dropped = droppedCount.incrementAndGet();
+        /*避免在持续溢出时刷屏*/
+        if (dropped == 1 || dropped % 1000 == 0) {
+            log.warn("[operation-log]日志缓冲区已满, 日志被丢弃! 累计丢弃数量={} operationName={}", dropped, logRecord.getOperationName());
+        }
+    }
+
+    @Override
+    public void start() {
+        /*分发线程在创建时已经启动*/
+    }
+
+    /**
+     * 停止接收新的日志, 在shutdownTimeout内把聚合表、缓冲区和各处理器队列中的日志处理完毕
+     * 超时后缓冲区中剩余的日志写入预写日志或溢出暂存文件(如果启用), 下次启动时重放, 否则丢弃
+     */
+    @Override
+    public void stop() {
+        synchronized (lifecycleLock) {
+            if (stopped) {
+                return;
+            }
+            stopped = true;
+        }
+        long startNanos = System.nanoTime();
+        long deadline = startNanos + config.getShutdownTimeout().toNanos();
+        /*聚合中的日志不再等待窗口结束*/
+        int pending = getAggregatingCount();
+        if (aggregator != null) {
+            aggregator.flushAll();
+        }
+        running = false;
+        pending += buffer.size();
+        buffer.wakeUp();
+        try {
+            dispatchThread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        abandoned = true;
+        int remaining = buffer.size();
+        int spilled = spillRemaining();
+        /*等待各处理器处理完已经提交的批次 与缓冲区共用一个等待时间*/
+        int handlerDropped = 0;
+        List<HandlerLane> current = lanes;
+        if (current != null) {
+            for (HandlerLane lane : current) {
+                handlerDropped += lane.shutdown(deadline);
+            }
+        }
+        watchdog.shutdownNow();
+        if (spool != null) {
+            spool.close();
+        }
+        log.info("[operation-log]分发器已关闭 耗时={}ms 待处理日志={} 已交给处理器={} 写入磁盘={} 丢弃={} 处理器未处理={}",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos), pending, Math.max(0, pending - remaining),
+                spilled, remaining - spilled, handlerDropped);
+    }
+
+    /**
+     * 关闭超时后 缓冲区中剩余的日志写入磁盘
+     *
+     * @return 写入磁盘的日志数量
+     */
+    private int spillRemaining() {
+        List<LogRecord> remaining = new ArrayList<>(buffer.size());
+        buffer.drainTo(remaining, Integer.MAX_VALUE);
+        int spilled = 0;
+        for (LogRecord logRecord : remaining) {
+            if ((spool != null && appendToSpool(logRecord)) || (spillFile != null && spillFile.append(logRecord))) {
+                spilled++;
+            }
+        }
+        droppedCount.addAndGet(remaining.size() - spilled);
+        return spilled;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return PHASE;
+    }
+
+    /**
+     * 没有经过生命周期停止时(例如容器刷新失败) 在销毁时关闭
+     */
+    @PreDestroy
+    public void destroy() {
+        stop();
+    }
+
+    /**
+     * 缓冲区中等待处理的日志数量
+     *
+     * @return 数量
+     */
+    public int getPendingCount() {
+        return buffer.size();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public long getSpilledCount() {
+        return spilledCount.get();
+    }
+
+    /**
+     * 是否正在使用预写日志 启用但启动失败时为false
+     *
+     * @return 是否使用
+     */
+    public boolean isSpoolEnabled() {
+        return spool != null;
+    }
+
+    /**
+     * 因重复被合并掉的日志数量
+     *
+     * @return 数量
+     */
+    public long getMergedCount() {
+        return aggregator == null ? 0 : aggregator.getMergedCount();
+    }
+
+    /**
+     * 正在聚合中的日志数量
+     *
+     * @return 数量
+     */
+    public int getAggregatingCount() {
+        return aggregator == null ? 0 : aggregator.size();
+    }
+}
@@ -0,0 +1,79 @@
+package cn.creekmoon.operationLog.core;
+
+/**
+ * 日志链路的指标埋点
+ * 默认实现不做任何事情, 引入Micrometer并存在MeterRegistry时替换为真正的实现
+ * 埋点位于请求线程的热路径上, 未启用时只多一次volatile读取
+ *
+ * @author creekmoon
+ */
+public class LogMetrics {
+
+    /**
+     * 切面中的各个阶段
+     */
+    public enum Phase {
+        /*创建日志对象、读取元数据、采样*/
+        INIT,
+        /*方法参数序列化或生成快照*/
+        PARAMS,
+        /*跟踪值快照与比较*/
+        FOLLOW,
+        /*交给分发器*/
+        DISPATCH,
+    }
+
+    private static final LogMetrics NOOP = new LogMetrics();
+
+    private static volatile LogMetrics current = NOOP;
+
+    /**
+     * 替换当前的指标实现
+     *
+     * @param metrics 指标实现 为null时恢复为不记录
+     */
+    public static void use(LogMetrics metrics) {
+        current = metrics == null ? NOOP : metrics;
+    }
+
+    public static LogMetrics current() {
+        return current;
+    }
+
+    /**
+     * 是否需要记录 为false时调用方可以省去计时
+     *
+     * @return 是否需要记录
+     */
+    public boolean isEnabled() {
+        return false;
+    }
+
+    /**
+     * 记录切面中一个阶段的耗时
+     *
+     * @param phase 阶段
+     * @param nanos 耗时
+     */
+    public void recordPhase(Phase phase, long nanos) {
+    }
+
+    /**
+     * 记录日志处理器处理一个批次的耗时
+     *
+     * @param handlerName 处理器的Bean名称
+     * @param batchSize   批次大小
+     * @param nanos       耗时
+     * @param success     是否成功
+     */
+    public void recordHandler(String handlerName, int batchSize, long nanos, boolean success) {
+    }
+
+    /**
+     * 记录一条交给分发器的日志
+     *
+     * @param operationType 操作类型
+     */
+    public void recordDispatched(String operationType) {
+    }
+}
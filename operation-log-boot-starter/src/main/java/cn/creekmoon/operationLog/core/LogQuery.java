@@ -0,0 +1,92 @@
+package cn.creekmoon.operationLog.core;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * 最近日志的查询条件 未指定的条件不参与过滤, 多个条件之间为且的关系
+ *
+ * @author creekmoon
+ */
+@Data
+public class LogQuery {
+
+    /*用户id*/
+    private Long userId;
+    /*标签 需要同时包含所有标签*/
+    private Set<String> tags = new LinkedHashSet<>();
+    /*操作类型*/
+    private String operationType;
+    /*操作的JAVA方法全称*/
+    private String classFullName;
+    /*操作结果*/
+    private Boolean requestResult;
+    /*操作时间的起点 包含*/
+    private LocalDateTime from;
+    /*操作时间的终点 不包含*/
+    private LocalDateTime to;
+    /*最多返回的数量*/
+    private int limit = 100;
+
+    /**
+     * 判断日志记录是否满足条件
+     *
+     * @param logRecord 日志记录
+     * @return 是否满足
+     */
+    public boolean matches(LogRecord logRecord) {
+        return matches(logRecord, fromEpochNanos(), toEpochNanos());
+    }
+
+    /**
+     * 判断日志记录是否满足条件 批量比较时预先转换好时间范围
+     *
+     * @param logRecord 日志记录
+     * @param fromNanos 时间起点的纪元纳秒 见fromEpochNanos
+     * @param toNanos   时间终点的纪元纳秒 见toEpochNanos
+     * @return 是否满足
+     */
+    public boolean matches(LogRecord logRecord, long fromNanos, long toNanos) {
+        if (userId != null && (logRecord.userId == LogRecord.NO_ID || userId != logRecord.userId)) {
+            return false;
+        }
+        if (operationType != null && !operationType.equals(logRecord.operationType)) {
+            return false;
+        }
+        if (classFullName != null && !classFullName.equals(logRecord.classFullName)) {
+            return false;
+        }
+        if (requestResult != null && requestResult != logRecord.requestResult) {
+            return false;
+        }
+        long operationTime = logRecord.operationTime;
+        if (fromNanos != Long.MIN_VALUE && (operationTime == 0 || operationTime < fromNanos)) {
+            return false;
+        }
+        if (toNanos != Long.MAX_VALUE && (operationTime == 0 || operationTime >= toNanos)) {
+            return false;
+        }
+        return tags == null || tags.isEmpty() || (logRecord.tags != null && logRecord.tags.containsAll(tags));
+    }
+
+    /**
+     * 操作时间起点的纪元纳秒
+     *
+     * @return 纪元纳秒 未指定时为Long.MIN_VALUE
+     */
+    public long fromEpochNanos() {
+        return from == null ? Long.MIN_VALUE : LogRecord.toEpochNanos(from);
+    }
+
+    /**
+     * 操作时间终点的纪元纳秒
+     *
+     * @return 纪元纳秒 未指定时为Long.MAX_VALUE
+     */
+    public long toEpochNanos() {
+        return to == null ? Long.MAX_VALUE : LogRecord.toEpochNanos(to);
+    }
+}
@@ -1,31 +1,42 @@
 package cn.creekmoon.operationLog.core;
 
-import cn.hutool.core.date.DateUtil;
-import cn.hutool.core.date.format.FastDateFormat;
-import cn.hutool.core.util.ReflectUtil;
 import com.alibaba.fastjson2.JSONArray;
 import com.alibaba.fastjson2.JSONObject;
+import com.alibaba.fastjson2.annotation.JSONField;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
-import java.lang.reflect.Field;
+import java.time.Instant;
 import java.time.LocalDateTime;
-import java.util.Date;
 import java.util.LinkedHashSet;
-import java.util.TimeZone;
-
-import static cn.hutool.core.date.DatePattern.UTC_MS_PATTERN;
+import java.util.List;
 
+/**
+ * 日志记录
+ * 为了减少排队时的内存占用, id、操作结果和时间使用基本类型保存, 标签和备注在第一次添加时才创建
+ * getter/setter仍然使用包装类型和LocalDateTime, 与之前的版本兼容
+ *
+ * @author creekmoon
+ */
 @Data
 @Slf4j
 public class LogRecord {
 
+    /*未设置用户id时的值 getter返回null*/
+    static final long NO_ID = Long.MIN_VALUE;
+
+    /*日志记录标识 按时间有序, 处理器首次获取时才会生成, 为0表示尚未生成*/
+    volatile long recordId;
+
     /*用户id */
-    Long userId;
+    long userId = NO_ID;
     /*用户姓名*/
     String userName;
     /*用户账户Id*/
-    Long userAccountId;
+    long userAccountId = NO_ID;
     /*用户账户名*/
     String userAccountName;
     /*当前项目名称*/
@@ -42,46 +53,282 @@ public class LogRecord {
     Object preValue;
     /*操作之后的值*/
     Object afterValue;
+    /*跟踪值的字段级变化 由操作前后的值比较得出*/
+    List<FieldChange> changes;
     /*操作结果*/
-    Boolean requestResult = Boolean.TRUE;
-    /*操作参数*/
+    boolean requestResult = true;
+    /*操作参数 序列化后的JSON数组, 参数只在请求线程上序列化一次*/
+    @JSONField(serialize = false)
+    String requestParamsJson;
+    /*操作参数 首次获取时才从requestParamsJson解析*/
     JSONArray requestParams;
-    /*操作时间 */
-    LocalDateTime operationTime = LocalDateTime.now();
-    /*记录标签 可以用标签进行索引查找 */
-    LinkedHashSet<String> tags = new LinkedHashSet();
-    /*备注 可以手动为此次操作添加备注*/
-    LinkedHashSet<String> remarks = new LinkedHashSet();
+    /*操作时间 纪元纳秒, 为0表示没有*/
+    long operationTime = currentEpochNanos();
+    /*重复次数 聚合了相同的操作时大于1*/
+    int repeatCount = 1;
+    /*聚合时最后一次操作的时间 此时operationTime为第一次操作的时间, 为0表示没有*/
+    long lastOperationTime;
+    /*延迟到分发线程上完成的捕获工作 读取参数、跟踪值时会先完成*/
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @JSONField(serialize = false, deserialize = false)
+    transient DeferredCapture deferredCapture;
+    /*记录标签 可以用标签进行索引查找, 第一次获取时才创建 */
+    LinkedHashSet<String> tags;
+    /*备注 可以手动为此次操作添加备注, 第一次获取时才创建*/
+    LinkedHashSet<String> remarks;
 
     /**
-     * 内置方法, 转换为打平的第一层JSON, 主要是为了方便存储到ES中
-     * 这里输出的时间格式为UTC时间
+     * 获取日志记录标识 首次获取时生成
      *
-     * @return
+     * @return 标识
      */
-    public JSONObject toFlatJson() {
-        JSONObject result = new JSONObject();
-        Field[] fields = ReflectUtil.getFields(this.getClass());
-        for (Field field : fields) {
-            try {
-                Object vaule = field.get(this);
-                String fieldName = field.getName();
-                if (vaule == null) {
-                    result.put(fieldName, null);
-                    continue;
-                }
-                switch (vaule) {
-                    case LocalDateTime x -> result.put(fieldName, DateUtil.format(x.plusHours(-8), UTC_MS_PATTERN));
-                    case Date x ->
-                            result.put(fieldName, DateUtil.format(x, FastDateFormat.getInstance(UTC_MS_PATTERN, TimeZone.getTimeZone("GMT+:08:00"))));
-                    case JSONArray x -> result.put(fieldName, x.toJSONString());
-                    case String x -> result.put(fieldName, x);
-                    default -> result.put(fieldName, JSONObject.toJSONString(vaule));
+    public Long getRecordId() {
+        long id = recordId;
+        if (id == 0) {
+            synchronized (this) {
+                id = recordId;
+                if (id == 0) {
+                    recordId = id = LogRecordIdGenerator.nextId();
                 }
+            }
+        }
+        return id;
+    }
+
+    public void setRecordId(Long recordId) {
+        this.recordId = recordId == null ? 0 : recordId;
+    }
+
+    public Long getUserId() {
+        return userId == NO_ID ? null : userId;
+    }
+
+    public void setUserId(Long userId) {
+        this.userId = userId == null ? NO_ID : userId;
+    }
+
+    public Long getUserAccountId() {
+        return userAccountId == NO_ID ? null : userAccountId;
+    }
+
+    public void setUserAccountId(Long userAccountId) {
+        this.userAccountId = userAccountId == null ? NO_ID : userAccountId;
+    }
+
+    public Boolean getRequestResult() {
+        return requestResult;
+    }
+
+    /**
+     * 设置操作结果
+     *
+     * @param requestResult 操作结果 为null时视为成功
+     */
+    public void setRequestResult(Boolean requestResult) {
+        this.requestResult = !Boolean.FALSE.equals(requestResult);
+    }
+
+    /**
+     * 获取操作时间 按LogRecordFlatWriter.useZone指定的时区(默认为系统时区)转换
+     *
+     * @return 操作时间
+     */
+    public LocalDateTime getOperationTime() {
+        return toLocalDateTime(operationTime);
+    }
+
+    public void setOperationTime(LocalDateTime operationTime) {
+        this.operationTime = toEpochNanos(operationTime);
+    }
+
+    public LocalDateTime getLastOperationTime() {
+        return toLocalDateTime(lastOperationTime);
+    }
+
+    public void setLastOperationTime(LocalDateTime lastOperationTime) {
+        this.lastOperationTime = toEpochNanos(lastOperationTime);
+    }
+
+    /**
+     * 操作时间的纪元纳秒 不需要创建LocalDateTime
+     *
+     * @return 纪元纳秒 为0表示没有操作时间
+     */
+    public long operationEpochNanos() {
+        return operationTime;
+    }
+
+    /**
+     * 获取标签 尚未创建时创建, 只读取时可以先用hasTags判断
+     *
+     * @return 标签
+     */
+    public synchronized LinkedHashSet<String> getTags() {
+        if (tags == null) {
+            tags = new LinkedHashSet<>();
+        }
+        return tags;
+    }
+
+    /**
+     * 获取备注 尚未创建时创建, 只读取时可以先用hasRemarks判断
+     *
+     * @return 备注
+     */
+    public synchronized LinkedHashSet<String> getRemarks() {
+        if (remarks == null) {
+            remarks = new LinkedHashSet<>();
+        }
+        return remarks;
+    }
+
+    /**
+     * 是否有标签 不会创建标签集合
+     *
+     * @return 是否有标签
+     */
+    public boolean hasTags() {
+        LinkedHashSet<String> current = tags;
+        return current != null && !current.isEmpty();
+    }
+
+    /**
+     * 是否有备注 不会创建备注集合
+     *
+     * @return 是否有备注
+     */
+    public boolean hasRemarks() {
+        LinkedHashSet<String> current = remarks;
+        return current != null && !current.isEmpty();
+    }
+
+    /*当前时间的纪元纳秒*/
+    static long currentEpochNanos() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000_000L + now.getNano();
+    }
+
+    static long toEpochNanos(LocalDateTime time) {
+        if (time == null) {
+            return 0;
+        }
+        Instant instant = time.atZone(LogRecordFlatWriter.zone()).toInstant();
+        return Math.addExact(Math.multiplyExact(instant.getEpochSecond(), 1_000_000_000L), instant.getNano());
+    }
+
+    static LocalDateTime toLocalDateTime(long epochNanos) {
+        if (epochNanos == 0) {
+            return null;
+        }
+        return LocalDateTime.ofInstant(toInstant(epochNanos), LogRecordFlatWriter.zone());
+    }
+
+    static Instant toInstant(long epochNanos) {
+        return Instant.ofEpochSecond(Math.floorDiv(epochNanos, 1_000_000_000L), Math.floorMod(epochNanos, 1_000_000_000L));
+    }
+
+    /**
+     * 追加一项延迟捕获工作
+     *
+     * @param capture 捕获工作
+     */
+    public synchronized void addDeferredCapture(DeferredCapture capture) {
+        DeferredCapture previous = this.deferredCapture;
+        this.deferredCapture = previous == null ? capture : logRecord -> {
+            previous.complete(logRecord);
+            capture.complete(logRecord);
+        };
+    }
+
+    /**
+     * 完成所有延迟捕获工作 由分发线程在交给处理器之前调用, 读取相关字段时也会自动调用
+     */
+    public void completeDeferredCapture() {
+        if (deferredCapture == null) {
+            return;
+        }
+        synchronized (this) {
+            DeferredCapture capture = this.deferredCapture;
+            if (capture == null) {
+                return;
+            }
+            this.deferredCapture = null;
+            try {
+                capture.complete(this);
             } catch (Exception e) {
-                log.error("[operation-log]内置方法toFlatJson转换对象失败!", e);
+                log.error("[operation-log]延迟捕获日志内容失败!", e);
             }
         }
-        return result;
+    }
+
+    public Object getPreValue() {
+        completeDeferredCapture();
+        return preValue;
+    }
+
+    public Object getAfterValue() {
+        completeDeferredCapture();
+        return afterValue;
+    }
+
+    public List<FieldChange> getChanges() {
+        completeDeferredCapture();
+        return changes;
+    }
+
+    /**
+     * 获取操作参数 首次获取时从JSON解析
+     *
+     * @return 操作参数
+     */
+    public JSONArray getRequestParams() {
+        completeDeferredCapture();
+        if (requestParams == null && requestParamsJson != null) {
+            requestParams = JSONArray.parseArray(requestParamsJson);
+        }
+        return requestParams;
+    }
+
+    public void setRequestParams(JSONArray requestParams) {
+        this.requestParams = requestParams;
+        this.requestParamsJson = null;
+    }
+
+    /**
+     * 获取操作参数的JSON形式 不需要再次序列化
+     *
+     * @return JSON数组字符串
+     */
+    public String getRequestParamsJson() {
+        completeDeferredCapture();
+        if (requestParamsJson == null && requestParams != null) {
+            return requestParams.toJSONString();
+        }
+        return requestParamsJson;
+    }
+
+    public void setRequestParamsJson(String requestParamsJson) {
+        this.requestParamsJson = requestParamsJson;
+        this.requestParams = null;
+    }
+
+    /**
+     * 内置方法, 转换为打平的第一层JSON, 主要是为了方便存储到ES中
+     * 这里输出的时间格式为UTC时间
+     *
+     * @return
+     */
+    public JSONObject toFlatJson() {
+        return LogRecordFlatWriter.toJSONObject(this);
+    }
+
+    /**
+     * 内置方法, 转换为打平的第一层JSON字节(UTF-8), 不经过JSONObject
+     *
+     * @return
+     */
+    public byte[] toFlatJsonBytes() {
+        return LogRecordFlatWriter.toBytes(this);
     }
 }
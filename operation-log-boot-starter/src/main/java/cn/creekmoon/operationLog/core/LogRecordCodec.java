@@ -0,0 +1,413 @@
+package cn.creekmoon.operationLog.core;
+
+import com.alibaba.fastjson2.JSONB;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * 日志记录的紧凑二进制编码 用于预写日志和日志传输
+ * 格式为 [版本][字段存在位图][按固定顺序排列的字段], 不写入字段名称
+ * 整数使用变长编码(zigzag varint), 项目名称、操作类型、方法名、类名这些取值有限的字符串通过字典只写入编号
+ * 操作名称和标签可能由SpEL动态生成, 取值不受限, 直接写入而不进入字典
+ * 新版本只能在末尾追加字段, 旧版本解码时忽略不认识的字段
+ * 只编码LogRecord自身的字段, 子类中扩展的字段不会被编码
+ *
+ * @author creekmoon
+ */
+public class LogRecordCodec {
+
+    /*当前的编码版本 版本2起时间按纪元时间编码, 版本1按UTC编码的是LocalDateTime的字面值*/
+    public static final int VERSION = 2;
+
+    private static final int RECORD_ID = 0;
+    private static final int USER_ID = 1;
+    private static final int USER_NAME = 2;
+    private static final int USER_ACCOUNT_ID = 3;
+    private static final int USER_ACCOUNT_NAME = 4;
+    private static final int PROJECT_NAME = 5;
+    private static final int OPERATION_TYPE = 6;
+    private static final int OPERATION_NAME = 7;
+    private static final int METHOD_NAME = 8;
+    private static final int CLASS_FULL_NAME = 9;
+    private static final int PRE_VALUE = 10;
+    private static final int AFTER_VALUE = 11;
+    private static final int CHANGES = 12;
+    private static final int REQUEST_RESULT = 13;
+    private static final int REQUEST_PARAMS = 14;
+    private static final int OPERATION_TIME = 15;
+    private static final int TAGS = 16;
+    private static final int REMARKS = 17;
+    private static final int REPEAT_COUNT = 18;
+    private static final int LAST_OPERATION_TIME = 19;
+
+    /*字典 为null时字符串直接编码*/
+    private final LogStringDictionary dictionary;
+
+    /**
+     * 不使用字典的编码器 每条记录可以独立解码
+     */
+    public LogRecordCodec() {
+        this(null);
+    }
+
+    /**
+     * @param dictionary 字典 编码和解码必须使用相同内容的字典
+     */
+    public LogRecordCodec(LogStringDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * 编码
+     *
+     * @param logRecord 日志记录
+     * @return 字节
+     */
+    public byte[] encode(LogRecord logRecord) {
+        logRecord.getRecordId();
+        logRecord.completeDeferredCapture();
+        String requestParamsJson = logRecord.getRequestParamsJson();
+        long presence = 0;
+        presence |= bit(RECORD_ID, logRecord.recordId != 0);
+        presence |= bit(USER_ID, logRecord.userId != LogRecord.NO_ID);
+        presence |= bit(USER_NAME, logRecord.userName != null);
+        presence |= bit(USER_ACCOUNT_ID, logRecord.userAccountId != LogRecord.NO_ID);
+        presence |= bit(USER_ACCOUNT_NAME, logRecord.userAccountName != null);
+        presence |= bit(PROJECT_NAME, logRecord.projectName != null);
+        presence |= bit(OPERATION_TYPE, logRecord.operationType != null);
+        presence |= bit(OPERATION_NAME, logRecord.operationName != null);
+        presence |= bit(METHOD_NAME, logRecord.methodName != null);
+        presence |= bit(CLASS_FULL_NAME, logRecord.classFullName != null);
+        presence |= bit(PRE_VALUE, logRecord.preValue != null);
+        presence |= bit(AFTER_VALUE, logRecord.afterValue != null);
+        presence |= bit(CHANGES, logRecord.changes != null);
+        presence |= bit(REQUEST_RESULT, true);
+        presence |= bit(REQUEST_PARAMS, requestParamsJson != null);
+        presence |= bit(OPERATION_TIME, logRecord.operationTime != 0);
+        presence |= bit(TAGS, logRecord.tags != null);
+        presence |= bit(REMARKS, logRecord.remarks != null);
+        presence |= bit(REPEAT_COUNT, logRecord.repeatCount != 1);
+        presence |= bit(LAST_OPERATION_TIME, logRecord.lastOperationTime != 0);
+
+        Output output = new Output(256);
+        output.writeVarLong(VERSION);
+        output.writeVarLong(presence);
+        if (logRecord.recordId != 0) {
+            output.writeVarLong(logRecord.recordId);
+        }
+        if (logRecord.userId != LogRecord.NO_ID) {
+            output.writeZigZag(logRecord.userId);
+        }
+        if (logRecord.userName != null) {
+            output.writeString(logRecord.userName);
+        }
+        if (logRecord.userAccountId != LogRecord.NO_ID) {
+            output.writeZigZag(logRecord.userAccountId);
+        }
+        if (logRecord.userAccountName != null) {
+            output.writeString(logRecord.userAccountName);
+        }
+        if (logRecord.projectName != null) {
+            writeShared(output, logRecord.projectName);
+        }
+        if (logRecord.operationType != null) {
+            writeShared(output, logRecord.operationType);
+        }
+        if (logRecord.operationName != null) {
+            writeInline(output, logRecord.operationName);
+        }
+        if (logRecord.methodName != null) {
+            writeShared(output, logRecord.methodName);
+        }
+        if (logRecord.classFullName != null) {
+            writeShared(output, logRecord.classFullName);
+        }
+        if (logRecord.preValue != null) {
+            output.writeBytes(JSONB.toBytes(logRecord.preValue));
+        }
+        if (logRecord.afterValue != null) {
+            output.writeBytes(JSONB.toBytes(logRecord.afterValue));
+        }
+        if (logRecord.changes != null) {
+            output.writeBytes(JSONB.toBytes(logRecord.changes));
+        }
+        output.writeByte(logRecord.requestResult ? 1 : 0);
+        if (requestParamsJson != null) {
+            output.writeString(requestParamsJson);
+        }
+        if (logRecord.operationTime != 0) {
+            writeTime(output, logRecord.operationTime);
+        }
+        if (logRecord.tags != null) {
+            output.writeVarLong(logRecord.tags.size());
+            for (String tag : logRecord.tags) {
+                writeInline(output, tag);
+            }
+        }
+        if (logRecord.remarks != null) {
+            output.writeVarLong(logRecord.remarks.size());
+            for (String remark : logRecord.remarks) {
+                output.writeString(remark);
+            }
+        }
+        if (logRecord.repeatCount != 1) {
+            output.writeVarLong(logRecord.repeatCount);
+        }
+        if (logRecord.lastOperationTime != 0) {
+            writeTime(output, logRecord.lastOperationTime);
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * 解码
+     *
+     * @param bytes 字节
+     * @return 日志记录
+     */
+    public LogRecord decode(byte[] bytes) {
+        Input input = new Input(bytes);
+        long version = input.readVarLong();
+        if (version < 1) {
+            throw new IllegalArgumentException("[operation-log]不支持的日志编码版本: " + version);
+        }
+        long presence = input.readVarLong();
+        LogRecord logRecord = new LogRecord();
+        /*按编码时的值还原 没有编码的字段保持为空*/
+        logRecord.operationTime = 0;
+        if (has(presence, RECORD_ID)) {
+            logRecord.recordId = input.readVarLong();
+        }
+        if (has(presence, USER_ID)) {
+            logRecord.userId = input.readZigZag();
+        }
+        if (has(presence, USER_NAME)) {
+            logRecord.userName = input.readString();
+        }
+        if (has(presence, USER_ACCOUNT_ID)) {
+            logRecord.userAccountId = input.readZigZag();
+        }
+        if (has(presence, USER_ACCOUNT_NAME)) {
+            logRecord.userAccountName = input.readString();
+        }
+        if (has(presence, PROJECT_NAME)) {
+            logRecord.projectName = readShared(input);
+        }
+        if (has(presence, OPERATION_TYPE)) {
+            logRecord.operationType = readShared(input);
+        }
+        if (has(presence, OPERATION_NAME)) {
+            logRecord.operationName = readShared(input);
+        }
+        if (has(presence, METHOD_NAME)) {
+            logRecord.methodName = readShared(input);
+        }
+        if (has(presence, CLASS_FULL_NAME)) {
+            logRecord.classFullName = readShared(input);
+        }
+        if (has(presence, PRE_VALUE)) {
+            logRecord.preValue = JSONB.parse(input.readBytes());
+        }
+        if (has(presence, AFTER_VALUE)) {
+            logRecord.afterValue = JSONB.parse(input.readBytes());
+        }
+        if (has(presence, CHANGES)) {
+            logRecord.changes = JSONB.parseArray(input.readBytes(), FieldChange.class);
+        }
+        if (has(presence, REQUEST_RESULT)) {
+            logRecord.requestResult = input.readByte() != 0;
+        }
+        if (has(presence, REQUEST_PARAMS)) {
+            logRecord.requestParamsJson = input.readString();
+        }
+        if (has(presence, OPERATION_TIME)) {
+            logRecord.operationTime = readTime(input, version);
+        }
+        if (has(presence, TAGS)) {
+            int size = (int) input.readVarLong();
+            logRecord.tags = new LinkedHashSet<>(Math.max(16, size * 2));
+            for (int i = 0; i < size; i++) {
+                logRecord.tags.add(readShared(input));
+            }
+        }
+        if (has(presence, REMARKS)) {
+            int size = (int) input.readVarLong();
+            logRecord.remarks = new LinkedHashSet<>(Math.max(16, size * 2));
+            for (int i = 0; i < size; i++) {
+                logRecord.remarks.add(input.readString());
+            }
+        }
+        if (has(presence, REPEAT_COUNT)) {
+            logRecord.repeatCount = (int) input.readVarLong();
+        }
+        if (has(presence, LAST_OPERATION_TIME)) {
+            logRecord.lastOperationTime = readTime(input, version);
+        }
+        /*更高版本追加的字段 当前版本忽略*/
+        return logRecord;
+    }
+
+    /**
+     * 写入可能重复的字符串 字典中的字符串只写入编号
+     * 标记的最低位为1表示字典编号, 为0表示后面跟随的字符串长度
+     */
+    private void writeShared(Output output, String value) {
+        int id = dictionary == null ? -1 : dictionary.idOf(value);
+        if (id >= 0) {
+            output.writeVarLong(((long) id << 1) | 1);
+            return;
+        }
+        writeInline(output, value);
+    }
+
+    /**
+     * 直接写入字符串 格式与writeShared中不使用字典的情况相同, 由readShared读取
+     * 因此旧数据中通过字典编码的操作名称和标签仍然可以解码
+     */
+    private static void writeInline(Output output, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeVarLong((long) bytes.length << 1);
+        output.writeRaw(bytes);
+    }
+
+    private String readShared(Input input) {
+        long mark = input.readVarLong();
+        if ((mark & 1) == 0) {
+            return input.readUtf8((int) (mark >>> 1));
+        }
+        int id = (int) (mark >>> 1);
+        String value = dictionary == null ? null : dictionary.valueOf(id);
+        if (value == null) {
+            /*字典条目丢失(例如断电时字典尚未刷盘) 保留记录的其余内容*/
+            return "<unknown:" + id + ">";
+        }
+        return value;
+    }
+
+    private static void writeTime(Output output, long epochNanos) {
+        output.writeZigZag(Math.floorDiv(epochNanos, 1_000_000_000L));
+        output.writeVarLong(Math.floorMod(epochNanos, 1_000_000_000L));
+    }
+
+    private static long readTime(Input input, long version) {
+        long epochSecond = input.readZigZag();
+        int nano = (int) input.readVarLong();
+        if (version < 2) {
+            /*版本1编码的是本地时间的字面值 按LocalDateTime所在的时区还原*/
+            return LogRecord.toEpochNanos(LocalDateTime.ofEpochSecond(epochSecond, nano, ZoneOffset.UTC));
+        }
+        return epochSecond * 1_000_000_000L + nano;
+    }
+
+    private static long bit(int field, boolean present) {
+        return present ? 1L << field : 0;
+    }
+
+    private static boolean has(long presence, int field) {
+        return (presence & (1L << field)) != 0;
+    }
+
+    private static final class Output {
+        private byte[] buffer;
+        private int position;
+
+        Output(int initialCapacity) {
+            this.buffer = new byte[initialCapacity];
+        }
+
+        private void ensure(int additional) {
+            if (position + additional > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + additional));
+            }
+        }
+
+        void writeByte(int value) {
+            ensure(1);
+            buffer[position++] = (byte) value;
+        }
+
+        void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        void writeZigZag(long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        void writeRaw(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, position, bytes.length);
+            position += bytes.length;
+        }
+
+        void writeBytes(byte[] bytes) {
+            writeVarLong(bytes.length);
+            writeRaw(bytes);
+        }
+
+        void writeString(String value) {
+            writeBytes(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, position);
+        }
+    }
+
+    private static final class Input {
+        private final byte[] buffer;
+        private int position;
+
+        Input(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        int readByte() {
+            return buffer[position++];
+        }
+
+        long readVarLong() {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = buffer[position++];
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new IllegalArgumentException("[operation-log]日志编码中的变长整数格式错误!");
+        }
+
+        long readZigZag() {
+            long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        byte[] readBytes() {
+            int length = (int) readVarLong();
+            byte[] bytes = Arrays.copyOfRange(buffer, position, position + length);
+            position += length;
+            return bytes;
+        }
+
+        String readUtf8(int length) {
+            String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        String readString() {
+            return readUtf8((int) readVarLong());
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package cn.creekmoon.operationLog.core;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONObject;
+import com.alibaba.fastjson2.JSONWriter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static cn.hutool.core.date.DatePattern.UTC_MS_PATTERN;
+
+/**
+ * 日志记录的打平输出 主要是为了方便存储到ES中
+ * 每个日志类型只解析一次字段, 之后通过缓存的访问器读取, 可以直接写入JSONWriter的字节缓冲区
+ * 第一层字段的值全部输出为字符串, 时间输出为UTC时间
+ *
+ * @author creekmoon
+ */
+@Slf4j
+public class LogRecordFlatWriter {
+
+    private static final DateTimeFormatter UTC_FORMATTER = DateTimeFormatter.ofPattern(UTC_MS_PATTERN).withZone(ZoneOffset.UTC);
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, LogRecord.class);
+
+    /*LocalDateTime字段所在的时区 默认为系统时区*/
+    private static volatile ZoneId zoneId = ZoneId.systemDefault();
+
+    /*每个日志类型的字段访问器*/
+    private static final ClassValue<FlatField[]> FIELDS = new ClassValue<>() {
+        @Override
+        protected FlatField[] computeValue(Class<?> type) {
+            List<FlatField> fields = new ArrayList<>();
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+                for (Field field : current.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    /*参数使用已经序列化的JSON形式输出 不需要单独输出*/
+                    if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()
+                            || (current == LogRecord.class && "requestParamsJson".equals(field.getName()))) {
+                        continue;
+                    }
+                    try {
+                        field.setAccessible(true);
+                        MethodHandle getter = lookup.unreflectGetter(field).asType(GETTER_TYPE);
+                        fields.add(new FlatField(field.getName(), FieldKind.of(current, field), getter));
+                    } catch (Exception e) {
+                        log.error("[operation-log]日志字段无法读取, 打平输出时将被忽略! field={}", field, e);
+                    }
+                }
+            }
+            return fields.toArray(new FlatField[0]);
+        }
+    };
+
+    private LogRecordFlatWriter() {
+    }
+
+    /**
+     * 设置LocalDateTime字段所在的时区 应在启动时调用
+     *
+     * @param zone 时区, 为空时使用系统时区
+     */
+    public static void useZone(ZoneIdEnum zone) {
+        zoneId = zone == null ? ZoneId.systemDefault() : ZoneId.of(zone.getZoneIdName());
+    }
+
+    static ZoneId zone() {
+        return zoneId;
+    }
+
+    /**
+     * 转换为打平的JSONObject
+     *
+     * @param logRecord 日志记录
+     * @return JSONObject
+     */
+    public static JSONObject toJSONObject(LogRecord logRecord) {
+        FlatField[] fields = prepare(logRecord);
+        JSONObject result = new JSONObject(fields.length);
+        for (FlatField field : fields) {
+            result.put(field.name, valueOf(field, logRecord));
+        }
+        return result;
+    }
+
+    /**
+     * 转换为打平的JSON字节 UTF-8编码
+     *
+     * @param logRecord 日志记录
+     * @return JSON字节
+     */
+    public static byte[] toBytes(LogRecord logRecord) {
+        try (JSONWriter writer = JSONWriter.ofUTF8()) {
+            write(logRecord, writer);
+            return writer.getBytes();
+        }
+    }
+
+    /**
+     * 把打平的JSON对象写入输出 用于把多条日志写入同一个缓冲区
+     *
+     * @param logRecord 日志记录
+     * @param writer    输出
+     */
+    public static void write(LogRecord logRecord, JSONWriter writer) {
+        FlatField[] fields = prepare(logRecord);
+        writer.startObject();
+        for (FlatField field : fields) {
+            writer.writeName(field.name);
+            writer.writeColon();
+            String value = valueOf(field, logRecord);
+            if (value == null) {
+                writer.writeNull();
+            } else {
+                writer.writeString(value);
+            }
+        }
+        writer.endObject();
+    }
+
+    private static FlatField[] prepare(LogRecord logRecord) {
+        /*存储时需要记录标识 确保已经生成*/
+        logRecord.getRecordId();
+        logRecord.completeDeferredCapture();
+        return FIELDS.get(logRecord.getClass());
+    }
+
+    private static String valueOf(FlatField field, LogRecord logRecord) {
+        try {
+            if (field.kind == FieldKind.REQUEST_PARAMS) {
+                return logRecord.getRequestParamsJson();
+            }
+            Object value = (Object) field.getter.invokeExact(logRecord);
+            if (value == null) {
+                /*标签和备注尚未创建时 与空集合的输出保持一致*/
+                return field.kind == FieldKind.COLLECTION ? "[]" : null;
+            }
+            return switch (field.kind) {
+                case STRING -> (String) value;
+                case LOCAL_DATE_TIME -> UTC_FORMATTER.format(((LocalDateTime) value).atZone(zoneId));
+                case EPOCH_NANOS -> (long) value == 0 ? null : UTC_FORMATTER.format(LogRecord.toInstant((long) value));
+                case OPTIONAL_ID -> (long) value == LogRecord.NO_ID ? null : value.toString();
+                case SCALAR -> value.toString();
+                default -> valueOf(value);
+            };
+        } catch (Throwable e) {
+            log.error("[operation-log]日志打平输出失败! field={}", field.name, e);
+            return null;
+        }
+    }
+
+    /**
+     * 声明类型不确定的字段 按运行时的值输出
+     */
+    private static String valueOf(Object value) {
+        return switch (value) {
+            case String x -> x;
+            case LocalDateTime x -> UTC_FORMATTER.format(x.atZone(zoneId));
+            case Date x -> UTC_FORMATTER.format(x.toInstant());
+            case Number x -> x.toString();
+            case Boolean x -> x.toString();
+            default -> JSON.toJSONString(value);
+        };
+    }
+
+    /**
+     * 字段的输出方式 按声明类型预先确定
+     */
+    private enum FieldKind {
+        REQUEST_PARAMS,
+        STRING,
+        LOCAL_DATE_TIME,
+        /*LogRecord中以纪元纳秒保存的时间 0表示没有*/
+        EPOCH_NANOS,
+        /*LogRecord中以基本类型保存的id NO_ID表示没有*/
+        OPTIONAL_ID,
+        /*LogRecord中延迟创建的标签和备注*/
+        COLLECTION,
+        /*数字、布尔 输出为toString*/
+        SCALAR,
+        /*其他类型按运行时的值输出*/
+        OTHER;
+
+        static FieldKind of(Class<?> declaringClass, Field field) {
+            Class<?> type = field.getType();
+            if (declaringClass == LogRecord.class) {
+                switch (field.getName()) {
+                    case "requestParams":
+                        return REQUEST_PARAMS;
+                    case "operationTime", "lastOperationTime":
+                        return EPOCH_NANOS;
+                    case "userId", "userAccountId":
+                        return OPTIONAL_ID;
+                    case "tags", "remarks":
+                        return COLLECTION;
+                    default:
+                        break;
+                }
+            }
+            if (type == String.class) {
+                return STRING;
+            }
+            if (type == LocalDateTime.class) {
+                return LOCAL_DATE_TIME;
+            }
+            if (type.isPrimitive() || type == Boolean.class || Number.class.isAssignableFrom(type) && type.getName().startsWith("java.")) {
+                return SCALAR;
+            }
+            return OTHER;
+        }
+    }
+
+    private record FlatField(String name, FieldKind kind, MethodHandle getter) {
+    }
+}
@@ -0,0 +1,44 @@
+package cn.creekmoon.operationLog.core;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 日志记录标识生成器
+ * 按时间有序的64位标识: 41位毫秒时间戳 + 10位进程节点号 + 12位序列号
+ * 只依赖一次CAS, 不需要加锁, 也不会产生UUID那样的字符串对象
+ *
+ * @author creekmoon
+ */
+public final class LogRecordIdGenerator {
+
+    /*起始时间 2024-01-01T00:00:00Z*/
+    private static final long EPOCH = 1704067200000L;
+    private static final int SEQUENCE_BITS = 12;
+    private static final int NODE_BITS = 10;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    /*进程节点号 每个进程启动时随机生成*/
+    private static final long NODE = ThreadLocalRandom.current().nextLong(1L << NODE_BITS);
+    /*上一次分配的 时间戳+序列号*/
+    private static final AtomicLong LAST = new AtomicLong();
+
+    private LogRecordIdGenerator() {
+    }
+
+    /**
+     * 生成下一个标识
+     * 同一毫秒内序列号用尽时借用下一毫秒, 保证单调递增
+     *
+     * @return 标识
+     */
+    public static long nextId() {
+        for (; ; ) {
+            long last = LAST.get();
+            long now = System.currentTimeMillis() - EPOCH;
+            long next = now > (last >>> SEQUENCE_BITS) ? now << SEQUENCE_BITS : last + 1;
+            if (LAST.compareAndSet(last, next)) {
+                return ((next >>> SEQUENCE_BITS) << (NODE_BITS + SEQUENCE_BITS)) | (NODE << SEQUENCE_BITS) | (next & SEQUENCE_MASK);
+            }
+        }
+    }
+}
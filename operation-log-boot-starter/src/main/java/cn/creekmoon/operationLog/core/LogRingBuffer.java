@@ -0,0 +1,199 @@
+package cn.creekmoon.operationLog.core;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 预分配的有界环形缓冲区
+ * 槽位数组在创建时一次性分配, 容量向上取整为2的幂, 通过位运算定位槽位
+ * 多个请求线程写入, 分发线程按批次读取
+ *
+ * @author creekmoon
+ */
+public class LogRingBuffer<E> {
+
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    /*槽位 创建后不再扩容*/
+    private final Object[] slots;
+    private final int mask;
+    /*下一个读取位置*/
+    private long head;
+    /*下一个写入位置*/
+    private long tail;
+    /*消费者等待的批次大小 达到后唤醒消费者*/
+    private int readyThreshold = 1;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Condition batchReady = lock.newCondition();
+
+    public LogRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("[operation-log]缓冲区容量必须大于0!");
+        }
+        int size = capacity >= MAXIMUM_CAPACITY ? MAXIMUM_CAPACITY : Integer.highestOneBit(capacity - 1) << 1;
+        this.slots = new Object[Math.max(size, 1)];
+        this.mask = this.slots.length - 1;
+    }
+
+    /**
+     * 尝试写入 缓冲区已满时立即返回
+     *
+     * @param element 元素
+     * @return 是否写入成功
+     */
+    public boolean offer(E element) {
+        lock.lock();
+        try {
+            if (isFull()) {
+                return false;
+            }
+            enqueue(element);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 尝试写入 缓冲区已满时最多等待指定时间
+     *
+     * @param element 元素
+     * @param timeout 等待时间
+     * @param unit    时间单位
+     * @return 是否写入成功
+     * @throws InterruptedException 等待时被中断
+     */
+    public boolean offer(E element, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (isFull()) {
+                if (nanos <= 0L) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            enqueue(element);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 写入元素 缓冲区已满时覆盖最旧的元素
+     *
+     * @param element 元素
+     * @return 被覆盖的元素, 没有覆盖时返回null
+     */
+    public E offerOverwrite(E element) {
+        lock.lock();
+        try {
+            E evicted = null;
+            if (isFull()) {
+                evicted = dequeue();
+            }
+            enqueue(element);
+            return evicted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 等待直到缓冲区中的元素达到批次大小, 或者超过等待时间
+     *
+     * @param batchSize 批次大小
+     * @param timeout   最长等待时间
+     * @param unit      时间单位
+     * @return 缓冲区中是否有元素
+     * @throws InterruptedException 等待时被中断
+     */
+    public boolean awaitBatch(int batchSize, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            readyThreshold = Math.max(1, Math.min(batchSize, slots.length));
+            while (tail - head < readyThreshold && nanos > 0L) {
+                nanos = batchReady.awaitNanos(nanos);
+            }
+            return tail != head;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 取出至多maxElements个元素
+     *
+     * @param target      存放取出元素的集合
+     * @param maxElements 最多取出的数量
+     * @return 实际取出的数量
+     */
+    public int drainTo(Collection<? super E> target, int maxElements) {
+        lock.lock();
+        try {
+            int count = (int) Math.min(tail - head, maxElements);
+            for (int i = 0; i < count; i++) {
+                target.add(dequeue());
+            }
+            if (count > 0) {
+                notFull.signalAll();
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 唤醒正在等待批次的消费者
+     */
+    public void wakeUp() {
+        lock.lock();
+        try {
+            batchReady.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return (int) (tail - head);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    private boolean isFull() {
+        return tail - head == slots.length;
+    }
+
+    private void enqueue(E element) {
+        slots[(int) (tail & mask)] = element;
+        tail++;
+        if (tail - head >= readyThreshold) {
+            batchReady.signal();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private E dequeue() {
+        int index = (int) (head & mask);
+        E element = (E) slots[index];
+        /*及时释放引用*/
+        slots[index] = null;
+        head++;
+        return element;
+    }
+}
@@ -0,0 +1,145 @@
+package cn.creekmoon.operationLog.core;
+
+import cn.creekmoon.operationLog.config.OperationLogConfig;
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 日志采样与限流
+ * 在方法执行之前决定本次调用是否记录, 每个方法的配置只解析一次
+ * 优先级: operation-log.samplings.<方法全称> > 注解 > operation-log.sampling
+ *
+ * @author creekmoon
+ */
+public class LogSampler {
+
+    /**
+     * 采样结果
+     */
+    public enum Decision {
+        /*记录*/
+        RECORD,
+        /*只在失败时记录*/
+        FAILURE_ONLY,
+        /*不记录*/
+        SKIP,
+    }
+
+    private final OperationLogConfig.Sampling defaults;
+    private final Map<String, OperationLogConfig.Sampling> overrides;
+    private final Map<Method, MethodSampler> samplers = new ConcurrentHashMap<>();
+    /*未被采样的调用数量*/
+    private final LongAdder sampledOutCount = new LongAdder();
+    /*被限流的调用数量*/
+    private final LongAdder rateLimitedCount = new LongAdder();
+
+    public LogSampler(OperationLogConfig.Sampling defaults, Map<String, OperationLogConfig.Sampling> overrides) {
+        this.defaults = defaults;
+        this.overrides = overrides;
+    }
+
+    /**
+     * 决定本次调用是否记录
+     *
+     * @param metadata  注解所在方法的元数据
+     * @param logRecord 日志记录 已经过OperationLogRecordInitializer初始化, 按用户限流时读取用户信息
+     * @return 采样结果
+     */
+    public Decision decide(OperationLogMetadata metadata, LogRecord logRecord) {
+        MethodSampler sampler = samplers.computeIfAbsent(metadata.getMethod(), x -> new MethodSampler(resolve(metadata)));
+        Decision rejected = sampler.alwaysOnFailure ? Decision.FAILURE_ONLY : Decision.SKIP;
+        if (sampler.rate < 1 && ThreadLocalRandom.current().nextDouble() >= sampler.rate) {
+            sampledOutCount.increment();
+            return rejected;
+        }
+        if (sampler.rateLimit > 0 && !sampler.tryAcquire(logRecord)) {
+            rateLimitedCount.increment();
+            return rejected;
+        }
+        return Decision.RECORD;
+    }
+
+    private OperationLogConfig.Sampling resolve(OperationLogMetadata metadata) {
+        OperationLogConfig.Sampling annotation = new OperationLogConfig.Sampling();
+        annotation.setRate(metadata.getSampleRate() >= 0 ? metadata.getSampleRate() : null);
+        annotation.setMode(metadata.getSampleMode());
+        annotation.setRateLimit(metadata.getRateLimit() >= 0 ? metadata.getRateLimit() : null);
+        annotation.setRateLimitScope(metadata.getRateLimitScope());
+        OperationLogConfig.Sampling merged = annotation.withDefaults(defaults);
+        OperationLogConfig.Sampling override = overrides.get(metadata.getClassFullName());
+        return override == null ? merged : override.withDefaults(merged);
+    }
+
+    public long getSampledOutCount() {
+        return sampledOutCount.sum();
+    }
+
+    public long getRateLimitedCount() {
+        return rateLimitedCount.sum();
+    }
+
+
+    /**
+     * 单个方法的采样器
+     */
+    private static class MethodSampler {
+        private final double rate;
+        private final boolean alwaysOnFailure;
+        private final double rateLimit;
+        /*按方法限流时使用*/
+        private final TokenBucket methodBucket;
+        /*按用户限流时使用 只保留最近活跃的用户*/
+        private final LRUCache<Object, TokenBucket> userBuckets;
+
+        MethodSampler(OperationLogConfig.Sampling sampling) {
+            this.rate = sampling.getRate();
+            this.alwaysOnFailure = sampling.getMode() == SampleMode.ALWAYS_ON_FAILURE;
+            this.rateLimit = sampling.getRateLimit();
+            boolean byUser = sampling.getRateLimitScope() == RateLimitScope.USER;
+            this.methodBucket = rateLimit > 0 && !byUser ? new TokenBucket(rateLimit) : null;
+            this.userBuckets = rateLimit > 0 && byUser ? CacheUtil.newLRUCache(sampling.getMaxUserBuckets()) : null;
+        }
+
+        boolean tryAcquire(LogRecord logRecord) {
+            if (methodBucket != null) {
+                return methodBucket.tryAcquire();
+            }
+            Object user = logRecord.userId != LogRecord.NO_ID ? (Object) logRecord.userId : logRecord.userName;
+            return userBuckets.get(user == null ? "" : user, true, () -> new TokenBucket(rateLimit)).tryAcquire();
+        }
+    }
+
+
+    /**
+     * 令牌桶 最多积攒一秒的令牌
+     */
+    private static class TokenBucket {
+        private final double permitsPerNano;
+        private final double capacity;
+        private double tokens;
+        private long lastNanos = System.nanoTime();
+
+        TokenBucket(double permitsPerSecond) {
+            this.permitsPerNano = permitsPerSecond / 1_000_000_000d;
+            this.capacity = Math.max(1, permitsPerSecond);
+            this.tokens = capacity;
+        }
+
+        synchronized boolean tryAcquire() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastNanos) * permitsPerNano);
+            lastNanos = now;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+    }
+}
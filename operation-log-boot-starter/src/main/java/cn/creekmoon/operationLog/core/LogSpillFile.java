@@ -0,0 +1,178 @@
+package cn.creekmoon.operationLog.core;
+
+import com.alibaba.fastjson2.JSON;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * 缓冲区溢出时的本地磁盘暂存
+ * 请求线程只负责把日志以JSON行的形式追加到当前文件
+ * 分发线程空闲时把当前文件转为待重放文件, 再读取出来交给日志处理器
+ * 上一次进程遗留的文件会在启动后重放
+ *
+ * @author creekmoon
+ */
+@Slf4j
+public class LogSpillFile {
+
+    private static final String SPILL_SUFFIX = ".spill";
+    private static final String REPLAY_SUFFIX = ".replay";
+
+    private final Path directory;
+    private final ReentrantLock lock = new ReentrantLock();
+    /*当前追加的文件*/
+    private Path activeFile;
+    private BufferedWriter writer;
+    /*当前文件中尚未重放的日志数量*/
+    private final AtomicLong pendingCount = new AtomicLong();
+    /*是否存在待重放的文件*/
+    private volatile boolean hasReplayFile;
+
+    public LogSpillFile(Path directory) {
+        this.directory = directory;
+        /*上一次进程遗留的暂存文件 全部转为待重放文件*/
+        try {
+            if (Files.isDirectory(directory)) {
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SPILL_SUFFIX)) {
+                    for (Path file : stream) {
+                        Files.move(file, toReplayFile(file));
+                    }
+                }
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + REPLAY_SUFFIX)) {
+                    hasReplayFile = stream.iterator().hasNext();
+                }
+            }
+        } catch (IOException e) {
+            log.error("[operation-log]读取暂存目录失败! 遗留的日志不会被重放! directory={}", directory, e);
+        }
+    }
+
+    /**
+     * 追加一条日志
+     *
+     * @param logRecord 日志记录
+     * @return 是否写入成功
+     */
+    public boolean append(LogRecord logRecord) {
+        String line = JSON.toJSONString(logRecord);
+        lock.lock();
+        try {
+            if (writer == null) {
+                Files.createDirectories(directory);
+                activeFile = directory.resolve("operation-log-" + System.currentTimeMillis() + "-" + System.nanoTime() + SPILL_SUFFIX);
+                writer = Files.newBufferedWriter(activeFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            writer.write(line);
+            writer.newLine();
+            writer.flush();
+            pendingCount.incrementAndGet();
+            return true;
+        } catch (IOException e) {
+            log.error("[operation-log]日志写入暂存文件失败!", e);
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 是否存在需要重放的日志
+     *
+     * @return 是否存在
+     */
+    public boolean hasPending() {
+        return hasReplayFile || pendingCount.get() > 0;
+    }
+
+    /**
+     * 重放所有暂存的日志 只应由分发线程调用
+     *
+     * @param batchSize 每批次的数量
+     * @param consumer  批次消费者
+     * @return 重放的日志数量
+     */
+    public long replay(int batchSize, Consumer<List<LogRecord>> consumer) {
+        rotate();
+        long replayed = 0;
+        List<Path> replayFiles = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + REPLAY_SUFFIX)) {
+            stream.forEach(replayFiles::add);
+        } catch (IOException e) {
+            log.error("[operation-log]读取暂存目录失败! directory={}", directory, e);
+            return replayed;
+        }
+        replayFiles.sort(null);
+        for (Path file : replayFiles) {
+            List<LogRecord> batch = new ArrayList<>(batchSize);
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    try {
+                        batch.add(JSON.parseObject(line, LogRecord.class));
+                    } catch (Exception e) {
+                        log.error("[operation-log]暂存文件中存在无法解析的日志, 已跳过! file={}", file, e);
+                        continue;
+                    }
+                    if (batch.size() >= batchSize) {
+                        consumer.accept(batch);
+                        replayed += batch.size();
+                        batch = new ArrayList<>(batchSize);
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    consumer.accept(batch);
+                    replayed += batch.size();
+                }
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                log.error("[operation-log]重放暂存文件失败! file={}", file, e);
+                return replayed;
+            }
+        }
+        hasReplayFile = false;
+        return replayed;
+    }
+
+    /**
+     * 关闭当前文件 转为待重放文件
+     */
+    private void rotate() {
+        lock.lock();
+        try {
+            if (writer == null) {
+                return;
+            }
+            writer.close();
+            Files.move(activeFile, toReplayFile(activeFile));
+            hasReplayFile = true;
+        } catch (IOException e) {
+            log.error("[operation-log]切换暂存文件失败! file={}", activeFile, e);
+        } finally {
+            writer = null;
+            activeFile = null;
+            pendingCount.set(0);
+            lock.unlock();
+        }
+    }
+
+    private static Path toReplayFile(Path spillFile) {
+        String fileName = spillFile.getFileName().toString();
+        return spillFile.resolveSibling(fileName.substring(0, fileName.length() - SPILL_SUFFIX.length()) + REPLAY_SUFFIX);
+    }
+}
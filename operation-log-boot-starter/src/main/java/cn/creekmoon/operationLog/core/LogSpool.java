@@ -0,0 +1,460 @@
+package cn.creekmoon.operationLog.core;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * 本地预写日志 日志先追加到内存映射的段文件中, 再由各处理器按自己的进度读取
+ * 每条记录的格式为 [长度][CRC32C][内容], 长度为0表示尚未写入, 长度为-1表示该段已写满
+ * 内容使用LogRecordCodec编码, 重复的字符串保存在同一目录下的持久化字典中
+ * 刷盘由后台线程定时合并执行(group commit), 各处理器的读取进度(checkpoint)同时落盘,
+ * 所有处理器都已确认的段文件会被删除, 进程重启后从checkpoint开始重放尚未确认的日志
+ *
+ * @author creekmoon
+ */
+@Slf4j
+public class LogSpool {
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT_PREFIX = "checkpoint-";
+    private static final String CHECKPOINT_SUFFIX = ".offset";
+    private static final String DICTIONARY_FILE = "dictionary.dat";
+    /*每条记录的头部长度 长度 + CRC*/
+    private static final int HEADER_SIZE = 8;
+    /*段已写满的标记*/
+    private static final int SEALED_MARK = -1;
+
+    private final Path directory;
+    private final int segmentSize;
+    /*重复字符串的字典 与段文件一起持久化*/
+    private final LogStringDictionary dictionary;
+    private final LogRecordCodec codec;
+    /*所有未删除的段 按起始偏移量排序*/
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    /*各处理器的读取进度*/
+    private final Map<String, Cursor> cursors = new ConcurrentHashMap<>();
+    private final ReentrantLock appendLock = new ReentrantLock();
+    /*当前追加的段*/
+    private volatile Segment activeSegment;
+    private final Thread syncThread;
+    private volatile boolean running = true;
+
+    /**
+     * 打开预写日志 上一次进程遗留的段文件会被保留, 从中恢复写入位置
+     *
+     * @param directory         目录
+     * @param segmentSize       单个段文件的大小
+     * @param syncIntervalNanos 刷盘间隔
+     * @throws IOException 目录或文件无法访问
+     */
+    public LogSpool(Path directory, int segmentSize, long syncIntervalNanos) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+        this.dictionary = new LogStringDictionary(directory.resolve(DICTIONARY_FILE));
+        this.codec = new LogRecordCodec(dictionary);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : stream) {
+                String fileName = file.getFileName().toString();
+                long baseOffset = Long.parseLong(fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_SUFFIX.length()));
+                segments.put(baseOffset, Segment.open(file, baseOffset, segmentSize));
+            }
+        }
+        if (segments.isEmpty()) {
+            activeSegment = createSegment(0);
+        } else {
+            /*只有最后一个段可以继续写入, 之前的段视为已写满*/
+            for (Segment segment : segments.values()) {
+                segment.sealed = segment != segments.lastEntry().getValue();
+            }
+            activeSegment = segments.lastEntry().getValue();
+            activeSegment.writePosition = activeSegment.recover();
+            if (segments.size() > 1 || activeSegment.writePosition > 0) {
+                log.info("[operation-log]发现上一次进程的预写日志, 未确认的部分将在处理器启动后重放! directory={}", directory);
+            }
+        }
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("operation-logs-spool-sync-");
+        threadFactory.setDaemon(true);
+        this.syncThread = threadFactory.newThread(() -> syncLoop(syncIntervalNanos));
+        this.syncThread.start();
+    }
+
+    /**
+     * 编码一条日志
+     *
+     * @param logRecord 日志记录
+     * @return 字节
+     */
+    public byte[] encode(LogRecord logRecord) {
+        return codec.encode(logRecord);
+    }
+
+    /**
+     * 解码一条日志
+     *
+     * @param bytes 字节
+     * @return 日志记录
+     */
+    public LogRecord decode(byte[] bytes) {
+        return codec.decode(bytes);
+    }
+
+    /**
+     * 追加一条记录 由请求线程调用, 只写入内存映射区域, 由后台线程合并刷盘
+     *
+     * @param payload 内容
+     * @return 是否写入成功, 记录超过段大小或者磁盘异常时返回false
+     */
+    public boolean append(byte[] payload) {
+        int frameSize = HEADER_SIZE + payload.length;
+        /*需要为写满标记保留位置*/
+        if (frameSize + 4 > segmentSize) {
+            return false;
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(payload);
+        int checksum = (int) crc.getValue();
+        appendLock.lock();
+        try {
+            Segment segment = activeSegment;
+            int position = segment.writePosition;
+            if (position + frameSize + 4 > segmentSize) {
+                segment.buffer.putInt(position, SEALED_MARK);
+                segment.sealed = true;
+                segment.dirty = true;
+                segment = createSegment(segment.baseOffset + segmentSize);
+                activeSegment = segment;
+                position = 0;
+            }
+            segment.buffer.putInt(position + 4, checksum);
+            segment.buffer.put(position + HEADER_SIZE, payload);
+            /*长度最后写入 读取方以长度判断记录是否完整*/
+            segment.buffer.putInt(position, payload.length);
+            segment.writePosition = position + frameSize;
+            segment.dirty = true;
+            return true;
+        } catch (IOException e) {
+            log.error("[operation-log]写入预写日志失败!", e);
+            return false;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * 打开一个读取进度 从上一次确认的位置开始读取
+     *
+     * @param name 名称 通常为处理器的Bean名称
+     * @return 读取进度
+     */
+    public Cursor openCursor(String name) {
+        return cursors.computeIfAbsent(name, x -> {
+            long offset = readCheckpoint(x);
+            /*新的处理器从保留的最早位置开始*/
+            long firstOffset = segments.isEmpty() ? 0 : segments.firstKey();
+            Cursor cursor = new Cursor(x, Math.max(offset, firstOffset));
+            cursor.persistedOffset = offset;
+            return cursor;
+        });
+    }
+
+    /**
+     * 关闭一个读取进度 对应的处理器不再存在时调用
+     *
+     * @param cursor 读取进度
+     */
+    public void closeCursor(Cursor cursor) {
+        cursors.remove(cursor.name, cursor);
+    }
+
+    private Segment createSegment(long baseOffset) throws IOException {
+        Path file = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, baseOffset, SEGMENT_SUFFIX));
+        Segment segment = Segment.open(file, baseOffset, segmentSize);
+        segments.put(baseOffset, segment);
+        return segment;
+    }
+
+    /**
+     * 后台刷盘 合并一个间隔内的所有写入
+     */
+    private void syncLoop(long syncIntervalNanos) {
+        while (running) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(syncIntervalNanos);
+            } catch (InterruptedException e) {
+                /*关闭时被唤醒 最后执行一次刷盘*/
+            }
+            sync();
+        }
+    }
+
+    /**
+     * 刷盘 持久化所有读取进度 并删除已被全部确认的段
+     */
+    private synchronized void sync() {
+        /*字典必须先于引用它的记录落盘*/
+        dictionary.force();
+        for (Segment segment : segments.values()) {
+            if (segment.dirty) {
+                segment.dirty = false;
+                segment.buffer.force();
+            }
+        }
+        long minOffset = Long.MAX_VALUE;
+        for (Cursor cursor : cursors.values()) {
+            long committed = cursor.committedOffset;
+            if (committed != cursor.persistedOffset) {
+                writeCheckpoint(cursor.name, committed);
+                cursor.persistedOffset = committed;
+            }
+            minOffset = Math.min(minOffset, committed);
+        }
+        if (cursors.isEmpty()) {
+            return;
+        }
+        /*已写满 且所有处理器都已越过的段可以删除*/
+        for (Segment segment : segments.values()) {
+            Long nextBaseOffset = segments.higherKey(segment.baseOffset);
+            if (!segment.sealed || nextBaseOffset == null || nextBaseOffset > minOffset) {
+                break;
+            }
+            segments.remove(segment.baseOffset);
+            segment.delete();
+        }
+    }
+
+    private long readCheckpoint(String name) {
+        Path file = directory.resolve(CHECKPOINT_PREFIX + name + CHECKPOINT_SUFFIX);
+        try {
+            if (Files.exists(file)) {
+                return Long.parseLong(Files.readString(file).trim());
+            }
+        } catch (Exception e) {
+            log.error("[operation-log]读取预写日志进度失败, 将从头重放! file={}", file, e);
+        }
+        return 0;
+    }
+
+    private void writeCheckpoint(String name, long offset) {
+        Path file = directory.resolve(CHECKPOINT_PREFIX + name + CHECKPOINT_SUFFIX);
+        Path temp = directory.resolve(CHECKPOINT_PREFIX + name + CHECKPOINT_SUFFIX + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(ByteBuffer.wrap(Long.toString(offset).getBytes(StandardCharsets.US_ASCII)));
+            channel.force(true);
+        } catch (IOException e) {
+            log.error("[operation-log]保存预写日志进度失败! file={}", file, e);
+            return;
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("[operation-log]保存预写日志进度失败! file={}", file, e);
+        }
+    }
+
+    /**
+     * 关闭 执行最后一次刷盘
+     */
+    public void close() {
+        running = false;
+        syncThread.interrupt();
+        try {
+            syncThread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sync();
+        for (Segment segment : segments.values()) {
+            segment.close();
+        }
+        dictionary.close();
+    }
+
+
+    /**
+     * 一个处理器的读取进度
+     * 读取位置只由一个线程推进, 确认位置可以由任意线程设置
+     */
+    public class Cursor {
+        private final String name;
+        /*下一条要读取的记录位置*/
+        private long readOffset;
+        /*已确认处理完毕的位置 之前的记录不会再重放*/
+        private volatile long committedOffset;
+        /*已落盘的确认位置*/
+        private long persistedOffset;
+
+        private Cursor(String name, long offset) {
+            this.name = name;
+            this.readOffset = offset;
+            this.committedOffset = offset;
+        }
+
+        /**
+         * 读取记录
+         *
+         * @param maxCount 最多读取的数量
+         * @param output   输出
+         * @return 读取的数量
+         */
+        public int read(int maxCount, List<byte[]> output) {
+            int count = 0;
+            while (count < maxCount) {
+                Map.Entry<Long, Segment> entry = segments.floorEntry(readOffset);
+                if (entry == null) {
+                    /*所在的段已被删除 跳到最早的段*/
+                    Long firstOffset = segments.isEmpty() ? null : segments.firstKey();
+                    if (firstOffset == null || firstOffset <= readOffset) {
+                        return count;
+                    }
+                    readOffset = firstOffset;
+                    continue;
+                }
+                Segment segment = entry.getValue();
+                int position = (int) (readOffset - segment.baseOffset);
+                /*活动段只读取已经完整写入的部分*/
+                int limit = segment.sealed ? segmentSize : segment.writePosition;
+                if (position + 4 > limit) {
+                    if (!segment.sealed) {
+                        return count;
+                    }
+                    readOffset = segment.baseOffset + segmentSize;
+                    continue;
+                }
+                int length = segment.buffer.getInt(position);
+                if (length == SEALED_MARK || (length == 0 && segment.sealed)) {
+                    readOffset = segment.baseOffset + segmentSize;
+                    continue;
+                }
+                if (length <= 0 || position + HEADER_SIZE + length > limit) {
+                    return count;
+                }
+                byte[] payload = new byte[length];
+                segment.buffer.get(position + HEADER_SIZE, payload);
+                readOffset += HEADER_SIZE + length;
+                output.add(payload);
+                count++;
+            }
+            return count;
+        }
+
+        /**
+         * 当前的读取位置
+         *
+         * @return 偏移量
+         */
+        public long position() {
+            return readOffset;
+        }
+
+        /**
+         * 确认之前的记录都已处理完毕
+         *
+         * @param offset 偏移量
+         */
+        public void commit(long offset) {
+            this.committedOffset = offset;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+
+    /**
+     * 段文件
+     */
+    private static class Segment {
+        private final long baseOffset;
+        private final Path file;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        /*下一条记录的写入位置*/
+        private volatile int writePosition;
+        /*是否已写满*/
+        private volatile boolean sealed;
+        /*是否有尚未刷盘的写入*/
+        private volatile boolean dirty;
+
+        private Segment(long baseOffset, Path file, FileChannel channel, MappedByteBuffer buffer) {
+            this.baseOffset = baseOffset;
+            this.file = file;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        static Segment open(Path file, long baseOffset, int segmentSize) throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            return new Segment(baseOffset, file, channel, buffer);
+        }
+
+        /**
+         * 扫描段文件 找到最后一条完整记录之后的位置, 不完整或校验失败的记录会被清除
+         *
+         * @return 写入位置
+         */
+        int recover() {
+            int position = 0;
+            int capacity = buffer.capacity();
+            CRC32C crc = new CRC32C();
+            while (position + HEADER_SIZE <= capacity) {
+                int length = buffer.getInt(position);
+                if (length <= 0 || position + HEADER_SIZE + length > capacity) {
+                    break;
+                }
+                byte[] payload = new byte[length];
+                buffer.get(position + HEADER_SIZE, payload);
+                crc.reset();
+                crc.update(payload);
+                if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                    log.warn("[operation-log]预写日志存在不完整的记录, 已截断! file={} position={}", file, position);
+                    break;
+                }
+                position += HEADER_SIZE + length;
+            }
+            /*清除崩溃时写了一半的记录*/
+            if (position + 4 <= capacity) {
+                buffer.putInt(position, 0);
+            }
+            return position;
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.debug("[operation-log]关闭预写日志文件失败! file={}", file, e);
+            }
+        }
+
+        void delete() {
+            close();
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                log.error("[operation-log]删除预写日志文件失败! file={}", file, e);
+            }
+        }
+    }
+}
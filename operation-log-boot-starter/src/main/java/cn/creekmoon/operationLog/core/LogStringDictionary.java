@@ -0,0 +1,165 @@
+package cn.creekmoon.operationLog.core;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 重复字符串的字典 用于日志的二进制编码
+ * 项目名称、操作类型、方法名、类名等取值有限的字符串只保存一次, 编码时只写入编号
+ * 指定文件时字典会持久化, 进程重启后编号保持不变; 条目只增不减, 超过上限后的新字符串不再进入字典
+ *
+ * @author creekmoon
+ */
+@Slf4j
+public class LogStringDictionary {
+
+    /*字典最多的条目数量*/
+    private static final int MAX_SIZE = 1 << 16;
+    /*超过长度的字符串不进入字典*/
+    private static final int MAX_LENGTH = 512;
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] values = new String[64];
+    private int size;
+    /*持久化文件 为null时只保存在内存中*/
+    private final FileChannel channel;
+    private volatile boolean dirty;
+
+    /**
+     * 只保存在内存中的字典
+     */
+    public LogStringDictionary() {
+        this.channel = null;
+    }
+
+    /**
+     * 持久化的字典 文件中已有的条目会被加载
+     *
+     * @param file 文件
+     * @throws IOException 文件无法访问
+     */
+    public LogStringDictionary(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer content = ByteBuffer.allocate((int) channel.size());
+        while (content.hasRemaining()) {
+            if (channel.read(content) < 0) {
+                break;
+            }
+        }
+        content.flip();
+        /*每个条目为 [长度][UTF-8内容], 崩溃时写了一半的条目会被截断*/
+        while (content.remaining() >= 4) {
+            int length = content.getInt(content.position());
+            if (length <= 0 || content.remaining() < 4 + length) {
+                break;
+            }
+            content.getInt();
+            byte[] bytes = new byte[length];
+            content.get(bytes);
+            put(new String(bytes, StandardCharsets.UTF_8));
+        }
+        channel.truncate(content.position());
+        channel.position(content.position());
+    }
+
+    /**
+     * 获取字符串的编号 不存在时加入字典
+     *
+     * @param value 字符串
+     * @return 编号, 不能进入字典时返回-1
+     */
+    public int idOf(String value) {
+        Integer id = ids.get(value);
+        if (id != null) {
+            return id;
+        }
+        if (value.length() > MAX_LENGTH) {
+            return -1;
+        }
+        return register(value);
+    }
+
+    /**
+     * 获取编号对应的字符串
+     *
+     * @param id 编号
+     * @return 字符串, 不存在时返回null
+     */
+    public String valueOf(int id) {
+        String[] current = values;
+        return id >= 0 && id < current.length ? current[id] : null;
+    }
+
+    private synchronized int register(String value) {
+        Integer id = ids.get(value);
+        if (id != null) {
+            return id;
+        }
+        if (size >= MAX_SIZE) {
+            return -1;
+        }
+        if (channel != null) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer entry = ByteBuffer.allocate(4 + bytes.length).putInt(bytes.length).put(bytes).flip();
+            try {
+                while (entry.hasRemaining()) {
+                    channel.write(entry);
+                }
+                dirty = true;
+            } catch (IOException e) {
+                log.error("[operation-log]字典写入失败, 该字符串将直接编码!", e);
+                return -1;
+            }
+        }
+        return put(value);
+    }
+
+    private synchronized int put(String value) {
+        int id = size;
+        String[] current = values;
+        if (id >= current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+        }
+        current[id] = value;
+        values = current;
+        size++;
+        ids.put(value, id);
+        return id;
+    }
+
+    /**
+     * 刷盘 应在引用这些条目的数据刷盘之前调用
+     */
+    public void force() {
+        if (channel == null || !dirty) {
+            return;
+        }
+        dirty = false;
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            log.error("[operation-log]字典刷盘失败!", e);
+        }
+    }
+
+    public void close() {
+        if (channel == null) {
+            return;
+        }
+        force();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.debug("[operation-log]关闭字典文件失败!", e);
+        }
+    }
+}
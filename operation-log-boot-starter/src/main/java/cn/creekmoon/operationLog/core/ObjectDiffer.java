@@ -0,0 +1,327 @@
+package cn.creekmoon.operationLog.core;
+
+import com.alibaba.fastjson2.JSONArray;
+import com.alibaba.fastjson2.JSONFactory;
+import com.alibaba.fastjson2.JSONObject;
+import com.alibaba.fastjson2.writer.FieldWriter;
+import com.alibaba.fastjson2.writer.ObjectWriter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 跟踪值的快照与比较
+ * 直接遍历对象结构得到操作前后的字段级变化, 不经过JSON字符串的序列化与解析
+ * 快照为JSONObject/JSONArray组成的树, 叶子节点只保存不可变的值, 与被跟踪的对象不再有关联
+ * 与参数序列化一样限制集合大小, 并限制一次遍历的节点总数; 当前路径上重复出现的对象记录为循环引用, 不再展开
+ *
+ * @author creekmoon
+ */
+@Slf4j
+public class ObjectDiffer {
+
+    /*最大遍历深度 超过的部分不再比较*/
+    private static final int MAX_DEPTH = 16;
+    /*集合、数组、Map最多比较的元素数量 与参数序列化的默认值一致*/
+    private static final int MAX_COLLECTION_SIZE = 100;
+    /*一次快照或比较最多遍历的节点数量 共享引用较多的对象图也不会无限展开*/
+    private static final int MAX_NODES = 10000;
+    /*超过深度、数量的内容在快照中的标记*/
+    private static final String TRUNCATED = "...";
+    /*循环引用在快照中的标记 例如子对象指回父对象*/
+    private static final String CYCLE = "$ref";
+    private static final FieldWriter[] NO_ACCESSORS = new FieldWriter[0];
+
+    /*每个类型的属性访问器 只解析一次, 没有属性的类型视为叶子节点*/
+    private static final ClassValue<FieldWriter[]> ACCESSORS = new ClassValue<>() {
+        @Override
+        protected FieldWriter[] computeValue(Class<?> type) {
+            if (ParamJsonSerializer.isImmutable(type)
+                    || type.isPrimitive()
+                    || CharSequence.class.isAssignableFrom(type)
+                    || Date.class.isAssignableFrom(type)) {
+                return NO_ACCESSORS;
+            }
+            try {
+                ObjectWriter<?> objectWriter = JSONFactory.getDefaultObjectWriterProvider().getObjectWriter(type);
+                List<FieldWriter> fieldWriters = objectWriter.getFieldWriters();
+                return fieldWriters == null ? NO_ACCESSORS : fieldWriters.toArray(NO_ACCESSORS);
+            } catch (Exception e) {
+                log.debug("[operation-log]解析跟踪对象的属性失败! type={}", type.getName(), e);
+                return NO_ACCESSORS;
+            }
+        }
+    };
+
+    private ObjectDiffer() {
+    }
+
+    /**
+     * 生成值的快照
+     *
+     * @param value 值
+     * @return 快照 对象为JSONObject, 集合与数组为JSONArray
+     */
+    public static Object snapshot(Object value) {
+        return snapshot(value, 0, new Walk());
+    }
+
+    /**
+     * 比较操作前后的值
+     * 两边可以是快照, 也可以是原始对象
+     *
+     * @param before     操作之前的值
+     * @param after      操作之后的值
+     * @param maxChanges 最多记录的变化数量
+     * @return 字段级变化 没有变化时为空列表
+     */
+    public static List<FieldChange> diff(Object before, Object after, int maxChanges) {
+        List<FieldChange> changes = new ArrayList<>();
+        diff("", before, after, 0, changes, maxChanges, new Walk(), new Walk());
+        return changes;
+    }
+
+    private static void diff(String path, Object before, Object after, int depth, List<FieldChange> changes, int maxChanges,
+                             Walk beforeWalk, Walk afterWalk) {
+        if (changes.size() >= maxChanges || afterWalk.nodes++ >= MAX_NODES) {
+            return;
+        }
+        Kind beforeKind = kindOf(before);
+        Kind afterKind = kindOf(after);
+        if (beforeKind == afterKind && depth < MAX_DEPTH) {
+            if (beforeKind == Kind.NULL) {
+                return;
+            }
+            /*任意一边出现循环引用时 按叶子节点比较循环引用的标记*/
+            if (beforeKind != Kind.LEAF && beforeWalk.enter(before)) {
+                if (afterWalk.enter(after)) {
+                    try {
+                        if (beforeKind == Kind.OBJECT) {
+                            diffProperties(path, properties(before), properties(after), depth, changes, maxChanges, beforeWalk, afterWalk);
+                        } else {
+                            diffElements(path, elements(before), elements(after), depth, changes, maxChanges, beforeWalk, afterWalk);
+                        }
+                        return;
+                    } finally {
+                        afterWalk.exit(after);
+                        beforeWalk.exit(before);
+                    }
+                }
+                beforeWalk.exit(before);
+            }
+        }
+        /*叶子节点或者结构发生了变化 记录整个值*/
+        Object oldValue = snapshot(before, depth, beforeWalk);
+        Object newValue = snapshot(after, depth, afterWalk);
+        if (!leafEquals(oldValue, newValue)) {
+            changes.add(new FieldChange(path, oldValue, newValue));
+        }
+    }
+
+    private static void diffProperties(String path, Map<String, Object> beforeProperties, Map<String, Object> afterProperties, int depth,
+                                       List<FieldChange> changes, int maxChanges, Walk beforeWalk, Walk afterWalk) {
+        for (Map.Entry<String, Object> entry : beforeProperties.entrySet()) {
+            diff(childPath(path, entry.getKey()), entry.getValue(), afterProperties.get(entry.getKey()), depth + 1, changes, maxChanges, beforeWalk, afterWalk);
+        }
+        for (Map.Entry<String, Object> entry : afterProperties.entrySet()) {
+            if (!beforeProperties.containsKey(entry.getKey())) {
+                diff(childPath(path, entry.getKey()), null, entry.getValue(), depth + 1, changes, maxChanges, beforeWalk, afterWalk);
+            }
+        }
+    }
+
+    private static void diffElements(String path, List<Object> beforeElements, List<Object> afterElements, int depth,
+                                     List<FieldChange> changes, int maxChanges, Walk beforeWalk, Walk afterWalk) {
+        int size = Math.max(beforeElements.size(), afterElements.size());
+        for (int i = 0; i < size; i++) {
+            diff(path + "[" + i + "]",
+                    i < beforeElements.size() ? beforeElements.get(i) : null,
+                    i < afterElements.size() ? afterElements.get(i) : null,
+                    depth + 1, changes, maxChanges, beforeWalk, afterWalk);
+        }
+    }
+
+    private static Object snapshot(Object value, int depth, Walk walk) {
+        String unsupported = value == null ? null : ParamJsonSerializer.unsupportedTypeName(value);
+        if (unsupported != null) {
+            return unsupported;
+        }
+        Kind kind = kindOf(value);
+        if (kind == Kind.NULL) {
+            return null;
+        }
+        if (kind == Kind.LEAF) {
+            return leafOf(value);
+        }
+        if (depth >= MAX_DEPTH || walk.nodes++ >= MAX_NODES) {
+            return TRUNCATED;
+        }
+        if (!walk.enter(value)) {
+            return CYCLE;
+        }
+        try {
+            if (kind == Kind.OBJECT) {
+                Map<String, Object> properties = properties(value);
+                JSONObject result = new JSONObject(properties.size());
+                for (Map.Entry<String, Object> entry : properties.entrySet()) {
+                    result.put(entry.getKey(), snapshot(entry.getValue(), depth + 1, walk));
+                }
+                return result;
+            }
+            List<Object> elements = elements(value);
+            JSONArray result = new JSONArray(elements.size());
+            for (Object element : elements) {
+                result.add(snapshot(element, depth + 1, walk));
+            }
+            return result;
+        } finally {
+            walk.exit(value);
+        }
+    }
+
+    private static Kind kindOf(Object value) {
+        if (value == null) {
+            return Kind.NULL;
+        }
+        if (value instanceof Map) {
+            return Kind.OBJECT;
+        }
+        if (value instanceof Collection || value.getClass().isArray()) {
+            return Kind.ARRAY;
+        }
+        return ACCESSORS.get(value.getClass()).length > 0 ? Kind.OBJECT : Kind.LEAF;
+    }
+
+    /**
+     * 叶子节点的快照 可变的值需要复制
+     */
+    private static Object leafOf(Object value) {
+        if (value instanceof CharSequence charSequence) {
+            return charSequence.toString();
+        }
+        if (value instanceof Date date) {
+            return new Date(date.getTime());
+        }
+        return value;
+    }
+
+    private static boolean leafEquals(Object oldValue, Object newValue) {
+        if (oldValue instanceof BigDecimal x && newValue instanceof BigDecimal y) {
+            return x.compareTo(y) == 0;
+        }
+        return oldValue == null ? newValue == null : oldValue.equals(newValue);
+    }
+
+    /**
+     * 对象的属性 值为null的属性不返回
+     * Map超过数量限制的部分以截断标记代替, 快照本身已经截断过, 直接返回
+     */
+    private static Map<String, Object> properties(Object value) {
+        if (value instanceof JSONObject jsonObject) {
+            return jsonObject;
+        }
+        if (value instanceof Map<?, ?> map) {
+            Map<String, Object> result = new LinkedHashMap<>(Math.min(map.size(), MAX_COLLECTION_SIZE + 1) * 2);
+            int count = 0;
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                if (count++ >= MAX_COLLECTION_SIZE) {
+                    result.put(TRUNCATED, "size=" + map.size());
+                    break;
+                }
+                if (entry.getValue() != null) {
+                    result.put(String.valueOf(entry.getKey()), entry.getValue());
+                }
+            }
+            return result;
+        }
+        FieldWriter[] accessors = ACCESSORS.get(value.getClass());
+        Map<String, Object> result = new LinkedHashMap<>(accessors.length * 2);
+        for (FieldWriter accessor : accessors) {
+            try {
+                Object fieldValue = accessor.getFieldValue(value);
+                if (fieldValue != null) {
+                    result.put(accessor.fieldName, fieldValue);
+                }
+            } catch (Exception e) {
+                log.debug("[operation-log]读取跟踪对象的属性失败! field={}", accessor.fieldName, e);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 集合或数组的元素
+     * 超过数量限制的部分以一个截断标记代替, 快照本身已经截断过, 直接返回
+     */
+    @SuppressWarnings("unchecked")
+    private static List<Object> elements(Object value) {
+        if (value instanceof JSONArray jsonArray) {
+            return jsonArray;
+        }
+        if (value instanceof Collection<?> collection) {
+            if (collection.size() <= MAX_COLLECTION_SIZE && collection instanceof List<?> list) {
+                return (List<Object>) list;
+            }
+            List<Object> result = new ArrayList<>(Math.min(collection.size(), MAX_COLLECTION_SIZE + 1));
+            Iterator<?> iterator = collection.iterator();
+            while (iterator.hasNext() && result.size() < MAX_COLLECTION_SIZE) {
+                result.add(iterator.next());
+            }
+            if (iterator.hasNext()) {
+                result.add(TRUNCATED + "size=" + collection.size());
+            }
+            return result;
+        }
+        int length = Array.getLength(value);
+        if (length == 0) {
+            return Collections.emptyList();
+        }
+        List<Object> result = new ArrayList<>(Math.min(length, MAX_COLLECTION_SIZE + 1));
+        for (int i = 0; i < length && i < MAX_COLLECTION_SIZE; i++) {
+            result.add(Array.get(value, i));
+        }
+        if (length > MAX_COLLECTION_SIZE) {
+            result.add(TRUNCATED + "size=" + length);
+        }
+        return result;
+    }
+
+    private static String childPath(String path, String name) {
+        return path.isEmpty() ? name : path + "." + name;
+    }
+
+    /**
+     * 一次遍历的状态
+     * 记录当前路径上的对象(按引用比较)用于发现循环引用, 以及已经遍历的节点数量
+     */
+    private static final class Walk {
+        private final Set<Object> path = Collections.newSetFromMap(new IdentityHashMap<>());
+        private int nodes;
+
+        boolean enter(Object value) {
+            return path.add(value);
+        }
+
+        void exit(Object value) {
+            path.remove(value);
+        }
+    }
+
+    private enum Kind {
+        NULL,
+        LEAF,
+        OBJECT,
+        ARRAY,
+    }
+}
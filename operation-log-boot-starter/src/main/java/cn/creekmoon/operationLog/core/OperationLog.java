@@ -16,7 +16,7 @@ public @interface OperationLog {
     public static final String OPERATION_SUMMARY_DEFAULT = "未描述的接口";
 
     /**
-     * 操作描述
+     * 操作描述 可以包含#{...}形式的SpEL表达式, 在方法结束后计算, 例如 "删除用户#{#id}"
      * @return
      */
     String value() default OPERATION_SUMMARY_DEFAULT;
@@ -30,4 +30,82 @@ public @interface OperationLog {
 
     //操作失败时,不进行日志记录
     boolean handleOnFail() default false;
+
+    /**
+     * 不进行记录的参数名称
+     *
+     * @return
+     */
+    String[] excludeParams() default {};
+
+    /**
+     * 需要遮盖的参数名称 例如密码 记录为******
+     *
+     * @return
+     */
+    String[] maskParams() default {};
+
+    /**
+     * 延迟捕获 开启后请求线程上只为参数、跟踪值生成快照, JSON转换在日志分发线程上执行
+     * 安全约定:
+     * 1.不可变类型(String、包装类型、java.time、枚举以及标记了@OperationLogImmutable的类型)只保存引用
+     * 2.其他参数在请求线程上生成二进制快照, 快照之后对参数的修改不会影响日志
+     * 3.OperationLogRecordInitializer.functionPostProcess中读取的参数、跟踪值会提前完成捕获
+     *
+     * @return
+     */
+    boolean deferredCapture() default false;
+
+    /**
+     * 成功调用的采样比例 0~1, 未被采样的调用不会序列化参数
+     * 小于0时使用配置 operation-log.sampling.rate
+     *
+     * @return
+     */
+    double sampleRate() default -1;
+
+    /**
+     * 采样方式 固定比例, 或者失败总是记录、成功按比例采样
+     *
+     * @return
+     */
+    SampleMode sampleMode() default SampleMode.DEFAULT;
+
+    /**
+     * 每秒最多记录的日志数量(令牌桶) 0表示不限流
+     * 小于0时使用配置 operation-log.sampling.rate-limit
+     *
+     * @return
+     */
+    double rateLimit() default -1;
+
+    /**
+     * 限流的范围 按方法或者按用户
+     *
+     * @return
+     */
+    RateLimitScope rateLimitScope() default RateLimitScope.DEFAULT;
+
+    /**
+     * 是否记录的SpEL表达式 在方法执行之前计算, 只能使用参数, 例如 "#user.type != 'SYSTEM'"
+     * 结果为false时不创建日志对象、不序列化参数, 方法内嵌套的注解方法同样不记录, OperationLogContext.getCurrentLogRecord返回null
+     *
+     * @return
+     */
+    String condition() default "";
+
+    /**
+     * 放弃记录的SpEL表达式 在方法结束后计算, 可以使用#result和#error, 例如 "#result == null"
+     * 结果为true时不记录
+     *
+     * @return
+     */
+    String unless() default "";
+
+    /**
+     * 标签 可以包含#{...}形式的SpEL表达式, 在方法结束后计算, 例如 "订单#{#result.status}"
+     *
+     * @return
+     */
+    String[] tags() default {};
 }
@@ -3,18 +3,19 @@ package cn.creekmoon.operationLog.core;
 
 import cn.hutool.core.util.StrUtil;
 
-import com.alibaba.fastjson2.JSONObject;
-import jakarta.servlet.ServletRequest;
+import com.alibaba.fastjson2.JSONB;
+import com.alibaba.fastjson2.JSONWriter;
 import lombok.extern.slf4j.Slf4j;
 
 
 import java.util.concurrent.Callable;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 
 /**
  * 日志上下文
- * 每一个 request都会独占一个线程.
- * ThreadLocal记录下当前请求的信息 使用过后需要及时清理
+ * 当前注解方法的上下文帧只在方法执行期间绑定, 方法返回后自动解除
+ * 默认使用ThreadLocal存储, 可以通过operation-log.context-backend切换为ScopedValue
  *
  * @author JY
  */
@@ -22,16 +23,51 @@ import java.util.concurrent.ConcurrentHashMap;
 public class OperationLogContext {
     /*当前是否处于禁用状态*/
     public static boolean disable = true;
-    /*当前记录实例识别号*/
-    protected static ThreadLocal<String> currentRecordId = new ThreadLocal<>();
-    /*当前请求*/
-    protected static ThreadLocal<ServletRequest> currentServletRequest = new ThreadLocal<>();
-    /*跟踪的元数据*/
-    protected static ThreadLocal<Callable<Object>> metadataSupplier = new ThreadLocal<>();
-    protected static ConcurrentHashMap<String, LogRecord> recordId2Logs = new ConcurrentHashMap(1024);
+    /*当前调用的上下文帧的存储方式 上下文帧中包含日志对象、请求、跟踪的元数据*/
+    protected static volatile OperationLogFrameHolder frameHolder = new ThreadLocalFrameHolder();
 
     /**
-     * 传入一个获取数据的方式,会通过这个方式监控数据变化 体现在effectFields字段中
+     * 切换上下文的存储方式 应在启动时调用
+     *
+     * @param backend 存储方式
+     */
+    public static void useBackend(ContextBackend backend) {
+        if (backend == ContextBackend.SCOPED_VALUE) {
+            ScopedValueFrameHolder scopedValueFrameHolder = ScopedValueFrameHolder.tryCreate();
+            if (scopedValueFrameHolder != null) {
+                frameHolder = scopedValueFrameHolder;
+                return;
+            }
+            log.warn("[operation-log]当前JDK不支持ScopedValue, 日志上下文将使用ThreadLocal存储!");
+        }
+        frameHolder = new ThreadLocalFrameHolder();
+    }
+
+    /**
+     * 获取当前的上下文帧
+     *
+     * @return 上下文帧, 不在注解方法内时返回null
+     */
+    protected static OperationLogFrame currentFrame() {
+        OperationLogFrame frame = frameHolder.current();
+        /*传递到其他线程的上下文帧可能已经结束*/
+        return frame == null || frame.isCompleted() ? null : frame;
+    }
+
+    /**
+     * 在绑定上下文帧的范围内执行操作
+     *
+     * @param frame     上下文帧
+     * @param operation 操作
+     * @return 操作的返回值
+     * @throws Throwable 操作抛出的异常
+     */
+    protected static <R> R callWithFrame(OperationLogFrame frame, OperationLogFrameHolder.FrameCallable<R> operation) throws Throwable {
+        return frameHolder.callWithFrame(frame, operation);
+    }
+
+    /**
+     * 传入一个获取数据的方式,会通过这个方式监控数据变化 体现在changes字段中
      *
      * @param metadata 元数据,传入需要监控的对象
      */
@@ -39,21 +75,37 @@ public class OperationLogContext {
         if (disable) {
             return;
         }
-        LogRecord record = OperationLogContext.getCurrentLogRecord();
-        if (record == null) {
+        OperationLogFrame frame = currentFrame();
+        if (frame == null) {
             log.error("[日志推送]获取日志上下文失败! 请检查是否添加了@OperationLog注解!", new RuntimeException("获取日志上下文失败!"));
             return;
         }
+        /*未被采样的调用不需要跟踪值*/
+        if (frame.sampledOut) {
+            return;
+        }
+        LogRecord record = frame.getLogRecord();
+        LogMetrics metrics = LogMetrics.current();
+        long start = metrics.isEnabled() ? System.nanoTime() : 0;
         try {
             if (metadata != null) {
-                metadataSupplier.set(metadata);
-                //序列化成JSON格式
-                JSONObject parse = JSONObject.parseObject(JSONObject.toJSONString(metadata.call()));
-                record.setPreValue(parse);
+                frame.metadataSupplier = metadata;
+                Object value = metadata.call();
+                if (frame.deferredCapture) {
+                    /*只生成二进制快照 在分发线程上转换, 循环引用写为引用而不是无限展开*/
+                    byte[] snapshot = JSONB.toBytes(value, JSONWriter.Feature.ReferenceDetection);
+                    record.addDeferredCapture(x -> x.setPreValue(JSONB.parse(snapshot)));
+                } else {
+                    /*直接遍历对象生成快照 方法结束后与之后的值比较*/
+                    record.setPreValue(ObjectDiffer.snapshot(value));
+                }
             }
         } catch (Exception e) {
             log.warn("[日志推送]跟踪日志对象时报错! 发生位置setPreValue");
         }
+        if (metrics.isEnabled()) {
+            metrics.recordPhase(LogMetrics.Phase.FOLLOW, System.nanoTime() - start);
+        }
     }
 
     /**
@@ -72,11 +124,93 @@ public class OperationLogContext {
     /**
      * 获取当前的日志记录对象
      *
-     * @return
+     * @return 不在注解方法内或condition不满足时返回null
      */
     public static LogRecord getCurrentLogRecord() {
-        String recordId = currentRecordId.get();
-        return recordId == null ? null : recordId2Logs.get(recordId);
+        OperationLogFrame frame = currentFrame();
+        return frame == null ? null : frame.getLogRecord();
+    }
+
+    /**
+     * 包装任务 任务在其他线程执行时也能访问当前的日志上下文
+     * 适用于CompletableFuture、@Async等切换线程的场景
+     *
+     * @param task 任务
+     * @return 包装后的任务, 当前不在注解方法内时返回原任务
+     */
+    public static Runnable wrap(Runnable task) {
+        OperationLogFrame frame = currentFrame();
+        if (frame == null || task == null) {
+            return task;
+        }
+        return () -> runWithFrame(frame, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * 包装任务 任务在其他线程执行时也能访问当前的日志上下文
+     *
+     * @param task 任务
+     * @return 包装后的任务, 当前不在注解方法内时返回原任务
+     */
+    public static <T> Callable<T> wrap(Callable<T> task) {
+        OperationLogFrame frame = currentFrame();
+        if (frame == null || task == null) {
+            return task;
+        }
+        return () -> {
+            try {
+                return frame.isCompleted() ? task.call() : callWithFrame(frame, task::call);
+            } catch (Exception | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        };
+    }
+
+    /**
+     * 包装任务 用于CompletableFuture.supplyAsync等场景
+     *
+     * @param task 任务
+     * @return 包装后的任务, 当前不在注解方法内时返回原任务
+     */
+    public static <T> Supplier<T> wrapSupplier(Supplier<T> task) {
+        OperationLogFrame frame = currentFrame();
+        if (frame == null || task == null) {
+            return task;
+        }
+        return () -> runWithFrame(frame, task::get);
+    }
+
+    /**
+     * 包装线程池 提交到线程池的任务都能访问提交时的日志上下文
+     *
+     * @param executor 线程池
+     * @return 包装后的线程池
+     */
+    public static Executor wrapExecutor(Executor executor) {
+        return task -> executor.execute(wrap(task));
+    }
+
+    /**
+     * 绑定上下文帧执行不会抛出受检异常的操作
+     *
+     * @param frame     上下文帧
+     * @param operation 操作
+     * @return 操作的返回值
+     */
+    static <T> T runWithFrame(OperationLogFrame frame, OperationLogFrameHolder.FrameCallable<T> operation) {
+        try {
+            /*上下文帧已经结束时 不再绑定*/
+            return frame.isCompleted() ? operation.call() : callWithFrame(frame, operation);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
     }
 
 
@@ -93,9 +227,12 @@ public class OperationLogContext {
         if (record == null) {
             return;
         }
-        for (String tag : tags) {
-            if (StrUtil.isNotBlank(tag)) {
-                record.getTags().add(tag.trim());
+        /*子任务可能与当前线程同时修改同一个日志对象*/
+        synchronized (record) {
+            for (String tag : tags) {
+                if (StrUtil.isNotBlank(tag)) {
+                    record.getTags().add(tag.trim());
+                }
             }
         }
     }
@@ -109,32 +246,23 @@ public class OperationLogContext {
         if (disable || remarks == null) {
             return;
         }
-        LogRecord record = getCurrentLogRecord();
-        if (record == null) {
+        OperationLogFrame frame = currentFrame();
+        if (frame == null) {
             log.error("[日志推送]获取日志上下文失败! 请检查是否添加了@OperationLog注解!", new RuntimeException("获取日志上下文失败!"));
             return;
         }
-        for (String remark : remarks) {
-            if (remark != null) {
-                record.getRemarks().add(remark.trim());
-            }
-        }
-    }
-
-
-    /**
-     * 清理当前的上下文信息
-     */
-    protected static void clean() {
-        String recordId = OperationLogContext.currentRecordId.get();
-        if (recordId == null) {
+        /*condition不满足而跳过的调用 没有日志对象*/
+        LogRecord record = frame.getLogRecord();
+        if (record == null) {
             return;
         }
-        /*移除对象*/
-        OperationLogContext.recordId2Logs.remove(recordId);   //及时移除对象
-        OperationLogContext.currentServletRequest.remove(); //及时移除对象
-        OperationLogContext.metadataSupplier.remove();//及时移除对象
-        OperationLogContext.currentRecordId.remove();//及时移除对象
+        synchronized (record) {
+            for (String remark : remarks) {
+                if (remark != null) {
+                    record.getRemarks().add(remark.trim());
+                }
+            }
+        }
     }
 
 }
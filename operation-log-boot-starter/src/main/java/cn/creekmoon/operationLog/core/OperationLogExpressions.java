@@ -0,0 +1,168 @@
+package cn.creekmoon.operationLog.core;
+
+import cn.hutool.core.util.StrUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
+import org.springframework.expression.ParserContext;
+import org.springframework.expression.common.TemplateParserContext;
+import org.springframework.expression.spel.SpelCompilerMode;
+import org.springframework.expression.spel.SpelParserConfiguration;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 注解方法上的SpEL表达式 condition、unless、动态操作名称和标签
+ * 每个方法只解析一次, 表达式以MIXED模式运行, 多次执行后编译为字节码, 无法编译时退回解释执行
+ * 可用的变量: 参数名称(需要-parameters编译参数)、#p0/#a0、#args, 方法结束后还有#result和#error
+ *
+ * @author creekmoon
+ */
+@Slf4j
+final class OperationLogExpressions {
+
+    private static final SpelExpressionParser PARSER = new SpelExpressionParser(
+            new SpelParserConfiguration(SpelCompilerMode.MIXED, OperationLogExpressions.class.getClassLoader()));
+    /*操作名称和标签按模板解析 #{...}之外的部分原样保留*/
+    private static final ParserContext TEMPLATE = new TemplateParserContext();
+
+    private final String classFullName;
+    private final String[] parameterNames;
+    /*#p0、#a0等变量名 预先生成*/
+    private final String[] indexedNames;
+    /*为null时表示未配置*/
+    private final Expression condition;
+    private final Expression unless;
+    private final Expression operationName;
+    private final List<Expression> tags;
+
+    private OperationLogExpressions(String classFullName, String[] parameterNames, Expression condition, Expression unless,
+                                    Expression operationName, List<Expression> tags) {
+        this.classFullName = classFullName;
+        this.parameterNames = parameterNames;
+        this.indexedNames = new String[parameterNames.length * 2];
+        for (int i = 0; i < parameterNames.length; i++) {
+            indexedNames[i * 2] = "p" + i;
+            indexedNames[i * 2 + 1] = "a" + i;
+        }
+        this.condition = condition;
+        this.unless = unless;
+        this.operationName = operationName;
+        this.tags = tags;
+    }
+
+    /**
+     * 解析注解上的表达式
+     *
+     * @param classFullName  操作的JAVA方法全称 用于输出错误信息
+     * @param annotation     注解
+     * @param parameterNames 参数名称
+     * @return 表达式, 注解上没有任何表达式时返回null
+     */
+    static OperationLogExpressions parse(String classFullName, OperationLog annotation, String[] parameterNames) {
+        Expression condition = StrUtil.isBlank(annotation.condition()) ? null : PARSER.parseExpression(annotation.condition());
+        Expression unless = StrUtil.isBlank(annotation.unless()) ? null : PARSER.parseExpression(annotation.unless());
+        Expression operationName = isTemplate(annotation.value()) ? PARSER.parseExpression(annotation.value(), TEMPLATE) : null;
+        List<Expression> tags = new ArrayList<>(annotation.tags().length);
+        for (String tag : annotation.tags()) {
+            if (StrUtil.isNotBlank(tag)) {
+                tags.add(PARSER.parseExpression(tag, TEMPLATE));
+            }
+        }
+        if (condition == null && unless == null && operationName == null && tags.isEmpty()) {
+            return null;
+        }
+        return new OperationLogExpressions(classFullName, parameterNames, condition, unless, operationName, List.copyOf(tags));
+    }
+
+    static boolean isTemplate(String value) {
+        return value != null && value.contains(TEMPLATE.getExpressionPrefix());
+    }
+
+    /**
+     * 方法执行之前判断是否需要记录
+     *
+     * @param args 方法参数
+     * @return 是否需要记录 未配置或执行出错时返回true
+     */
+    boolean condition(Object[] args) {
+        if (condition == null) {
+            return true;
+        }
+        try {
+            return !Boolean.FALSE.equals(condition.getValue(createContext(args, null, null), Boolean.class));
+        } catch (Exception e) {
+            log.error("[operation-log]condition表达式执行失败, 本次调用仍然记录! method={}", classFullName, e);
+            return true;
+        }
+    }
+
+    /**
+     * 方法结束后判断是否需要放弃记录 并计算操作名称和标签
+     *
+     * @param logRecord 日志记录
+     * @param args      方法参数
+     * @param result    方法返回值 异步方法为异步任务的结果
+     * @param error     方法抛出的异常
+     * @return 是否放弃记录
+     */
+    boolean evaluate(LogRecord logRecord, Object[] args, Object result, Throwable error) {
+        EvaluationContext context = createContext(args, result, error);
+        if (unless != null) {
+            try {
+                if (Boolean.TRUE.equals(unless.getValue(context, Boolean.class))) {
+                    return true;
+                }
+            } catch (Exception e) {
+                log.error("[operation-log]unless表达式执行失败, 本次调用仍然记录! method={}", classFullName, e);
+            }
+        }
+        if (operationName != null) {
+            try {
+                logRecord.setOperationName(operationName.getValue(context, String.class));
+            } catch (Exception e) {
+                log.error("[operation-log]操作名称表达式执行失败, 使用原始名称! method={}", classFullName, e);
+            }
+        }
+        for (Expression tag : tags) {
+            try {
+                String value = tag.getValue(context, String.class);
+                if (StrUtil.isNotBlank(value)) {
+                    synchronized (logRecord) {
+                        logRecord.getTags().add(value.trim());
+                    }
+                }
+            } catch (Exception e) {
+                log.error("[operation-log]标签表达式执行失败, 已跳过! method={} tag={}", classFullName, tag.getExpressionString(), e);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 方法结束后是否需要用到表达式 需要时切面保留方法参数和返回值
+     *
+     * @return 是否需要
+     */
+    boolean hasPostExpressions() {
+        return unless != null || operationName != null || !tags.isEmpty();
+    }
+
+    private EvaluationContext createContext(Object[] args, Object result, Throwable error) {
+        StandardEvaluationContext context = new StandardEvaluationContext();
+        Object[] values = args == null ? new Object[0] : args;
+        context.setVariable("args", values);
+        /*参数数量与声明一致 可变参数已合并为数组*/
+        for (int i = 0; i < values.length && i < parameterNames.length; i++) {
+            context.setVariable(indexedNames[i * 2], values[i]);
+            context.setVariable(indexedNames[i * 2 + 1], values[i]);
+            context.setVariable(parameterNames[i], values[i]);
+        }
+        context.setVariable("result", result);
+        context.setVariable("error", error);
+        return context;
+    }
+}
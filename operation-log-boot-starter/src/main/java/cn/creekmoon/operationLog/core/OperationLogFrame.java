@@ -0,0 +1,61 @@
+package cn.creekmoon.operationLog.core;
+
+import jakarta.servlet.ServletRequest;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 一次注解方法调用的上下文帧
+ * 当前请求的日志对象、请求体、跟踪的元数据都放在同一个对象中, 只需一次线程绑定即可取到
+ *
+ * @author creekmoon
+ */
+@Getter
+public class OperationLogFrame {
+
+    /*当前的日志记录对象*/
+    private final LogRecord logRecord;
+    /*当前请求*/
+    protected ServletRequest servletRequest;
+    /*跟踪的元数据*/
+    protected Callable<Object> metadataSupplier;
+    /*是否延迟捕获跟踪值*/
+    protected boolean deferredCapture;
+    /*本次调用未被采样 不生成跟踪值快照*/
+    protected boolean sampledOut;
+    /*未被采样但失败时仍需记录的调用 参数在失败时才序列化*/
+    protected Object[] pendingArgs;
+    /*方法结束后计算表达式所需的参数、返回值和异常 未配置表达式时不保留*/
+    protected Object[] args;
+    protected Object returnValue;
+    protected Throwable error;
+
+    /*日志是否已经结束 异步方法会在异步任务结束时才结束日志*/
+    @Getter(AccessLevel.NONE)
+    private final AtomicBoolean completed = new AtomicBoolean();
+
+    public OperationLogFrame(LogRecord logRecord) {
+        this.logRecord = logRecord;
+    }
+
+    /**
+     * 标记日志已经结束
+     *
+     * @return 是否由本次调用完成标记 重复调用返回false
+     */
+    boolean complete() {
+        return completed.compareAndSet(false, true);
+    }
+
+    /**
+     * 日志是否已经结束 结束后不能再修改日志对象
+     *
+     * @return 是否已经结束
+     */
+    public boolean isCompleted() {
+        return completed.get();
+    }
+}
@@ -0,0 +1,35 @@
+package cn.creekmoon.operationLog.core;
+
+/**
+ * 上下文帧的存储方式
+ *
+ * @author creekmoon
+ */
+public interface OperationLogFrameHolder {
+
+    /**
+     * 获取当前绑定的上下文帧
+     *
+     * @return 上下文帧, 未绑定时返回null
+     */
+    OperationLogFrame current();
+
+    /**
+     * 在绑定上下文帧的范围内执行操作 执行完毕后解除绑定
+     *
+     * @param frame     上下文帧
+     * @param operation 操作
+     * @return 操作的返回值
+     * @throws Throwable 操作抛出的异常
+     */
+    <R> R callWithFrame(OperationLogFrame frame, FrameCallable<R> operation) throws Throwable;
+
+
+    /**
+     * 可以抛出任意异常的操作 用于包装切面中的pjp.proceed()
+     */
+    @FunctionalInterface
+    interface FrameCallable<R> {
+        R call() throws Throwable;
+    }
+}
@@ -0,0 +1,16 @@
+package cn.creekmoon.operationLog.core;
+
+import java.lang.annotation.*;
+
+/**
+ * 标记一个类型是不可变的
+ * 开启了延迟捕获(@OperationLog(deferredCapture = true))时, 这种类型的参数只保存引用, 不会在请求线程上生成快照
+ * 只有当对象及其引用的所有对象在创建后都不会被修改时, 才可以使用这个注解
+ *
+ * @author creekmoon
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface OperationLogImmutable {
+}
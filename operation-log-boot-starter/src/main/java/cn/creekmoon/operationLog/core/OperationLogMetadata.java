@@ -0,0 +1,200 @@
+package cn.creekmoon.operationLog.core;
+
+import io.swagger.v3.oas.annotations.Operation;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import lombok.Getter;
+import org.springframework.core.DefaultParameterNameDiscoverer;
+import org.springframework.core.ParameterNameDiscoverer;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 注解方法的元数据
+ * 每个方法只解析一次(首次调用时或启动时扫描), 之后切面直接读取, 不再进行反射
+ *
+ * @author creekmoon
+ */
+@Getter
+public class OperationLogMetadata {
+
+    private static final Map<Method, OperationLogMetadata> CACHE = new ConcurrentHashMap<>(256);
+    private static final ParameterNameDiscoverer PARAMETER_NAME_DISCOVERER = new DefaultParameterNameDiscoverer();
+
+    /*注解所在的方法*/
+    private final Method method;
+    /*操作的JAVA方法名称*/
+    private final String methodName;
+    /*操作的JAVA方法全称*/
+    private final String classFullName;
+    /*操作名称 已按优先级解析完毕*/
+    private final String operationName;
+    /*操作类型*/
+    private final String operationType;
+    /*操作失败时是否记录*/
+    private final boolean handleOnFail;
+    /*是否延迟捕获参数和跟踪值*/
+    private final boolean deferredCapture;
+    /*采样比例 小于0时使用配置*/
+    private final double sampleRate;
+    /*采样方式*/
+    private final SampleMode sampleMode;
+    /*每秒最多记录的日志数量 小于0时使用配置*/
+    private final double rateLimit;
+    /*限流的范围*/
+    private final RateLimitScope rateLimitScope;
+    /*每个参数的序列化计划 按参数的声明类型和注解预先确定*/
+    private final List<ParamPlan> paramPlans;
+    /*注解上的SpEL表达式 未配置时为null*/
+    private final OperationLogExpressions expressions;
+
+    private OperationLogMetadata(Method method, OperationLog annotation) {
+        this.method = method;
+        this.methodName = method.getName();
+        this.classFullName = method.getDeclaringClass().getName() + "." + method.getName();
+        this.operationType = annotation.type();
+        this.handleOnFail = annotation.handleOnFail();
+        this.deferredCapture = annotation.deferredCapture();
+        this.sampleRate = annotation.sampleRate();
+        this.sampleMode = annotation.sampleMode();
+        this.rateLimit = annotation.rateLimit();
+        this.rateLimitScope = annotation.rateLimitScope();
+
+        /**
+         * 赋值优先级 从上到下
+         * 1.使用OperationLog注解(如果已经填写)
+         * 2.使用Swagger注解(如果已经填写)
+         * 3.使用当前方法类名
+         *
+         * */
+        Operation swaggerApi = AnnotatedElementUtils.findMergedAnnotation(method, Operation.class);
+        if (!OperationLog.OPERATION_SUMMARY_DEFAULT.equals(annotation.value())) {
+            this.operationName = annotation.value();
+        } else if (swaggerApi != null && swaggerApi.summary() != null) {
+            this.operationName = swaggerApi.summary();
+        } else {
+            this.operationName = this.classFullName;
+        }
+
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        String[] parameterNames = PARAMETER_NAME_DISCOVERER.getParameterNames(method);
+        Set<String> excludeParams = Set.copyOf(Arrays.asList(annotation.excludeParams()));
+        Set<String> maskParams = Set.copyOf(Arrays.asList(annotation.maskParams()));
+        List<ParamPlan> plans = new ArrayList<>(parameterTypes.length);
+        for (int i = 0; i < parameterTypes.length; i++) {
+            String name = parameterNames != null && i < parameterNames.length ? parameterNames[i] : "arg" + i;
+            if (excludeParams.contains(name)) {
+                plans.add(new ParamPlan(name, ParamKind.EXCLUDED, null));
+            } else if (maskParams.contains(name)) {
+                plans.add(new ParamPlan(name, ParamKind.MASKED, null));
+            } else {
+                plans.add(paramPlanOf(name, parameterTypes[i]));
+            }
+        }
+        this.paramPlans = List.copyOf(plans);
+        String[] names = new String[plans.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = plans.get(i).name();
+        }
+        this.expressions = OperationLogExpressions.parse(classFullName, annotation, names);
+    }
+
+    /**
+     * 获取方法的元数据 不存在时进行解析并缓存
+     *
+     * @param method 注解所在的方法
+     * @return 元数据, 方法上没有@OperationLog注解时返回null
+     */
+    public static OperationLogMetadata of(Method method) {
+        OperationLogMetadata metadata = CACHE.get(method);
+        if (metadata != null) {
+            return metadata;
+        }
+        OperationLog annotation = AnnotatedElementUtils.findMergedAnnotation(method, OperationLog.class);
+        if (annotation == null) {
+            return null;
+        }
+        return CACHE.computeIfAbsent(method, x -> new OperationLogMetadata(x, annotation));
+    }
+
+    /**
+     * 根据参数的声明类型确定序列化方式
+     *
+     * @param name 参数名称
+     * @param type 参数的声明类型
+     * @return 序列化计划
+     */
+    private static ParamPlan paramPlanOf(String name, Class<?> type) {
+        /*对不能进行序列化的类进行额外处理*/
+        if (ServletRequest.class.isAssignableFrom(type)) {
+            return new ParamPlan(name, ParamKind.CONSTANT, "ServletRequest");
+        } else if (ServletResponse.class.isAssignableFrom(type)) {
+            return new ParamPlan(name, ParamKind.CONSTANT, "ServletResponse");
+        } else if (MultipartFile.class.isAssignableFrom(type)) {
+            return new ParamPlan(name, ParamKind.CONSTANT, "MultipartFile");
+        } else if (MultipartFile[].class.isAssignableFrom(type)) {
+            return new ParamPlan(name, ParamKind.CONSTANT, "MultipartFile[]");
+        } else if (InputStreamSource.class.isAssignableFrom(type)) {
+            return new ParamPlan(name, ParamKind.CONSTANT, "InputStreamSource");
+        }
+        /*基本类型的参数直接转为字符串*/
+        if (isSimpleType(type)) {
+            return new ParamPlan(name, ParamKind.SIMPLE, null);
+        }
+        /*其他类型按运行时的值序列化*/
+        return new ParamPlan(name, ParamKind.VALUE, null);
+    }
+
+    private static boolean isSimpleType(Class<?> type) {
+        return type.isPrimitive()
+                || type == Boolean.class
+                || type == Character.class
+                || type == Byte.class
+                || type == Short.class
+                || type == Integer.class
+                || type == Long.class
+                || type == Float.class
+                || type == Double.class
+                || BigDecimal.class.isAssignableFrom(type)
+                || type == String.class;
+    }
+
+
+    /**
+     * 参数的序列化方式
+     */
+    public enum ParamKind {
+        /*不记录*/
+        EXCLUDED,
+        /*记录为遮盖后的值*/
+        MASKED,
+        /*记录为固定的类型名称 用于不能序列化的类型*/
+        CONSTANT,
+        /*基本类型 记录为字符串*/
+        SIMPLE,
+        /*按运行时的值序列化*/
+        VALUE,
+    }
+
+    /**
+     * 参数的序列化计划
+     *
+     * @param name     参数名称
+     * @param kind     序列化方式
+     * @param constant 固定值 仅CONSTANT使用
+     */
+    public record ParamPlan(String name, ParamKind kind, String constant) {
+        /*参数数量与声明不一致时使用*/
+        public static final ParamPlan RUNTIME = new ParamPlan(null, ParamKind.VALUE, null);
+    }
+}
@@ -0,0 +1,75 @@
+package cn.creekmoon.operationLog.core;
+
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SynchronousSink;
+import reactor.util.context.ContextView;
+
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * 在Reactor响应式流中访问日志上下文
+ * 注解方法返回Mono或Flux时, 日志上下文保存在订阅上下文(Context)中, 流中的操作符可能在任意线程上执行,
+ * 需要通过这里的方法恢复日志上下文后才能调用OperationLogContext.addTags等方法
+ *
+ * @author creekmoon
+ */
+public final class OperationLogReactor {
+
+    private OperationLogReactor() {
+    }
+
+    /**
+     * 用于handle操作符 执行动作时恢复日志上下文, 元素原样向下游传递
+     * 例如 mono.handle(OperationLogReactor.peek(user -> OperationLogContext.addTags(user.getName())))
+     *
+     * @param action 动作
+     * @return handle操作符的处理函数
+     */
+    public static <T> BiConsumer<T, SynchronousSink<T>> peek(Consumer<? super T> action) {
+        return (value, sink) -> {
+            run(sink.contextView(), () -> {
+                action.accept(value);
+                return null;
+            });
+            sink.next(value);
+        };
+    }
+
+    /**
+     * 延迟创建Mono 创建时恢复日志上下文, 适用于flatMap等操作符中
+     *
+     * @param supplier 创建Mono
+     * @return Mono
+     */
+    public static <T> Mono<T> deferMono(Supplier<? extends Mono<T>> supplier) {
+        return Mono.deferContextual(context -> run(context, supplier::get));
+    }
+
+    /**
+     * 延迟创建Flux 创建时恢复日志上下文, 适用于flatMapMany等操作符中
+     *
+     * @param supplier 创建Flux
+     * @return Flux
+     */
+    public static <T> Flux<T> deferFlux(Supplier<? extends Publisher<T>> supplier) {
+        return Flux.deferContextual(context -> run(context, supplier::get));
+    }
+
+    private static <R> R run(ContextView context, OperationLogFrameHolder.FrameCallable<R> operation) {
+        OperationLogFrame frame = context.getOrDefault(ReactorSupport.FRAME_KEY, null);
+        if (frame == null) {
+            try {
+                return operation.call();
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return OperationLogContext.runWithFrame(frame, operation);
+    }
+}
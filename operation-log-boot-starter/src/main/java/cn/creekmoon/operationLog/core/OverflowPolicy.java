@@ -0,0 +1,30 @@
+package cn.creekmoon.operationLog.core;
+
+/**
+ * 日志缓冲区已满时的处理策略
+ * 无论哪种策略, 请求线程都不会去执行日志处理器的代码
+ *
+ * @author creekmoon
+ */
+public enum OverflowPolicy {
+
+    /**
+     * 阻塞等待缓冲区空出位置, 超过等待时间后丢弃当前日志
+     */
+    BLOCK,
+
+    /**
+     * 丢弃缓冲区中最旧的一条日志, 放入当前日志
+     */
+    DROP_OLDEST,
+
+    /**
+     * 直接丢弃当前日志
+     */
+    DROP_NEWEST,
+
+    /**
+     * 将当前日志写入本地磁盘, 由分发线程空闲时重新投递
+     */
+    SPILL_TO_DISK,
+}
@@ -0,0 +1,457 @@
+package cn.creekmoon.operationLog.core;
+
+import cn.hutool.core.util.ArrayUtil;
+import com.alibaba.fastjson2.JSONB;
+import com.alibaba.fastjson2.JSONFactory;
+import com.alibaba.fastjson2.JSONWriter;
+import com.alibaba.fastjson2.writer.FieldWriter;
+import com.alibaba.fastjson2.writer.ObjectWriter;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 方法参数的JSON序列化
+ * 参数直接写入fastjson2的JSONWriter(使用其线程缓存的缓冲区), 不会先构建JSON树再转换
+ * 对深度、集合大小、字符串长度进行限制, 避免大对象、批量导入的列表拖慢请求线程
+ * 延迟捕获的快照使用同一套遍历写入JSONB, 同样受这些限制
+ *
+ * @author creekmoon
+ */
+@Slf4j
+public class ParamJsonSerializer {
+
+    /*被遮盖参数的输出值*/
+    public static final String MASK = "******";
+    /*被截断内容的标记*/
+    private static final String TRUNCATED = "...";
+
+    /*是否为不可变类型 每个类型只判断一次*/
+    private static final ClassValue<Boolean> IMMUTABLE_TYPES = new ClassValue<>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            return type == String.class
+                    || type == Boolean.class
+                    || type == Character.class
+                    || type == Byte.class
+                    || type == Short.class
+                    || type == Integer.class
+                    || type == Long.class
+                    || type == Float.class
+                    || type == Double.class
+                    || type == BigDecimal.class
+                    || type == BigInteger.class
+                    || type == UUID.class
+                    || type.isEnum()
+                    || (type.getPackageName().equals("java.time") && !type.isInterface())
+                    || type.isAnnotationPresent(OperationLogImmutable.class);
+        }
+    };
+
+    /*对象最大嵌套深度*/
+    private final int maxDepth;
+    /*集合、数组、Map最多输出的元素数量*/
+    private final int maxCollectionSize;
+    /*字符串最大长度*/
+    private final int maxStringLength;
+    /*List和数组类型的参数是否按旧版本的格式记录为字符串*/
+    private final boolean legacyCollectionFormat;
+
+    public ParamJsonSerializer(int maxDepth, int maxCollectionSize, int maxStringLength) {
+        this(maxDepth, maxCollectionSize, maxStringLength, false);
+    }
+
+    public ParamJsonSerializer(int maxDepth, int maxCollectionSize, int maxStringLength, boolean legacyCollectionFormat) {
+        this.maxDepth = Math.max(1, maxDepth);
+        this.maxCollectionSize = Math.max(0, maxCollectionSize);
+        this.maxStringLength = Math.max(0, maxStringLength);
+        this.legacyCollectionFormat = legacyCollectionFormat;
+    }
+
+    /**
+     * 按照方法元数据中的参数计划序列化参数
+     *
+     * @param metadata 方法元数据
+     * @param args     方法参数
+     * @return JSON数组字符串
+     */
+    public String serialize(OperationLogMetadata metadata, Object[] args) {
+        List<OperationLogMetadata.ParamPlan> paramPlans = metadata.getParamPlans();
+        try (JSONWriter writer = JSONWriter.of()) {
+            writer.startArray();
+            boolean first = true;
+            int length = args == null ? 0 : args.length;
+            for (int i = 0; i < length; i++) {
+                /*可变参数等情况下参数数量可能与声明不一致, 此时按运行时类型处理*/
+                OperationLogMetadata.ParamPlan plan = i < paramPlans.size() ? paramPlans.get(i) : OperationLogMetadata.ParamPlan.RUNTIME;
+                if (plan.kind() == OperationLogMetadata.ParamKind.EXCLUDED) {
+                    continue;
+                }
+                if (!first) {
+                    writer.writeComma();
+                }
+                first = false;
+                Object arg = args[i];
+                switch (plan.kind()) {
+                    case MASKED -> writer.writeString(MASK);
+                    case CONSTANT -> writer.writeString(plan.constant());
+                    case SIMPLE -> writeString(writer, String.valueOf(arg));
+                    default -> {
+                        if (arg == null) {
+                            writer.writeString("null");
+                        } else if (isLegacyCollection(arg)) {
+                            writeString(writer, ArrayUtil.toString(arg));
+                        } else {
+                            writeValue(writer, arg, 0);
+                        }
+                    }
+                }
+            }
+            writer.endArray();
+            return writer.toString();
+        }
+    }
+
+    /**
+     * 为方法参数生成快照 用于延迟捕获
+     * 不可变类型的参数只保存引用, 其他参数按深度、集合大小、字符串长度限制写入紧凑的JSONB二进制, JSON文本在分发线程上生成
+     *
+     * @param metadata 方法元数据
+     * @param args     方法参数
+     * @return 在分发线程上完成序列化的捕获工作
+     */
+    public DeferredCapture snapshot(OperationLogMetadata metadata, Object[] args) {
+        List<OperationLogMetadata.ParamPlan> paramPlans = metadata.getParamPlans();
+        int length = args == null ? 0 : args.length;
+        List<Object> snapshot = new ArrayList<>(length);
+        for (int i = 0; i < length; i++) {
+            OperationLogMetadata.ParamPlan plan = i < paramPlans.size() ? paramPlans.get(i) : OperationLogMetadata.ParamPlan.RUNTIME;
+            Object arg = args[i];
+            switch (plan.kind()) {
+                case EXCLUDED -> {
+                }
+                case MASKED -> snapshot.add(MASK);
+                case CONSTANT -> snapshot.add(plan.constant());
+                case SIMPLE -> snapshot.add(String.valueOf(arg));
+                default -> snapshot.add(snapshotValue(arg));
+            }
+        }
+        return logRecord -> logRecord.setRequestParamsJson(serializeSnapshot(snapshot));
+    }
+
+    /**
+     * 为单个值生成快照
+     *
+     * @param value 值
+     * @return 快照
+     */
+    private Object snapshotValue(Object value) {
+        if (value == null) {
+            return "null";
+        }
+        String unsupported = unsupportedTypeName(value);
+        if (unsupported != null) {
+            return unsupported;
+        }
+        if (isImmutable(value.getClass())) {
+            return value;
+        }
+        if (isLegacyCollection(value)) {
+            return ArrayUtil.toString(value);
+        }
+        try (JSONWriter writer = JSONWriter.ofJSONB()) {
+            writeValue(writer, value, 0);
+            return new BinarySnapshot(writer.getBytes());
+        } catch (Exception e) {
+            /*无法生成二进制快照时 立即序列化*/
+            log.debug("[operation-log]参数无法生成快照, 已立即序列化! type={}", value.getClass().getName(), e);
+            try (JSONWriter writer = JSONWriter.of()) {
+                writeValue(writer, value, 0);
+                return new RawJson(writer.toString());
+            }
+        }
+    }
+
+    /**
+     * 把快照序列化为JSON数组 在分发线程上执行
+     *
+     * @param snapshot 快照
+     * @return JSON数组字符串
+     */
+    private String serializeSnapshot(List<Object> snapshot) {
+        try (JSONWriter writer = JSONWriter.of()) {
+            writer.startArray();
+            for (int i = 0; i < snapshot.size(); i++) {
+                if (i > 0) {
+                    writer.writeComma();
+                }
+                Object value = snapshot.get(i);
+                if (value instanceof BinarySnapshot binarySnapshot) {
+                    /*快照已经按限制截断 原样输出*/
+                    writer.writeAny(JSONB.parse(binarySnapshot.jsonb()));
+                } else if (value instanceof RawJson rawJson) {
+                    writer.writeRaw(rawJson.json());
+                } else {
+                    writeValue(writer, value, 0);
+                }
+            }
+            writer.endArray();
+            return writer.toString();
+        }
+    }
+
+    /**
+     * 是否按旧版本的格式记录 旧版本把List和数组类型的参数记录为toString的字符串, 而不是JSON数组
+     */
+    private boolean isLegacyCollection(Object value) {
+        return legacyCollectionFormat && (value instanceof List || value.getClass().isArray());
+    }
+
+    /**
+     * 是否为不可变类型 不可变类型的值可以直接保存引用
+     *
+     * @param type 类型
+     * @return 是否不可变
+     */
+    public static boolean isImmutable(Class<?> type) {
+        return IMMUTABLE_TYPES.get(type);
+    }
+
+    /**
+     * 写入任意值
+     *
+     * @param writer 输出
+     * @param value  值
+     * @param depth  当前深度
+     */
+    private void writeValue(JSONWriter writer, Object value, int depth) {
+        if (value == null) {
+            writer.writeNull();
+            return;
+        }
+        /*最常见的final类型 不需要再做下面的类型判断*/
+        if (value instanceof String string) {
+            writeString(writer, string);
+            return;
+        }
+        if (depth > 0 && value instanceof Integer integer) {
+            writer.writeInt32(integer);
+            return;
+        }
+        if (depth > 0 && value instanceof Long longValue) {
+            writer.writeInt64(longValue);
+            return;
+        }
+        String unsupported = unsupportedTypeName(value);
+        if (unsupported != null) {
+            writer.writeString(unsupported);
+            return;
+        }
+        if (value instanceof CharSequence charSequence) {
+            writeString(writer, charSequence.toString());
+            return;
+        }
+        if (value instanceof Number || value instanceof Boolean) {
+            /*与之前的处理方式保持一致 基本类型的参数以字符串形式输出, 对象中的属性保持原样*/
+            if (depth == 0) {
+                writer.writeString(String.valueOf(value));
+            } else {
+                writer.writeAny(value);
+            }
+            return;
+        }
+        if (value instanceof Character || value instanceof Enum<?>) {
+            writer.writeString(String.valueOf(value));
+            return;
+        }
+        if (depth >= maxDepth) {
+            writer.writeString(TRUNCATED);
+            return;
+        }
+        if (value instanceof Map<?, ?> map) {
+            writeMap(writer, map, depth);
+            return;
+        }
+        if (value instanceof Iterable<?> iterable) {
+            writeIterable(writer, iterable.iterator(), value instanceof Collection<?> collection ? collection.size() : -1, depth);
+            return;
+        }
+        if (value.getClass().isArray()) {
+            writeArray(writer, value, depth);
+            return;
+        }
+        writeBean(writer, value, depth);
+    }
+
+    private void writeMap(JSONWriter writer, Map<?, ?> map, int depth) {
+        writer.startObject();
+        int count = 0;
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            if (count++ >= maxCollectionSize) {
+                writeName(writer, TRUNCATED);
+                writer.writeString("size=" + map.size());
+                break;
+            }
+            writeName(writer, String.valueOf(entry.getKey()));
+            writeValue(writer, entry.getValue(), depth + 1);
+        }
+        writer.endObject();
+    }
+
+    private void writeIterable(JSONWriter writer, Iterator<?> iterator, int size, int depth) {
+        if (writer.jsonb) {
+            /*JSONB需要预先写入数组长度 先取出不超过限制的元素, 多取的一个位置用于截断标记*/
+            List<Object> elements = new ArrayList<>(Math.min(size < 0 ? 16 : size, maxCollectionSize + 1));
+            while (iterator.hasNext() && elements.size() <= maxCollectionSize) {
+                elements.add(iterator.next());
+            }
+            writer.startArray(elements.size());
+            iterator = elements.iterator();
+        } else {
+            writer.startArray();
+        }
+        int count = 0;
+        while (iterator.hasNext()) {
+            if (count > 0) {
+                writeComma(writer);
+            }
+            if (count++ >= maxCollectionSize) {
+                writer.writeString(size >= 0 ? TRUNCATED + "size=" + size : TRUNCATED);
+                break;
+            }
+            writeValue(writer, iterator.next(), depth + 1);
+        }
+        writer.endArray();
+    }
+
+    private void writeArray(JSONWriter writer, Object array, int depth) {
+        int length = Array.getLength(array);
+        if (writer.jsonb) {
+            writer.startArray(length > maxCollectionSize ? maxCollectionSize + 1 : length);
+        } else {
+            writer.startArray();
+        }
+        for (int i = 0; i < length; i++) {
+            if (i > 0) {
+                writeComma(writer);
+            }
+            if (i >= maxCollectionSize) {
+                writer.writeString(TRUNCATED + "size=" + length);
+                break;
+            }
+            writeValue(writer, Array.get(array, i), depth + 1);
+        }
+        writer.endArray();
+    }
+
+    /**
+     * 写入普通对象 使用fastjson2缓存的属性访问器逐个读取属性
+     *
+     * @param writer 输出
+     * @param bean   对象
+     * @param depth  当前深度
+     */
+    @SuppressWarnings("unchecked")
+    private void writeBean(JSONWriter writer, Object bean, int depth) {
+        ObjectWriter<?> objectWriter = JSONFactory.getDefaultObjectWriterProvider().getObjectWriter(bean.getClass());
+        List<FieldWriter> fieldWriters = (List<FieldWriter>) objectWriter.getFieldWriters();
+        if (fieldWriters == null || fieldWriters.isEmpty()) {
+            /*日期、UUID等没有属性的类型 交给fastjson2直接输出*/
+            writer.writeAny(bean);
+            return;
+        }
+        writer.startObject();
+        for (FieldWriter fieldWriter : fieldWriters) {
+            Object fieldValue;
+            try {
+                fieldValue = fieldWriter.getFieldValue(bean);
+            } catch (Exception e) {
+                log.debug("[operation-log]读取参数属性失败! field={}", fieldWriter.fieldName, e);
+                continue;
+            }
+            if (fieldValue == null) {
+                continue;
+            }
+            writeName(writer, fieldWriter.fieldName);
+            writeValue(writer, fieldValue, depth + 1);
+        }
+        writer.endObject();
+    }
+
+    /*JSONB没有分隔符 只有JSON文本需要写入*/
+    private static void writeComma(JSONWriter writer) {
+        if (!writer.jsonb) {
+            writer.writeComma();
+        }
+    }
+
+    private static void writeName(JSONWriter writer, String name) {
+        writer.writeName(name);
+        if (!writer.jsonb) {
+            writer.writeColon();
+        }
+    }
+
+    private void writeString(JSONWriter writer, String value) {
+        if (value.length() > maxStringLength) {
+            writer.writeString(value.substring(0, maxStringLength) + TRUNCATED);
+            return;
+        }
+        writer.writeString(value);
+    }
+
+    /**
+     * 不能进行序列化的类型
+     *
+     * @param value 值
+     * @return 类型名称, 可以序列化时返回null
+     */
+    static String unsupportedTypeName(Object value) {
+        if (value instanceof ServletRequest) {
+            return "ServletRequest";
+        } else if (value instanceof ServletResponse) {
+            return "ServletResponse";
+        } else if (value instanceof MultipartFile) {
+            return "MultipartFile";
+        } else if (value instanceof MultipartFile[]) {
+            return "MultipartFile[]";
+        } else if (value instanceof InputStreamSource) {
+            return "InputStreamSource";
+        } else if (value instanceof InputStream || value instanceof OutputStream || value instanceof Reader || value instanceof Writer) {
+            return value.getClass().getSimpleName();
+        }
+        return null;
+    }
+
+    /**
+     * 参数的JSONB二进制快照
+     *
+     * @param jsonb 二进制内容
+     */
+    private record BinarySnapshot(byte[] jsonb) {
+    }
+
+    /**
+     * 已经序列化完成的JSON
+     *
+     * @param json JSON文本
+     */
+    private record RawJson(String json) {
+    }
+}
@@ -0,0 +1,24 @@
+package cn.creekmoon.operationLog.core;
+
+/**
+ * 日志限流的范围
+ *
+ * @author creekmoon
+ */
+public enum RateLimitScope {
+
+    /**
+     * 使用配置 operation-log.sampling.rate-limit-scope
+     */
+    DEFAULT,
+
+    /**
+     * 同一个方法共享一个令牌桶
+     */
+    METHOD,
+
+    /**
+     * 同一个方法的每个用户各自一个令牌桶
+     */
+    USER,
+}
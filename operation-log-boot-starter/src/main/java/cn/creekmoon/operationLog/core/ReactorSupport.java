@@ -0,0 +1,78 @@
+package cn.creekmoon.operationLog.core;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+/**
+ * Reactor返回值的支持 只有引入了Reactor时才会被加载
+ *
+ * @author creekmoon
+ */
+class ReactorSupport {
+
+    /*订阅上下文(Context)中保存日志上下文帧的键*/
+    static final Object FRAME_KEY = OperationLogFrame.class;
+
+    private ReactorSupport() {
+    }
+
+    /**
+     * 是否为Reactor的响应式类型
+     *
+     * @param returnValue 方法返回值
+     * @return 是否为Mono或Flux
+     */
+    static boolean isReactive(Object returnValue) {
+        return returnValue instanceof Mono<?> || returnValue instanceof Flux<?>;
+    }
+
+    /**
+     * 在响应式流结束(完成、异常、取消)时执行回调, 并把日志上下文帧写入订阅上下文
+     * 每次订阅使用独立的状态; 同一个上下文帧只会结束一次, 因此只有第一次订阅的结果会被记录
+     *
+     * @param returnValue 方法返回值 Mono或Flux
+     * @param frame       当前的上下文帧
+     * @param callback    回调 参数为Mono的结果(Flux为null)和异常, 取消时异常为CancellationException
+     * @return 附加了回调的响应式流
+     */
+    static Object onTerminate(Object returnValue, OperationLogFrame frame, BiConsumer<Object, Throwable> callback) {
+        if (returnValue instanceof Mono<?> mono) {
+            return Mono.defer(() -> {
+                AtomicReference<Object> result = new AtomicReference<>();
+                AtomicReference<Throwable> error = new AtomicReference<>();
+                return mono.doOnNext(result::set)
+                        .doOnError(error::set)
+                        .doFinally(signalType -> callback.accept(result.get(), terminalError(signalType, result.get() != null, error.get())));
+            }).contextWrite(context -> context.put(FRAME_KEY, frame));
+        }
+        if (returnValue instanceof Flux<?> flux) {
+            return Flux.defer(() -> {
+                AtomicReference<Throwable> error = new AtomicReference<>();
+                return flux.doOnError(error::set)
+                        .doFinally(signalType -> callback.accept(null, terminalError(signalType, false, error.get())));
+            }).contextWrite(context -> context.put(FRAME_KEY, frame));
+        }
+        return returnValue;
+    }
+
+    /**
+     * 响应式流结束时的异常
+     *
+     * @param signalType 结束信号
+     * @param emitted    Mono是否已经发出结果
+     * @param error      流中的异常
+     * @return 异常 正常结束时为null
+     */
+    private static Throwable terminalError(SignalType signalType, boolean emitted, Throwable error) {
+        /*Mono发出结果后被取消是正常结束, 其他情况下的取消说明操作没有执行完*/
+        if (signalType == SignalType.CANCEL && !emitted) {
+            return new CancellationException("响应式流已取消");
+        }
+        return error;
+    }
+}
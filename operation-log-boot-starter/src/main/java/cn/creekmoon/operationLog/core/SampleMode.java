@@ -0,0 +1,24 @@
+package cn.creekmoon.operationLog.core;
+
+/**
+ * 日志采样方式
+ *
+ * @author creekmoon
+ */
+public enum SampleMode {
+
+    /**
+     * 使用配置 operation-log.sampling.mode
+     */
+    DEFAULT,
+
+    /**
+     * 按固定比例采样 成功和失败的调用一视同仁
+     */
+    RATIO,
+
+    /**
+     * 失败的调用总是记录, 只对成功的调用采样和限流
+     */
+    ALWAYS_ON_FAILURE,
+}
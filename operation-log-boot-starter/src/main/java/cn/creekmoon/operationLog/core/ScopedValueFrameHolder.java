@@ -0,0 +1,73 @@
+package cn.creekmoon.operationLog.core;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * 基于ScopedValue的上下文帧存储
+ * 绑定随调用栈自动解除, 不需要清理; 通过StructuredTaskScope派生的子任务会继承当前绑定
+ * JDK21中ScopedValue仍是预览API, 为了不要求使用方开启--enable-preview, 这里通过MethodHandle访问
+ *
+ * @author creekmoon
+ */
+class ScopedValueFrameHolder implements OperationLogFrameHolder {
+
+    private final Object scopedValue;
+    private final MethodHandle where;
+    private final MethodHandle run;
+    private final MethodHandle isBound;
+    private final MethodHandle get;
+
+    private ScopedValueFrameHolder() throws Throwable {
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        Class<?> scopedValueClass = Class.forName("java.lang.ScopedValue");
+        Class<?> carrierClass = Class.forName("java.lang.ScopedValue$Carrier");
+        this.scopedValue = lookup.findStatic(scopedValueClass, "newInstance", MethodType.methodType(scopedValueClass)).invoke();
+        this.where = lookup.findStatic(scopedValueClass, "where", MethodType.methodType(carrierClass, scopedValueClass, Object.class));
+        this.run = lookup.findVirtual(carrierClass, "run", MethodType.methodType(void.class, Runnable.class));
+        this.isBound = lookup.findVirtual(scopedValueClass, "isBound", MethodType.methodType(boolean.class));
+        this.get = lookup.findVirtual(scopedValueClass, "get", MethodType.methodType(Object.class));
+    }
+
+    /**
+     * 尝试创建 当前JDK不支持ScopedValue时返回null
+     *
+     * @return 实例或null
+     */
+    static ScopedValueFrameHolder tryCreate() {
+        try {
+            return new ScopedValueFrameHolder();
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    @Override
+    public OperationLogFrame current() {
+        try {
+            return (boolean) isBound.invoke(scopedValue) ? (OperationLogFrame) get.invoke(scopedValue) : null;
+        } catch (Throwable e) {
+            throw new IllegalStateException("[operation-log]读取ScopedValue失败!", e);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <R> R callWithFrame(OperationLogFrame frame, FrameCallable<R> operation) throws Throwable {
+        Object[] result = new Object[1];
+        Throwable[] error = new Throwable[1];
+        Object carrier = where.invoke(scopedValue, frame);
+        run.invoke(carrier, (Runnable) () -> {
+            try {
+                result[0] = operation.call();
+            } catch (Throwable e) {
+                error[0] = e;
+            }
+        });
+        if (error[0] != null) {
+            throw error[0];
+        }
+        return (R) result[0];
+    }
+}
@@ -0,0 +1,33 @@
+package cn.creekmoon.operationLog.core;
+
+/**
+ * 基于ThreadLocal的上下文帧存储
+ * 每个线程只占用一个ThreadLocal槽位
+ *
+ * @author creekmoon
+ */
+class ThreadLocalFrameHolder implements OperationLogFrameHolder {
+
+    private final ThreadLocal<OperationLogFrame> currentFrame = new ThreadLocal<>();
+
+    @Override
+    public OperationLogFrame current() {
+        return currentFrame.get();
+    }
+
+    @Override
+    public <R> R callWithFrame(OperationLogFrame frame, FrameCallable<R> operation) throws Throwable {
+        OperationLogFrame previous = currentFrame.get();
+        currentFrame.set(frame);
+        try {
+            return operation.call();
+        } finally {
+            /*及时移除对象*/
+            if (previous == null) {
+                currentFrame.remove();
+            } else {
+                currentFrame.set(previous);
+            }
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package cn.creekmoon.operationLog.config;
+
+import cn.creekmoon.operationLog.core.LogRecord;
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Elasticsearch日志处理器 使用JDK自带的HttpServer模拟_bulk接口
+ *
+ * @author creekmoon
+ */
+class ElasticsearchOperationLogHandlerTest {
+
+    private HttpServer server;
+    private ElasticsearchOperationLogHandler handler;
+    private OperationLogConfig config;
+    /*收到的请求*/
+    private final List<BulkRequest> requests = new CopyOnWriteArrayList<>();
+    /*按顺序返回的响应 用完后返回全部成功*/
+    private final ConcurrentLinkedQueue<Reply> replies = new ConcurrentLinkedQueue<>();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/_bulk", this::handle);
+        server.start();
+        config = new OperationLogConfig();
+        OperationLogConfig.Elasticsearch elasticsearch = config.getElasticsearch();
+        elasticsearch.setEnabled(true);
+        elasticsearch.setUrls(List.of("http://127.0.0.1:" + server.getAddress().getPort() + "/"));
+        elasticsearch.setIndex("logs-{yyyy.MM.dd}");
+        elasticsearch.setGzip(false);
+        elasticsearch.setRetryBackoff(Duration.ofMillis(1));
+        elasticsearch.setMaxRetryBackoff(Duration.ofMillis(1));
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (handler != null) {
+            handler.close();
+        }
+        server.stop(0);
+    }
+
+    @Test
+    void resendsOnlyRetryableItems() {
+        config.getElasticsearch().setUsername("elastic");
+        config.getElasticsearch().setPassword("secret");
+        /*过滤后的响应只有状态和错误信息 没有_index、_id等字段*/
+        replies.add(Reply.json(200, """
+                {"errors":true,"items":[
+                  {"index":{"status":201}},
+                  {"index":{"status":429,"error":{"type":"es_rejected_execution_exception","reason":"queue full"}}},
+                  {"index":{"status":400,"error":{"type":"mapper_parsing_exception","reason":"failed to parse"}}},
+                  {"index":{"status":503,"error":{"type":"unavailable_shards_exception","reason":"primary shard is not active"}}}
+                ]}"""));
+        List<LogRecord> logRecords = logRecords(4);
+
+        handler().handleBatch(logRecords);
+
+        assertEquals(2, requests.size());
+        BulkRequest first = requests.get(0);
+        assertEquals("filter_path=errors,items.*.status,items.*.error.type,items.*.error.reason", first.query());
+        assertEquals("Basic " + Base64.getEncoder().encodeToString("elastic:secret".getBytes(StandardCharsets.UTF_8)), first.authorization());
+        assertEquals(ids(logRecords, 0, 1, 2, 3), first.ids());
+        assertEquals(List.of("logs-2024.01.01"), first.indices().stream().distinct().toList());
+        /*只重发被限流和服务端错误拒绝的文档 映射错误的文档被丢弃*/
+        assertEquals(ids(logRecords, 1, 3), requests.get(1).ids());
+    }
+
+    @Test
+    void retriesWholeRequestWhenOverloaded() {
+        replies.add(Reply.json(503, "{\"error\":\"unavailable\"}"));
+        List<LogRecord> logRecords = logRecords(2);
+
+        handler().handleBatch(logRecords);
+
+        assertEquals(2, requests.size());
+        assertEquals(ids(logRecords, 0, 1), requests.get(0).ids());
+        assertEquals(ids(logRecords, 0, 1), requests.get(1).ids());
+    }
+
+    @Test
+    void failsWithoutRetryWhenRequestRejected() {
+        replies.add(Reply.json(400, "{\"error\":\"bad request\"}"));
+
+        assertThrows(IllegalStateException.class, () -> handler().handleBatch(logRecords(2)));
+        assertEquals(1, requests.size());
+    }
+
+    @Test
+    void givesUpAfterMaxRetries() {
+        config.getElasticsearch().setMaxRetries(2);
+        for (int i = 0; i < 5; i++) {
+            replies.add(Reply.json(429, "{}"));
+        }
+
+        assertThrows(IllegalStateException.class, () -> handler().handleBatch(logRecords(1)));
+        assertEquals(3, requests.size());
+    }
+
+    @Test
+    void compressesRequestAndDecodesCompressedResponse() {
+        config.getElasticsearch().setGzip(true);
+        replies.add(Reply.gzip(200, "{\"errors\":true,\"items\":[{\"index\":{\"status\":201}},{\"index\":{\"status\":429}}]}"));
+        List<LogRecord> logRecords = logRecords(2);
+
+        handler().handleBatch(logRecords);
+
+        assertEquals(2, requests.size());
+        assertEquals("gzip", requests.get(0).contentEncoding());
+        assertEquals(ids(logRecords, 0, 1), requests.get(0).ids());
+        assertEquals(ids(logRecords, 1), requests.get(1).ids());
+    }
+
+    @Test
+    void adjustsBulkSizeByLatencyAndOverload() {
+        OperationLogConfig.Elasticsearch elasticsearch = config.getElasticsearch();
+        elasticsearch.setBulkSize(4);
+        elasticsearch.setMinBulkSize(2);
+        elasticsearch.setMaxBulkSize(8);
+        elasticsearch.setTargetLatency(Duration.ofSeconds(10));
+        handler();
+
+        /*响应远快于期望耗时 请求已满时每次增加四分之一*/
+        handler.handleBatch(logRecords(4));
+        assertEquals(5, handler.getBulkSize());
+        handler.handleBatch(logRecords(20));
+        assertEquals(List.of(4, 5, 6, 7, 2), requests.stream().map(x -> x.ids().size()).toList());
+        assertEquals(8, handler.getBulkSize());
+
+        /*被限流时减半*/
+        replies.add(Reply.json(429, "{}"));
+        handler.handleBatch(logRecords(1));
+        assertEquals(4, handler.getBulkSize());
+    }
+
+    @Test
+    void splitsByMaxBulkBytes() {
+        config.getElasticsearch().setBulkSize(100);
+        List<LogRecord> logRecords = logRecords(3);
+        /*字节上限只够放下一个文档及其action行*/
+        int documentBytes = logRecords.get(0).toFlatJsonBytes().length;
+        config.getElasticsearch().setMaxBulkBytes(DataSize.ofBytes(documentBytes + 100));
+
+        handler().handleBatch(logRecords);
+
+        assertEquals(List.of(1, 1, 1), requests.stream().map(x -> x.ids().size()).toList());
+    }
+
+    private ElasticsearchOperationLogHandler handler() {
+        handler = new ElasticsearchOperationLogHandler(config);
+        return handler;
+    }
+
+    private static List<LogRecord> logRecords(int count) {
+        List<LogRecord> logRecords = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            LogRecord logRecord = new LogRecord();
+            logRecord.setOperationName("操作" + i);
+            logRecord.setOperationTime(LocalDateTime.of(2024, 1, 1, 12, 0));
+            logRecords.add(logRecord);
+        }
+        return logRecords;
+    }
+
+    private static List<String> ids(List<LogRecord> logRecords, int... indexes) {
+        List<String> ids = new ArrayList<>(indexes.length);
+        for (int index : indexes) {
+            ids.add(String.valueOf(logRecords.get(index).getRecordId()));
+        }
+        return ids;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        byte[] body;
+        try (InputStream input = exchange.getRequestBody()) {
+            body = input.readAllBytes();
+        }
+        String contentEncoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+        if ("gzip".equals(contentEncoding)) {
+            try (InputStream input = new GZIPInputStream(new ByteArrayInputStream(body))) {
+                body = input.readAllBytes();
+            }
+        }
+        List<String> ids = new ArrayList<>();
+        List<String> indices = new ArrayList<>();
+        String[] lines = new String(body, StandardCharsets.UTF_8).split("\n");
+        for (int i = 0; i < lines.length; i += 2) {
+            JSONObject action = JSON.parseObject(lines[i]).getJSONObject("index");
+            ids.add(action.getString("_id"));
+            indices.add(action.getString("_index"));
+            assertNull(JSON.parseObject(lines[i + 1]).get("index"));
+        }
+        requests.add(new BulkRequest(exchange.getRequestURI().getQuery(), exchange.getRequestHeaders().getFirst("Authorization"),
+                contentEncoding, ids, indices));
+
+        Reply reply = replies.poll();
+        if (reply == null) {
+            reply = Reply.json(200, "{\"errors\":false}");
+        }
+        byte[] responseBody = reply.body().getBytes(StandardCharsets.UTF_8);
+        if (reply.gzip()) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(output)) {
+                gzip.write(responseBody);
+            }
+            responseBody = output.toByteArray();
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+        }
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(reply.status(), responseBody.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(responseBody);
+        }
+    }
+
+    /**
+     * 收到的bulk请求
+     *
+     * @param query           查询参数
+     * @param authorization   认证头
+     * @param contentEncoding 请求体编码
+     * @param ids             文档id
+     * @param indices         文档所在的索引
+     */
+    private record BulkRequest(String query, String authorization, String contentEncoding, List<String> ids, List<String> indices) {
+    }
+
+    /**
+     * 模拟的响应
+     *
+     * @param status 状态码
+     * @param body   响应体
+     * @param gzip   是否压缩响应体
+     */
+    private record Reply(int status, String body, boolean gzip) {
+
+        static Reply json(int status, String body) {
+            return new Reply(status, body, false);
+        }
+
+        static Reply gzip(int status, String body) {
+            return new Reply(status, body, true);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package cn.creekmoon.operationLog.config;
+
+import cn.creekmoon.operationLog.core.LogRecord;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 数据库日志处理器 使用H2内存数据库验证建表、写入和重试
+ *
+ * @author creekmoon
+ */
+class JdbcOperationLogHandlerTest {
+
+    private JdbcDataSource h2;
+    private OperationLogConfig config;
+    /*获取连接的次数 用于判断是否重试*/
+    private final AtomicInteger connections = new AtomicInteger();
+    /*获取连接时依次抛出的异常*/
+    private final List<SQLException> connectionFailures = new ArrayList<>();
+    /*语句上设置的查询超时*/
+    private final List<Integer> queryTimeouts = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        h2 = new JdbcDataSource();
+        h2.setURL("jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+        config = new OperationLogConfig();
+        config.getJdbc().setEnabled(true);
+        config.getJdbc().setAutoDdl(true);
+        config.getJdbc().setRetryBackoff(Duration.ofMillis(1));
+        config.getJdbc().setMaxRetryBackoff(Duration.ofMillis(1));
+    }
+
+    @Test
+    void createsTableAndWritesAllColumns() throws SQLException {
+        LogRecord logRecord = new LogRecord();
+        logRecord.setUserId(10086L);
+        logRecord.setUserName("张三");
+        logRecord.setProjectName("demo");
+        logRecord.setOperationType("DELETE");
+        logRecord.setOperationName("删除用户");
+        logRecord.setMethodName("delete");
+        logRecord.setClassFullName("cn.demo.UserService.delete");
+        logRecord.setRequestParamsJson("[\"1\"]");
+        logRecord.setRequestResult(false);
+        logRecord.setOperationTime(LocalDateTime.of(2024, 1, 1, 8, 0, 0, 123_000_000));
+        logRecord.getTags().add("用户");
+        logRecord.getRemarks().add("异常: 不存在");
+
+        handler().handleBatch(List.of(logRecord));
+
+        try (Connection connection = h2.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT * FROM operation_log")) {
+            assertTrue(resultSet.next());
+            assertEquals(logRecord.getRecordId(), resultSet.getLong("record_id"));
+            assertEquals(10086L, resultSet.getLong("user_id"));
+            assertEquals("张三", resultSet.getString("user_name"));
+            assertNull(resultSet.getObject("user_account_id"));
+            assertEquals("demo", resultSet.getString("project_name"));
+            assertEquals("DELETE", resultSet.getString("operation_type"));
+            assertEquals("删除用户", resultSet.getString("operation_name"));
+            assertEquals("delete", resultSet.getString("method_name"));
+            assertEquals("cn.demo.UserService.delete", resultSet.getString("class_full_name"));
+            assertFalse(resultSet.getBoolean("request_result"));
+            assertEquals(logRecord.getOperationTime(), resultSet.getObject("operation_time", LocalDateTime.class));
+            assertEquals(1, resultSet.getInt("repeat_count"));
+            assertNull(resultSet.getObject("last_operation_time"));
+            assertEquals("[\"1\"]", resultSet.getString("request_params"));
+            assertNull(resultSet.getString("pre_value"));
+            assertEquals("[\"用户\"]", resultSet.getString("tags"));
+            assertEquals("[\"异常: 不存在\"]", resultSet.getString("remarks"));
+            assertFalse(resultSet.next());
+        }
+    }
+
+    @Test
+    void writesPartialLastStatement() throws SQLException {
+        config.getJdbc().setRowsPerStatement(3);
+        List<LogRecord> logRecords = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            LogRecord logRecord = new LogRecord();
+            logRecord.setOperationName("操作" + i);
+            logRecords.add(logRecord);
+        }
+
+        handler().handleBatch(logRecords);
+
+        List<String> operationNames = new ArrayList<>();
+        try (Connection connection = h2.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT operation_name FROM operation_log ORDER BY operation_name")) {
+            while (resultSet.next()) {
+                operationNames.add(resultSet.getString(1));
+            }
+        }
+        assertEquals(List.of("操作0", "操作1", "操作2", "操作3", "操作4", "操作5", "操作6"), operationNames);
+    }
+
+    @Test
+    void doesNotRetryNonTransientErrors() {
+        /*表不存在且不自动建表 属于语法错误*/
+        config.getJdbc().setAutoDdl(false);
+        config.getJdbc().setMaxRetries(3);
+        JdbcOperationLogHandler handler = handler();
+
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> handler.handleBatch(List.of(new LogRecord())));
+        assertInstanceOf(SQLNonTransientException.class, e.getCause());
+        assertEquals(1, connections.get());
+    }
+
+    @Test
+    void retriesTransientErrors() throws SQLException {
+        config.getJdbc().setMaxRetries(3);
+        connectionFailures.add(new SQLTransientConnectionException("连接池已耗尽"));
+        connectionFailures.add(new SQLTransientConnectionException("连接池已耗尽"));
+
+        handler().handleBatch(List.of(new LogRecord()));
+
+        assertEquals(3, connections.get());
+        try (Connection connection = h2.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM operation_log")) {
+            assertTrue(resultSet.next());
+            assertEquals(1, resultSet.getInt(1));
+        }
+    }
+
+    @Test
+    void givesUpAfterMaxRetries() {
+        config.getJdbc().setMaxRetries(1);
+        for (int i = 0; i < 3; i++) {
+            connectionFailures.add(new SQLTransientConnectionException("连接池已耗尽"));
+        }
+
+        assertThrows(IllegalStateException.class, () -> handler().handleBatch(List.of(new LogRecord())));
+        assertEquals(2, connections.get());
+    }
+
+    @Test
+    void usesHandlerTimeoutAsQueryTimeout() {
+        OperationLogConfig.Handler handlerConfig = new OperationLogConfig.Handler();
+        handlerConfig.setTimeout(Duration.ofMillis(2500));
+        config.getHandlers().put("jdbcLogHandler", handlerConfig);
+        JdbcOperationLogHandler handler = handler();
+        handler.setBeanName("jdbcLogHandler");
+
+        handler.handleBatch(List.of(new LogRecord()));
+
+        /*建表和INSERT都设置了查询超时 不足一秒按一秒计算*/
+        assertEquals(List.of(3, 3), queryTimeouts);
+    }
+
+    private JdbcOperationLogHandler handler() {
+        return new JdbcOperationLogHandler(countingDataSource(), config);
+    }
+
+    /**
+     * 统计获取连接次数的数据源 按顺序抛出connectionFailures中的异常, 并记录语句上设置的查询超时
+     */
+    private DataSource countingDataSource() {
+        return proxy(DataSource.class, h2, (method, args) -> {
+            if (method.getName().equals("getConnection")) {
+                connections.incrementAndGet();
+                if (!connectionFailures.isEmpty()) {
+                    throw connectionFailures.remove(0);
+                }
+            }
+        });
+    }
+
+    /**
+     * 代理JDBC对象 连接创建的语句同样被代理
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T proxy(Class<T> type, T target, Interceptor interceptor) {
+        return (T) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            interceptor.before(method, args);
+            if (method.getName().equals("setQueryTimeout")) {
+                queryTimeouts.add((Integer) args[0]);
+            }
+            Object result;
+            try {
+                result = method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            if (result instanceof Connection connection) {
+                return proxy(Connection.class, connection, (m, a) -> {
+                });
+            }
+            if (result instanceof PreparedStatement statement) {
+                return proxy(PreparedStatement.class, statement, (m, a) -> {
+                });
+            }
+            if (result instanceof Statement statement) {
+                return proxy(Statement.class, statement, (m, a) -> {
+                });
+            }
+            return result;
+        });
+    }
+
+    private interface Interceptor {
+        void before(Method method, Object[] args) throws SQLException;
+    }
+}
@@ -0,0 +1,77 @@
+package cn.creekmoon.operationLog.core;
+
+import cn.creekmoon.operationLog.config.OperationLogConfig;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 处理通道的超时检查
+ *
+ * @author creekmoon
+ */
+class HandlerLaneTest {
+
+    @Test
+    void timeoutDoesNotInterruptNextBatch() throws InterruptedException {
+        OperationLogConfig.Handler config = new OperationLogConfig.Handler().withDefaults(new OperationLogConfig().getHandler());
+        config.setTimeout(Duration.ofMillis(2));
+        config.setQueueCapacity(1000);
+        config.setFailureThreshold(0);
+        AtomicInteger fastHandled = new AtomicInteger();
+        AtomicInteger fastInterrupted = new AtomicInteger();
+        OperationLogHandler handler = logRecord -> {
+            if ("slow".equals(logRecord.getOperationName())) {
+                /*不响应中断 执行时间在超时时间附近, 结束的同时超时检查可能正在判定*/
+                long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(1500 + (long) (Math.random() * 1000));
+                while (System.nanoTime() < deadline) {
+                    Thread.onSpinWait();
+                }
+                return;
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                fastInterrupted.incrementAndGet();
+            }
+            fastHandled.incrementAndGet();
+        };
+        HandlerLane lane = new HandlerLane("test", handler, config);
+        AtomicBoolean watching = new AtomicBoolean(true);
+        Thread watchdog = new Thread(() -> {
+            while (watching.get()) {
+                lane.checkTimeout(System.nanoTime());
+                Thread.yield();
+            }
+        });
+        watchdog.start();
+        int rounds = 300;
+        try {
+            for (int i = 0; i < rounds; i++) {
+                lane.submit(List.of(logRecord("slow")), true);
+                lane.submit(List.of(logRecord("fast")), true);
+            }
+            /*等待队列中的批次处理完毕*/
+            assertEquals(0, lane.shutdown(System.nanoTime() + TimeUnit.SECONDS.toNanos(30)));
+        } finally {
+            watching.set(false);
+            watchdog.join();
+        }
+
+        assertTrue(lane.getTimeoutCount() > 0);
+        /*失败的只有超时的批次 快批次不会被上一个批次的超时中断*/
+        assertEquals(0, fastInterrupted.get());
+        assertEquals(lane.getTimeoutCount(), lane.getFailedCount());
+    }
+
+    private static LogRecord logRecord(String operationName) {
+        LogRecord logRecord = new LogRecord();
+        logRecord.setOperationName(operationName);
+        return logRecord;
+    }
+}
@@ -0,0 +1,159 @@
+package cn.creekmoon.operationLog.core;
+
+import com.alibaba.fastjson2.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 日志记录的二进制编码与字符串字典
+ *
+ * @author creekmoon
+ */
+class LogRecordCodecTest {
+
+    /*版本1编码的日志记录 字典内容依次为 demo, DELETE, 删除用户, delete, cn.demo.UserService.delete, 用户*/
+    private static final String VERSION_1_RECORD = "01ffff0fcb89ec8ff723cc9d0106e5bca0e4b88909027a73010305070909a64d6e616d654a61a509a64d6e616d654a62a5"
+            + "2395a6516e657756616c75654a62516f6c6456616c75654a614d706174684d6e616d65a500055b2231225d80c493d90cc0a9d33a010b"
+            + "0111e5bc82e5b8b83a20e4b88de5ad98e59ca8";
+
+    @Test
+    void roundTripsWithDictionary() {
+        LogRecordCodec codec = new LogRecordCodec(new LogStringDictionary());
+
+        assertRecord(codec.decode(codec.encode(logRecord())));
+    }
+
+    @Test
+    void roundTripsWithoutDictionary() {
+        LogRecordCodec codec = new LogRecordCodec();
+
+        assertRecord(codec.decode(codec.encode(logRecord())));
+    }
+
+    @Test
+    void dictionaryShrinksRepeatedStrings() {
+        LogRecordCodec codec = new LogRecordCodec(new LogStringDictionary());
+        codec.encode(logRecord());
+
+        assertTrue(codec.encode(logRecord()).length < new LogRecordCodec().encode(logRecord()).length);
+    }
+
+    @Test
+    void decodesVersion1Record() {
+        LogStringDictionary dictionary = new LogStringDictionary();
+        for (String value : List.of("demo", "DELETE", "删除用户", "delete", "cn.demo.UserService.delete", "用户")) {
+            dictionary.idOf(value);
+        }
+
+        assertRecord(new LogRecordCodec(dictionary).decode(HexFormat.of().parseHex(VERSION_1_RECORD)));
+    }
+
+    @Test
+    void keepsLongStringsOutOfDictionary() {
+        LogStringDictionary dictionary = new LogStringDictionary();
+        assertEquals(0, dictionary.idOf("a".repeat(512)));
+        assertEquals(-1, dictionary.idOf("b".repeat(513)));
+
+        /*不能进入字典的字符串直接编码*/
+        LogRecord logRecord = logRecord();
+        logRecord.setClassFullName("c".repeat(600));
+        LogRecordCodec codec = new LogRecordCodec(dictionary);
+        assertEquals("c".repeat(600), codec.decode(codec.encode(logRecord)).getClassFullName());
+    }
+
+    @Test
+    void stopsGrowingAtMaxSize() {
+        LogStringDictionary dictionary = new LogStringDictionary();
+        for (int i = 0; i < 65536; i++) {
+            assertEquals(i, dictionary.idOf("s" + i));
+        }
+        assertEquals(-1, dictionary.idOf("overflow"));
+        assertEquals(7, dictionary.idOf("s7"));
+
+        LogRecord logRecord = logRecord();
+        logRecord.setProjectName("overflow");
+        LogRecordCodec codec = new LogRecordCodec(dictionary);
+        assertEquals("overflow", codec.decode(codec.encode(logRecord)).getProjectName());
+    }
+
+    @Test
+    void reloadsPersistedDictionary(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("dictionary.dat");
+        LogStringDictionary dictionary = new LogStringDictionary(file);
+        byte[] bytes = new LogRecordCodec(dictionary).encode(logRecord());
+        int size = dictionary.idOf("next");
+        dictionary.close();
+
+        /*模拟崩溃时写了一半的条目*/
+        Files.write(file, ByteBuffer.allocate(7).putInt(100).put(new byte[3]).array(), StandardOpenOption.APPEND);
+
+        LogStringDictionary reloaded = new LogStringDictionary(file);
+        assertRecord(new LogRecordCodec(reloaded).decode(bytes));
+        assertEquals(size, reloaded.idOf("next"));
+        /*写了一半的条目被截断 新条目紧接在完整条目之后*/
+        assertEquals(size + 1, reloaded.idOf("after-restart"));
+        reloaded.close();
+
+        LogStringDictionary reloadedAgain = new LogStringDictionary(file);
+        assertEquals(size + 1, reloadedAgain.idOf("after-restart"));
+        assertRecord(new LogRecordCodec(reloadedAgain).decode(bytes));
+        reloadedAgain.close();
+    }
+
+    private static LogRecord logRecord() {
+        LogRecord logRecord = new LogRecord();
+        logRecord.setRecordId(1234567890123L);
+        logRecord.setUserId(10086L);
+        logRecord.setUserName("张三");
+        logRecord.setUserAccountId(-5L);
+        logRecord.setUserAccountName("zs");
+        logRecord.setProjectName("demo");
+        logRecord.setOperationType("DELETE");
+        logRecord.setOperationName("删除用户");
+        logRecord.setMethodName("delete");
+        logRecord.setClassFullName("cn.demo.UserService.delete");
+        logRecord.setRequestResult(false);
+        logRecord.setRequestParamsJson("[\"1\"]");
+        logRecord.setOperationTime(LocalDateTime.of(2024, 1, 1, 8, 0, 0, 123_000_000));
+        logRecord.getTags().add("用户");
+        logRecord.getRemarks().add("异常: 不存在");
+        logRecord.setPreValue(JSONObject.of("name", "a"));
+        logRecord.setAfterValue(JSONObject.of("name", "b"));
+        logRecord.setChanges(List.of(new FieldChange("name", "a", "b")));
+        return logRecord;
+    }
+
+    private static void assertRecord(LogRecord logRecord) {
+        assertEquals(1234567890123L, logRecord.getRecordId());
+        assertEquals(10086L, logRecord.getUserId());
+        assertEquals("张三", logRecord.getUserName());
+        assertEquals(-5L, logRecord.getUserAccountId());
+        assertEquals("zs", logRecord.getUserAccountName());
+        assertEquals("demo", logRecord.getProjectName());
+        assertEquals("DELETE", logRecord.getOperationType());
+        assertEquals("删除用户", logRecord.getOperationName());
+        assertEquals("delete", logRecord.getMethodName());
+        assertEquals("cn.demo.UserService.delete", logRecord.getClassFullName());
+        assertFalse(logRecord.getRequestResult());
+        assertEquals("[\"1\"]", logRecord.getRequestParamsJson());
+        assertEquals(LocalDateTime.of(2024, 1, 1, 8, 0, 0, 123_000_000), logRecord.getOperationTime());
+        assertEquals(List.of("用户"), List.copyOf(logRecord.getTags()));
+        assertEquals(List.of("异常: 不存在"), List.copyOf(logRecord.getRemarks()));
+        assertEquals(JSONObject.of("name", "a"), logRecord.getPreValue());
+        assertEquals(JSONObject.of("name", "b"), logRecord.getAfterValue());
+        assertEquals(List.of(new FieldChange("name", "a", "b")), logRecord.getChanges());
+    }
+}
@@ -0,0 +1,149 @@
+package cn.creekmoon.operationLog.core;
+
+import com.alibaba.fastjson2.JSONArray;
+import com.alibaba.fastjson2.JSONB;
+import com.alibaba.fastjson2.JSONObject;
+import com.alibaba.fastjson2.JSONWriter;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 跟踪值的快照与比较 主要验证循环引用和大对象不会无限展开
+ *
+ * @author creekmoon
+ */
+class ObjectDifferTest {
+
+    @Test
+    void marksParentChildCycle() {
+        Parent parent = parent(2);
+
+        JSONObject snapshot = (JSONObject) ObjectDiffer.snapshot(parent);
+
+        JSONArray children = snapshot.getJSONArray("children");
+        assertEquals(2, children.size());
+        assertEquals("child0", children.getJSONObject(0).getString("name"));
+        assertEquals("$ref", children.getJSONObject(0).get("parent"));
+    }
+
+    @Test
+    void diffsCyclicAggregate() {
+        Parent parent = parent(50);
+        Object before = ObjectDiffer.snapshot(parent);
+        parent.getChildren().get(3).setName("changed");
+
+        List<FieldChange> changes = assertTimeoutPreemptively(Duration.ofSeconds(5), () -> ObjectDiffer.diff(before, parent, 200));
+
+        assertEquals(1, changes.size());
+        assertEquals("children[3].name", changes.get(0).getPath());
+        assertEquals("child3", changes.get(0).getOldValue());
+        assertEquals("changed", changes.get(0).getNewValue());
+        /*两边都是原始对象时同样可以比较*/
+        assertEquals(List.of(), ObjectDiffer.diff(parent, parent, 200));
+    }
+
+    @Test
+    void diffsCycleRestoredFromJsonb() {
+        Parent parent = parent(3);
+        Object before = JSONB.parse(JSONB.toBytes(parent, JSONWriter.Feature.ReferenceDetection));
+        parent.setName("changed");
+
+        List<FieldChange> changes = ObjectDiffer.diff(before, parent, 200);
+
+        assertEquals(1, changes.size());
+        assertEquals("name", changes.get(0).getPath());
+    }
+
+    @Test
+    void capsCollections() {
+        List<Integer> values = new ArrayList<>();
+        for (int i = 0; i < 150; i++) {
+            values.add(i);
+        }
+
+        JSONArray snapshot = (JSONArray) ObjectDiffer.snapshot(values);
+
+        assertEquals(101, snapshot.size());
+        assertEquals(99, snapshot.get(99));
+        assertEquals("...size=150", snapshot.get(100));
+        /*超过数量限制的元素不再比较*/
+        List<Integer> after = new ArrayList<>(values);
+        after.set(120, -1);
+        assertEquals(List.of(), ObjectDiffer.diff(snapshot, after, 200));
+    }
+
+    @Test
+    void capsSharedReferences() {
+        /*每一层都引用两次下一层 不是循环引用, 但完全展开需要2^16个节点*/
+        Object value = "leaf";
+        for (int i = 0; i < 16; i++) {
+            value = List.of(value, value);
+        }
+        Object shared = value;
+
+        Object snapshot = assertTimeoutPreemptively(Duration.ofSeconds(5), () -> ObjectDiffer.snapshot(shared));
+
+        assertTrue(snapshot.toString().contains("\"...\""));
+    }
+
+    private static Parent parent(int size) {
+        Parent parent = new Parent();
+        parent.setName("parent");
+        for (int i = 0; i < size; i++) {
+            Child child = new Child();
+            child.setName("child" + i);
+            child.setParent(parent);
+            parent.getChildren().add(child);
+        }
+        return parent;
+    }
+
+    public static class Parent {
+        private String name;
+        private List<Child> children = new ArrayList<>();
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public List<Child> getChildren() {
+            return children;
+        }
+
+        public void setChildren(List<Child> children) {
+            this.children = children;
+        }
+    }
+
+    public static class Child {
+        private String name;
+        private Parent parent;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public Parent getParent() {
+            return parent;
+        }
+
+        public void setParent(Parent parent) {
+            this.parent = parent;
+        }
+    }
+}